@@ -0,0 +1,155 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import it.interop.dgc.gateway.dto.TrustListItemDto;
+import it.interop.dgc.gateway.dto.ValidationRuleDto;
+import it.interop.dgc.gateway.util.JsonCodec;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of the trust list and of the rules downloaded from the gateway.
+ * The perCall variants mirror RestApiClientImpl (new Gson, TypeToken and
+ * String per response); the shared variants reuse a pre-built codec and
+ * decode straight from the response bytes; the codec variants go through
+ * the JsonCodec used by the client.
+ *
+ * <p>Run with {@code -Djmh.args="JsonDecodingBenchmark -prof gc"} to get
+ * the allocation rate next to the decode time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonDecodingBenchmark {
+
+    private static final Type TRUST_LIST_TYPE = new TypeToken<ArrayList<TrustListItemDto>>() {}
+        .getType();
+    private static final Type RULES_TYPE = new TypeToken<HashMap<String, List<ValidationRuleDto>>>() {}
+        .getType();
+
+    @Param({ "1000", "10000", "50000" })
+    private int items;
+
+    private byte[] trustList;
+    private byte[] rules;
+
+    private Gson gson;
+    private ObjectReader trustListReader;
+    private ObjectReader rulesReader;
+    private JsonCodec jsonCodec;
+
+    @Setup
+    public void setup() {
+        trustList = JsonPayloads.trustList(items);
+        rules = JsonPayloads.rules(items);
+
+        gson = new Gson();
+        jsonCodec = new JsonCodec();
+        ObjectMapper objectMapper = new ObjectMapper();
+        trustListReader =
+            objectMapper.readerFor(
+                new TypeReference<List<TrustListItemDto>>() {}
+            );
+        rulesReader =
+            objectMapper.readerFor(
+                new TypeReference<Map<String, List<ValidationRuleDto>>>() {}
+            );
+    }
+
+    @Benchmark
+    public List<TrustListItemDto> trustListGsonPerCall() {
+        Gson gson = new Gson();
+        Type trustListType = new TypeToken<ArrayList<TrustListItemDto>>() {}
+            .getType();
+        return gson.fromJson(new String(trustList), trustListType);
+    }
+
+    @Benchmark
+    public List<TrustListItemDto> trustListGsonShared() {
+        return gson.fromJson(reader(trustList), TRUST_LIST_TYPE);
+    }
+
+    @Benchmark
+    public List<TrustListItemDto> trustListJacksonShared()
+        throws IOException {
+        return trustListReader.readValue(trustList);
+    }
+
+    @Benchmark
+    public List<TrustListItemDto> trustListCodec() throws IOException {
+        return jsonCodec.readTrustList(trustList);
+    }
+
+    @Benchmark
+    public Map<String, List<ValidationRuleDto>> rulesGsonPerCall() {
+        Gson gson = new Gson();
+        Type rulesType = new TypeToken<HashMap<String, List<ValidationRuleDto>>>() {}
+            .getType();
+        return gson.fromJson(new String(rules), rulesType);
+    }
+
+    @Benchmark
+    public Map<String, List<ValidationRuleDto>> rulesGsonShared() {
+        return gson.fromJson(reader(rules), RULES_TYPE);
+    }
+
+    @Benchmark
+    public Map<String, List<ValidationRuleDto>> rulesJacksonShared()
+        throws IOException {
+        return rulesReader.readValue(rules);
+    }
+
+    @Benchmark
+    public Map<String, List<ValidationRuleDto>> rulesCodec()
+        throws IOException {
+        return jsonCodec.readValidationRules(rules);
+    }
+
+    private static Reader reader(byte[] body) {
+        return new InputStreamReader(
+            new ByteArrayInputStream(body),
+            StandardCharsets.UTF_8
+        );
+    }
+}
@@ -0,0 +1,134 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Synthetic gateway payloads shaped like the real ones: trust-list items
+ * carry a DER-sized raw data and a detached CMS signature, rules carry a
+ * CMS of a few kilobytes.
+ */
+public final class JsonPayloads {
+
+    private static final String TIMESTAMP = "2021-06-01T10:00:00Z";
+    private static final int RAW_DATA_BYTES = 800;
+    private static final int SIGNATURE_BYTES = 1800;
+    private static final int RULE_CMS_BYTES = 4000;
+    private static final int COUNTRIES = 30;
+
+    private JsonPayloads() {}
+
+    public static byte[] trustList(int items) {
+        Random random = new Random(items);
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json
+                .append("{\"kid\":\"")
+                .append(base64(random, 8))
+                .append("\",\"timestamp\":\"")
+                .append(TIMESTAMP)
+                .append("\",\"country\":\"")
+                .append(country(i))
+                .append("\",\"certificateType\":\"")
+                .append(i % 10 == 0 ? "CSCA" : "DSC")
+                .append("\",\"thumbprint\":\"")
+                .append(hex(random, 32))
+                .append("\",\"signature\":\"")
+                .append(base64(random, SIGNATURE_BYTES))
+                .append("\",\"rawData\":\"")
+                .append(base64(random, RAW_DATA_BYTES))
+                .append("\"}");
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static byte[] rules(int items) {
+        Random random = new Random(items);
+        StringBuilder json = new StringBuilder("{");
+        for (int c = 0; c < COUNTRIES; c++) {
+            if (c > 0) {
+                json.append(',');
+            }
+            json.append('"').append(country(c)).append("\":[");
+            for (int i = c; i < items; i += COUNTRIES) {
+                if (i > c) {
+                    json.append(',');
+                }
+                json
+                    .append("{\"version\":\"1.0.")
+                    .append(i)
+                    .append("\",\"validFrom\":\"")
+                    .append(TIMESTAMP)
+                    .append("\",\"validTo\":\"")
+                    .append(TIMESTAMP)
+                    .append("\",\"cms\":\"")
+                    .append(base64(random, RULE_CMS_BYTES))
+                    .append("\"}");
+            }
+            json.append(']');
+        }
+        return json.append('}').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static String validationRule(int index) {
+        return (
+            "{\"Identifier\":\"GR-IT-" +
+            String.format("%04d", index) +
+            "\",\"Type\":\"Acceptance\",\"Country\":\"IT\"," +
+            "\"Region\":\"\",\"Version\":\"1.0.0\"," +
+            "\"SchemaVersion\":\"1.0.0\",\"Engine\":\"CERTLOGIC\"," +
+            "\"EngineVersion\":\"0.7.5\",\"CertificateType\":\"Vaccination\"," +
+            "\"Description\":[{\"lang\":\"en\",\"desc\":\"The vaccination " +
+            "schedule must be complete (e.g., 1/1, 2/2).\"}]," +
+            "\"ValidFrom\":\"" +
+            TIMESTAMP +
+            "\",\"ValidTo\":\"" +
+            TIMESTAMP +
+            "\",\"AffectedFields\":[\"v.0\",\"v.0.dn\",\"v.0.sd\"]," +
+            "\"Logic\":{\"if\":[{\"var\":\"payload.v.0\"}," +
+            "{\">=\":[{\"var\":\"payload.v.0.dn\"}," +
+            "{\"var\":\"payload.v.0.sd\"}]},true]}}"
+        );
+    }
+
+    private static String country(int index) {
+        return new String(
+            new char[] {
+                (char) ('A' + index % COUNTRIES % 26),
+                (char) ('A' + index % COUNTRIES / 26),
+            }
+        );
+    }
+
+    private static String base64(Random random, int bytes) {
+        byte[] data = new byte[bytes];
+        random.nextBytes(data);
+        return Base64.getEncoder().encodeToString(data);
+    }
+
+    private static String hex(Random random, int bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < bytes; i++) {
+            hex.append(String.format("%02x", random.nextInt(256)));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,132 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.benchmark;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.interop.dgc.gateway.signing.CertificateSignatureVerifier;
+import it.interop.dgc.gateway.signing.CertificateUtils;
+import it.interop.dgc.gateway.signing.SignedCertificateMessageParser;
+import it.interop.dgc.gateway.signing.SignedStringMessageParser;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Signing and verification hot paths of the download phase, over EC and
+ * RSA certificates.
+ *
+ * <p>Run with {@code mvn -Pbenchmark verify -Djmh.args=SigningBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SigningBenchmark {
+
+    private static final String RULE_PAYLOAD =
+        "{\"Identifier\":\"GR-IT-0001\",\"Version\":\"1.0.0\"," +
+        "\"Country\":\"IT\",\"Type\":\"Acceptance\"}";
+
+    @Param({ "EC", "RSA" })
+    private SigningFixture.KeyType keyType;
+
+    private SigningFixture fixture;
+    private CertificateSignatureVerifier verifier;
+    private CertificateUtils certificateUtils;
+    private X509Certificate dscCertificate;
+
+    @Setup
+    public void setup() throws Exception {
+        fixture = new SigningFixture(keyType, RULE_PAYLOAD);
+        certificateUtils = new CertificateUtils();
+        dscCertificate = certificateUtils.convertCertificate(fixture.getDsc());
+
+        verifier = new CertificateSignatureVerifier();
+        ReflectionTestUtils.setField(
+            verifier,
+            "certificateUtils",
+            certificateUtils
+        );
+        ReflectionTestUtils.setField(
+            verifier,
+            "meterRegistry",
+            new SimpleMeterRegistry()
+        );
+        ReflectionTestUtils.setField(
+            verifier,
+            "trustAnchor",
+            fixture.getTrustAnchor()
+        );
+    }
+
+    @Benchmark
+    public SignedCertificateMessageParser parseCertificateMessage() {
+        return new SignedCertificateMessageParser(
+            fixture.getCscaItem().getSignature(),
+            fixture.getCscaItem().getRawData()
+        );
+    }
+
+    @Benchmark
+    public SignedStringMessageParser parseStringMessage() {
+        return new SignedStringMessageParser(fixture.getRuleCms());
+    }
+
+    @Benchmark
+    public boolean trustListItemSignedByCa() {
+        return verifier.trustListItemSignedByCa(
+            fixture.getDscItem(),
+            fixture.getCscaItem()
+        );
+    }
+
+    @Benchmark
+    public boolean checkTrustAnchorSignature() {
+        return verifier.checkTrustAnchorSignature(fixture.getCscaItem());
+    }
+
+    @Benchmark
+    public String certThumbprint() {
+        return certificateUtils.getCertThumbprint(fixture.getDsc());
+    }
+
+    @Benchmark
+    public String certThumbprintX509() {
+        return certificateUtils.getCertThumbprint(dscCertificate);
+    }
+
+    @Benchmark
+    public String certKid() {
+        return certificateUtils.getCertKid(fixture.getDsc());
+    }
+
+    @Benchmark
+    public String certKidX509() {
+        return certificateUtils.getCertKid(dscCertificate);
+    }
+}
@@ -0,0 +1,176 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.benchmark;
+
+import it.interop.dgc.gateway.dto.TrustListItemDto;
+import it.interop.dgc.gateway.enums.CertificateType;
+import it.interop.dgc.gateway.signing.CertificateUtils;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+/**
+ * Generated certificate chain used by the benchmarks: a trust anchor, a
+ * CSCA signed by the anchor (detached CMS, as in the gateway trust list)
+ * and a DSC issued by the CSCA, plus an attached CMS carrying a rule.
+ */
+@Getter
+public class SigningFixture {
+
+    public enum KeyType {
+        EC,
+        RSA,
+    }
+
+    private static final String COUNTRY = "IT";
+    private static final long VALIDITY_MILLIS = TimeUnit.DAYS.toMillis(365);
+
+    private final X509CertificateHolder trustAnchor;
+    private final X509CertificateHolder csca;
+    private final X509CertificateHolder dsc;
+    private final TrustListItemDto cscaItem;
+    private final TrustListItemDto dscItem;
+    private final String ruleCms;
+
+    public SigningFixture(KeyType keyType, String rulePayload)
+        throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        CertificateUtils certificateUtils = new CertificateUtils();
+
+        KeyPair anchorKeys = generateKeyPair(keyType);
+        KeyPair cscaKeys = generateKeyPair(keyType);
+        KeyPair dscKeys = generateKeyPair(keyType);
+
+        X500Name anchorName = new X500Name("CN=Benchmark Trust Anchor");
+        X500Name cscaName = new X500Name("C=IT,CN=Benchmark CSCA");
+        trustAnchor =
+            certificate(anchorName, anchorKeys, anchorName, anchorKeys);
+        csca = certificate(cscaName, cscaKeys, cscaName, cscaKeys);
+        dsc =
+            certificate(
+                new X500Name("C=IT,CN=Benchmark DSC"),
+                dscKeys,
+                cscaName,
+                cscaKeys
+            );
+
+        cscaItem = new TrustListItemDto();
+        cscaItem.setCountry(COUNTRY);
+        cscaItem.setCertificateType(CertificateType.CSCA);
+        cscaItem.setKid(certificateUtils.getCertKid(csca));
+        cscaItem.setThumbprint(certificateUtils.getCertThumbprint(csca));
+        cscaItem.setRawData(encode(csca.getEncoded()));
+        cscaItem.setSignature(
+            encode(cms(trustAnchor, anchorKeys, csca.getEncoded(), false))
+        );
+        cscaItem.setTimestamp(new Date());
+
+        dscItem = new TrustListItemDto();
+        dscItem.setCountry(COUNTRY);
+        dscItem.setCertificateType(CertificateType.DSC);
+        dscItem.setKid(certificateUtils.getCertKid(dsc));
+        dscItem.setThumbprint(certificateUtils.getCertThumbprint(dsc));
+        dscItem.setRawData(encode(dsc.getEncoded()));
+        dscItem.setTimestamp(new Date());
+
+        ruleCms =
+            encode(
+                cms(
+                    csca,
+                    cscaKeys,
+                    rulePayload.getBytes(StandardCharsets.UTF_8),
+                    true
+                )
+            );
+    }
+
+    private static KeyPair generateKeyPair(KeyType keyType)
+        throws Exception {
+        KeyPairGenerator generator;
+        if (keyType == KeyType.EC) {
+            generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+        } else {
+            generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(3072);
+        }
+        return generator.generateKeyPair();
+    }
+
+    private static ContentSigner signer(KeyPair keys) throws Exception {
+        String algorithm = "EC".equals(keys.getPrivate().getAlgorithm())
+            ? "SHA256withECDSA"
+            : "SHA256withRSA";
+        return new JcaContentSignerBuilder(algorithm).build(keys.getPrivate());
+    }
+
+    private static X509CertificateHolder certificate(
+        X500Name subject,
+        KeyPair subjectKeys,
+        X500Name issuer,
+        KeyPair issuerKeys
+    ) throws Exception {
+        long now = System.currentTimeMillis();
+        return new JcaX509v3CertificateBuilder(
+            issuer,
+            BigInteger.valueOf(now),
+            new Date(now),
+            new Date(now + VALIDITY_MILLIS),
+            subject,
+            subjectKeys.getPublic()
+        )
+            .build(signer(issuerKeys));
+    }
+
+    private static byte[] cms(
+        X509CertificateHolder signerCertificate,
+        KeyPair signerKeys,
+        byte[] payload,
+        boolean encapsulate
+    ) throws Exception {
+        CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+        generator.addSignerInfoGenerator(
+            new JcaSignerInfoGeneratorBuilder(
+                new JcaDigestCalculatorProviderBuilder().build()
+            )
+                .build(signer(signerKeys), signerCertificate)
+        );
+        generator.addCertificate(signerCertificate);
+        return generator
+            .generate(new CMSProcessableByteArray(payload), encapsulate)
+            .getEncoded();
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,75 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import it.interop.dgc.gateway.model.ValidationRule;
+import it.interop.dgc.gateway.util.JsonCodec;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of a single rule payload, as done for every rule by
+ * CertificateSignatureVerifier.map() and by the rule upload/revoke: a new
+ * ObjectMapper per rule against a shared ObjectReader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidationRuleDecodingBenchmark {
+
+    private String payload;
+    private ObjectReader ruleReader;
+    private JsonCodec jsonCodec;
+
+    @Setup
+    public void setup() {
+        payload = JsonPayloads.validationRule(1);
+        ruleReader = new ObjectMapper().readerFor(ValidationRule.class);
+        jsonCodec = new JsonCodec();
+    }
+
+    @Benchmark
+    public ValidationRule objectMapperPerCall()
+        throws JsonProcessingException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        return objectMapper.readValue(payload, ValidationRule.class);
+    }
+
+    @Benchmark
+    public ValidationRule sharedReader() throws JsonProcessingException {
+        return ruleReader.readValue(payload);
+    }
+
+    @Benchmark
+    public ValidationRule codec() throws IOException {
+        return jsonCodec.readValidationRule(payload);
+    }
+}
@@ -17,9 +17,9 @@ package it.interop.dgc.gateway.akamai;
 
 import com.akamai.edgegrid.signer.ClientCredential;
 import com.akamai.edgegrid.signer.apachehttpclient.ApacheHttpClientEdgeGridInterceptor;
-import com.google.gson.Gson;
 import it.interop.dgc.gateway.client.base.RestApiException;
 import it.interop.dgc.gateway.util.DscUtil;
+import it.interop.dgc.gateway.util.JsonCodec;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
@@ -39,6 +39,7 @@ import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.ssl.SSLContextBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -111,6 +112,9 @@ public class AkamaiFastPurge {
     @Value("${proxy.password}")
     private String proxyPassword;
 
+    @Autowired
+    private JsonCodec jsonCodec;
+
     @Getter
     private RestTemplate restTemplate;
 
@@ -194,7 +198,7 @@ public class AkamaiFastPurge {
         }
     }
 
-    public String invalidateUrls() {
+    public String invalidateUrls() throws IOException {
         HttpStatus status = null;
 
         URI uri = UriComponentsBuilder.fromUriString(getUrl()).build().toUri();
@@ -223,7 +227,7 @@ public class AkamaiFastPurge {
         return status.toString();
     }
 
-    public String invalidateRulesUrls() {
+    public String invalidateRulesUrls() throws IOException {
         HttpStatus status = null;
 
         URI uri = UriComponentsBuilder
@@ -255,18 +259,19 @@ public class AkamaiFastPurge {
         return status.toString();
     }
 
-    public static String getUrlsStringRequestBody(String urls) {
+    public String getUrlsStringRequestBody(String urls) throws IOException {
         Map<String, String[]> akamaiRequestMap = new HashMap<String, String[]>();
         akamaiRequestMap.put("objects", urls.split(","));
-        return new Gson().toJson(akamaiRequestMap);
+        return jsonCodec.write(akamaiRequestMap);
     }
 
-    public static String getCpcodesStringRequestBody(String urls) {
+    public String getCpcodesStringRequestBody(String urls)
+        throws IOException {
         Map<String, int[]> akamaiRequestMap = new HashMap<String, int[]>();
         akamaiRequestMap.put(
             "objects",
             Stream.of(urls.split(",")).mapToInt(Integer::parseInt).toArray()
         );
-        return new Gson().toJson(akamaiRequestMap);
+        return jsonCodec.write(akamaiRequestMap);
     }
 }
@@ -0,0 +1,130 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.akamai;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.interop.dgc.gateway.repository.AkamaiPurgeQueueRepository;
+import it.interop.dgc.gateway.snapshot.BundlePublisher;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Purges the CDN only for targets serving resources that actually changed.
+ * Purges are requested once a download run has published its bundles, so
+ * the CDN never refetches the previous content. The first change of a
+ * target queues its purge, due after the debounce window; further changes
+ * before the purge runs are folded into it. Queued purges are run by
+ * AkamaiPurgeWorker.
+ *
+ * The purge objects of a target are the configured URL and CP code lists,
+ * so a target is purged as a whole.
+ */
+@Component
+public class AkamaiPurgeCoalescer {
+
+    public static final String METRIC_PURGE = "dgc.akamai.purge";
+    public static final String TAG_TARGET = "target";
+    public static final String TAG_OUTCOME = "outcome";
+
+    public static final String REPORT_SCHEDULED = "PURGE SCHEDULED";
+    public static final String REPORT_PENDING = "PURGE AFTER PUBLISH";
+    public static final String REPORT_UNCHANGED = "UNCHANGED - NO PURGE";
+
+    public enum PurgeTarget {
+        /**
+         * Certificate URLs (akamai.urls_to_purge).
+         */
+        CERTIFICATES,
+        /**
+         * Rules, valuesets and country list CP codes
+         * (akamai.cpcodes_to_purge).
+         */
+        RULES,
+    }
+
+    @Value("${akamai.purge.debounce_seconds}")
+    private long debounceSeconds;
+
+    @Autowired
+    private AkamaiFastPurge akamaiFastPurge;
+
+    @Autowired
+    private AkamaiPurgeQueueRepository akamaiPurgeQueueRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Queues one purge for each changed target.
+     *
+     * @return report for the run log, null if Akamai is not configured.
+     */
+    public String requestPurge(Collection<PurgeTarget> changedTargets) {
+        if (!isEnabled()) {
+            return null;
+        }
+        for (PurgeTarget target : PurgeTarget.values()) {
+            if (!changedTargets.contains(target)) {
+                count(target, "unchanged");
+                continue;
+            }
+            boolean queued = akamaiPurgeQueueRepository.enqueue(
+                target.name(),
+                debounceDeadline()
+            );
+            count(target, queued ? "scheduled" : "coalesced");
+        }
+        return changedTargets.isEmpty() ? REPORT_UNCHANGED : REPORT_SCHEDULED;
+    }
+
+    /**
+     * @return the target serving the bundle.
+     */
+    public static PurgeTarget targetOf(String bundleId) {
+        return bundleId.startsWith(BundlePublisher.DSC)
+            ? PurgeTarget.CERTIFICATES
+            : PurgeTarget.RULES;
+    }
+
+    public boolean isEnabled() {
+        return (
+            akamaiFastPurge.getUrl() != null &&
+            !"".equals(akamaiFastPurge.getUrl())
+        );
+    }
+
+    Date debounceDeadline() {
+        return new Date(
+            System.currentTimeMillis() +
+            TimeUnit.SECONDS.toMillis(debounceSeconds)
+        );
+    }
+
+    void count(PurgeTarget target, String outcome) {
+        meterRegistry
+            .counter(
+                METRIC_PURGE,
+                TAG_TARGET,
+                target.name().toLowerCase(),
+                TAG_OUTCOME,
+                outcome
+            )
+            .increment();
+    }
+}
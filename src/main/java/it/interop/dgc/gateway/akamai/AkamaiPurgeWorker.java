@@ -0,0 +1,161 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.akamai;
+
+import it.interop.dgc.gateway.akamai.AkamaiPurgeCoalescer.PurgeTarget;
+import it.interop.dgc.gateway.entity.AkamaiPurgeRequestEntity;
+import it.interop.dgc.gateway.repository.AkamaiPurgeQueueRepository;
+import it.interop.dgc.gateway.util.DscUtil;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+
+/**
+ * Runs the queued CDN purges off the worker threads. A failed purge stays
+ * queued and is retried with exponential backoff; a 429 is retried after
+ * the Retry-After the CDN asked for, but never sooner than the backoff.
+ * Each target is purged at most once per poll. Purges are never dropped.
+ *
+ * A target is a single Fast Purge call of one object type: CERTIFICATES
+ * invalidates the URL list, RULES the CP code list. Fast Purge takes one
+ * object type per request, so the two cannot be merged into one call.
+ */
+@Slf4j
+@Component
+public class AkamaiPurgeWorker {
+
+    @Value("${akamai.purge.lease_seconds}")
+    private long leaseSeconds;
+
+    @Value("${akamai.purge.backoff.initial_seconds}")
+    private long backoffInitialSeconds;
+
+    @Value("${akamai.purge.backoff.max_seconds}")
+    private long backoffMaxSeconds;
+
+    @Autowired
+    private AkamaiFastPurge akamaiFastPurge;
+
+    @Autowired
+    private AkamaiPurgeCoalescer akamaiPurgeCoalescer;
+
+    @Autowired
+    private AkamaiPurgeQueueRepository akamaiPurgeQueueRepository;
+
+    @Scheduled(fixedDelayString = "${akamai.purge.poll_millis}")
+    public void processQueue() {
+        if (!akamaiPurgeCoalescer.isEnabled()) {
+            return;
+        }
+        Set<String> processedIds = new HashSet<>();
+        AkamaiPurgeRequestEntity request;
+        while ((request = claimDue(processedIds)) != null) {
+            processedIds.add(request.getId());
+            process(request);
+        }
+    }
+
+    private AkamaiPurgeRequestEntity claimDue(Set<String> processedIds) {
+        long now = System.currentTimeMillis();
+        return akamaiPurgeQueueRepository.claimDue(
+            new Date(now),
+            new Date(now + TimeUnit.SECONDS.toMillis(leaseSeconds)),
+            processedIds
+        );
+    }
+
+    private void process(AkamaiPurgeRequestEntity request) {
+        PurgeTarget target = PurgeTarget.valueOf(request.getId());
+        try {
+            String report = target == PurgeTarget.CERTIFICATES
+                ? akamaiFastPurge.invalidateUrls()
+                : akamaiFastPurge.invalidateRulesUrls();
+            akamaiPurgeCoalescer.count(target, "success");
+            log.info(
+                "Akamai purge of {} -> {} (generation {}, attempt {})",
+                target,
+                report,
+                request.getGeneration(),
+                request.getAttempts() + 1
+            );
+            if (!akamaiPurgeQueueRepository.complete(request)) {
+                // Changed again while purging: purge once more
+                akamaiPurgeQueueRepository.reschedule(
+                    request.getId(),
+                    akamaiPurgeCoalescer.debounceDeadline(),
+                    0,
+                    null
+                );
+            }
+        } catch (HttpStatusCodeException e) {
+            Long retryAfterMillis = null;
+            if (e.getRawStatusCode() == HttpStatus.TOO_MANY_REQUESTS.value()) {
+                retryAfterMillis =
+                    DscUtil.retryAfterMillis(e.getResponseHeaders());
+            }
+            retry(
+                request,
+                target,
+                retryAfterMillis,
+                e.getRawStatusCode() + " " + e.getStatusText()
+            );
+        } catch (Exception e) {
+            retry(request, target, null, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void retry(
+        AkamaiPurgeRequestEntity request,
+        PurgeTarget target,
+        Long retryAfterMillis,
+        String error
+    ) {
+        int attempts = request.getAttempts() + 1;
+        // A Retry-After of 0 or in the past must not retry at once
+        long delayMillis = retryAfterMillis != null
+            ? Math.max(retryAfterMillis, backoffMillis(attempts))
+            : backoffMillis(attempts);
+        akamaiPurgeQueueRepository.reschedule(
+            request.getId(),
+            new Date(System.currentTimeMillis() + delayMillis),
+            attempts,
+            error
+        );
+        akamaiPurgeCoalescer.count(
+            target,
+            retryAfterMillis != null ? "throttled" : "failure"
+        );
+        log.error(
+            "ERROR Invalidating akamai cache of {}: {} - attempt {}, retry in {} ms",
+            target,
+            error,
+            attempts,
+            delayMillis
+        );
+    }
+
+    private long backoffMillis(int attempts) {
+        long seconds = backoffInitialSeconds << Math.min(attempts - 1, 20);
+        return TimeUnit.SECONDS.toMillis(Math.min(seconds, backoffMaxSeconds));
+    }
+}
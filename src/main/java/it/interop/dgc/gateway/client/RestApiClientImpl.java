@@ -14,21 +14,21 @@
  */
 package it.interop.dgc.gateway.client;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import it.interop.dgc.gateway.client.base.RestApiClientBase;
 import it.interop.dgc.gateway.client.base.RestApiException;
 import it.interop.dgc.gateway.client.base.RestApiResponse;
 import it.interop.dgc.gateway.dto.TrustListItemDto;
 import it.interop.dgc.gateway.dto.ValidationRuleDto;
 import it.interop.dgc.gateway.enums.CertificateType;
-import java.lang.reflect.Type;
+import it.interop.dgc.gateway.util.JsonCodec;
+import java.io.IOException;
 import java.net.URI;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
@@ -47,6 +47,9 @@ public class RestApiClientImpl
     public static final String REQUEST_PROP_THUMBPRINT =
         "reqPropCertThumbprint";
 
+    @Autowired
+    private JsonCodec jsonCodec;
+
     @Override
     public RestApiResponse<String> postVerificationInformation(
         String cms,
@@ -71,8 +74,13 @@ public class RestApiClientImpl
 
         HttpEntity<String> entity = new HttpEntity<String>(cms, headers);
 
-        ResponseEntity<Void> respEntity = getRestTemplate()
-            .exchange(uri, HttpMethod.POST, entity, Void.class);
+        ResponseEntity<Void> respEntity = exchange(
+            "/signerCertificate",
+            uri,
+            HttpMethod.POST,
+            entity,
+            Void.class
+        );
 
         RestApiResponse<String> restApiResponse = null;
 
@@ -121,8 +129,13 @@ public class RestApiClientImpl
 
         HttpEntity<String> entity = new HttpEntity<String>(cms, headers);
 
-        ResponseEntity<Void> respEntity = getRestTemplate()
-            .exchange(uri, HttpMethod.DELETE, entity, Void.class);
+        ResponseEntity<Void> respEntity = exchange(
+            "/signerCertificate",
+            uri,
+            HttpMethod.DELETE,
+            entity,
+            Void.class
+        );
 
         RestApiResponse<String> restApiResponse = null;
 
@@ -158,7 +171,7 @@ public class RestApiClientImpl
             .encode()
             .toUri();
 
-        return _downloadTrustList(uri);
+        return _downloadTrustList("/trustList", uri);
     }
 
     @Override
@@ -178,7 +191,7 @@ public class RestApiClientImpl
             .encode()
             .toUri();
 
-        return _downloadTrustList(uri);
+        return _downloadTrustList("/trustList/{type}", uri);
     }
 
     @Override
@@ -200,11 +213,13 @@ public class RestApiClientImpl
             .encode()
             .toUri();
 
-        return _downloadTrustList(uri);
+        return _downloadTrustList("/trustList/{type}/{country}", uri);
     }
 
-    private RestApiResponse<List<TrustListItemDto>> _downloadTrustList(URI uri)
-        throws RestApiException {
+    private RestApiResponse<List<TrustListItemDto>> _downloadTrustList(
+        String endpoint,
+        URI uri
+    ) throws RestApiException {
         log.info("START REST Client calling-> {}", uri.toString());
 
         HttpHeaders headers = makeBaseHeaders();
@@ -212,8 +227,13 @@ public class RestApiClientImpl
 
         HttpEntity<Void> entity = new HttpEntity<Void>(headers);
 
-        ResponseEntity<byte[]> respEntity = getRestTemplate()
-            .exchange(uri, HttpMethod.GET, entity, byte[].class);
+        ResponseEntity<byte[]> respEntity = exchange(
+            endpoint,
+            uri,
+            HttpMethod.GET,
+            entity,
+            byte[].class
+        );
 
         RestApiResponse<List<TrustListItemDto>> restApiResponse = null;
 
@@ -222,14 +242,7 @@ public class RestApiClientImpl
             log.info("REST Client response-> {}", respEntity.getStatusCode());
 
             if (respEntity.getStatusCode() == HttpStatus.OK) {
-                Gson gson = new Gson();
-                Type trustListType = new TypeToken<ArrayList<TrustListItemDto>>() {}
-                    .getType();
-                listTrust =
-                    gson.fromJson(
-                        new String(respEntity.getBody()),
-                        trustListType
-                    );
+                listTrust = decode(jsonCodec::readTrustList, respEntity);
             }
 
             restApiResponse =
@@ -262,8 +275,13 @@ public class RestApiClientImpl
 
         HttpEntity<Void> entity = new HttpEntity<Void>(headers);
 
-        ResponseEntity<byte[]> respEntity = getRestTemplate()
-            .exchange(uri, HttpMethod.GET, entity, byte[].class);
+        ResponseEntity<byte[]> respEntity = exchange(
+            "/countrylist",
+            uri,
+            HttpMethod.GET,
+            entity,
+            byte[].class
+        );
 
         RestApiResponse<String> restApiResponse = null;
 
@@ -272,7 +290,8 @@ public class RestApiClientImpl
             log.info("REST Client response-> {}", respEntity.getStatusCode());
 
             if (respEntity.getStatusCode() == HttpStatus.OK) {
-                listCountry = new String(respEntity.getBody());
+                listCountry =
+                    new String(respEntity.getBody(), StandardCharsets.UTF_8);
             }
 
             restApiResponse =
@@ -305,8 +324,13 @@ public class RestApiClientImpl
 
         HttpEntity<Void> entity = new HttpEntity<Void>(headers);
 
-        ResponseEntity<byte[]> respEntity = getRestTemplate()
-            .exchange(uri, HttpMethod.GET, entity, byte[].class);
+        ResponseEntity<byte[]> respEntity = exchange(
+            "/valuesets",
+            uri,
+            HttpMethod.GET,
+            entity,
+            byte[].class
+        );
 
         RestApiResponse<List<String>> restApiResponse = null;
 
@@ -315,14 +339,7 @@ public class RestApiClientImpl
             log.info("REST Client response-> {}", respEntity.getStatusCode());
 
             if (respEntity.getStatusCode() == HttpStatus.OK) {
-                Gson gson = new Gson();
-                Type trustListType = new TypeToken<ArrayList<String>>() {}
-                    .getType();
-                listValues =
-                    gson.fromJson(
-                        new String(respEntity.getBody()),
-                        trustListType
-                    );
+                listValues = decode(jsonCodec::readStringList, respEntity);
             }
 
             restApiResponse =
@@ -360,8 +377,13 @@ public class RestApiClientImpl
 
         HttpEntity<Void> entity = new HttpEntity<Void>(headers);
 
-        ResponseEntity<byte[]> respEntity = getRestTemplate()
-            .exchange(uri, HttpMethod.GET, entity, byte[].class);
+        ResponseEntity<byte[]> respEntity = exchange(
+            "/valuesets/{id}",
+            uri,
+            HttpMethod.GET,
+            entity,
+            byte[].class
+        );
 
         RestApiResponse<String> restApiResponse = null;
 
@@ -370,7 +392,8 @@ public class RestApiClientImpl
             log.info("REST Client response-> {}", respEntity.getStatusCode());
 
             if (respEntity.getStatusCode() == HttpStatus.OK) {
-                values = new String(respEntity.getBody());
+                values =
+                    new String(respEntity.getBody(), StandardCharsets.UTF_8);
             }
 
             restApiResponse =
@@ -409,8 +432,13 @@ public class RestApiClientImpl
 
         HttpEntity<Void> entity = new HttpEntity<Void>(headers);
 
-        ResponseEntity<byte[]> respEntity = getRestTemplate()
-            .exchange(uri, HttpMethod.GET, entity, byte[].class);
+        ResponseEntity<byte[]> respEntity = exchange(
+            "/rules/{country}",
+            uri,
+            HttpMethod.GET,
+            entity,
+            byte[].class
+        );
 
         RestApiResponse<Map<String, List<ValidationRuleDto>>> restApiResponse =
             null;
@@ -420,14 +448,7 @@ public class RestApiClientImpl
             log.info("REST Client response-> {}", respEntity.getStatusCode());
 
             if (respEntity.getStatusCode() == HttpStatus.OK) {
-                Gson gson = new Gson();
-                Type trustListType = new TypeToken<HashMap<String, List<ValidationRuleDto>>>() {}
-                    .getType();
-                mapRules =
-                    gson.fromJson(
-                        new String(respEntity.getBody()),
-                        trustListType
-                    );
+                mapRules = decode(jsonCodec::readValidationRules, respEntity);
             }
 
             restApiResponse =
@@ -464,8 +485,13 @@ public class RestApiClientImpl
 
         HttpEntity<String> entity = new HttpEntity<String>(cms, headers);
 
-        ResponseEntity<Void> respEntity = getRestTemplate()
-            .exchange(uri, HttpMethod.POST, entity, Void.class);
+        ResponseEntity<Void> respEntity = exchange(
+            "/rules",
+            uri,
+            HttpMethod.POST,
+            entity,
+            Void.class
+        );
 
         RestApiResponse<String> restApiResponse = null;
 
@@ -512,8 +538,13 @@ public class RestApiClientImpl
 
         HttpEntity<String> entity = new HttpEntity<String>(cms, headers);
 
-        ResponseEntity<Void> respEntity = getRestTemplate()
-            .exchange(uri, HttpMethod.DELETE, entity, Void.class);
+        ResponseEntity<Void> respEntity = exchange(
+            "/rules",
+            uri,
+            HttpMethod.DELETE,
+            entity,
+            Void.class
+        );
 
         RestApiResponse<String> restApiResponse = null;
 
@@ -537,4 +568,25 @@ public class RestApiClientImpl
         log.info("END REST Client calling-> {}", uri.toString());
         return restApiResponse;
     }
+
+    private <T> T decode(
+        BodyDecoder<T> decoder,
+        ResponseEntity<byte[]> respEntity
+    ) throws RestApiException {
+        try {
+            return decoder.decode(respEntity.getBody());
+        } catch (IOException e) {
+            throw new RestApiException(
+                "Invalid JSON response",
+                e,
+                respEntity.getStatusCodeValue(),
+                headersToMap(respEntity.getHeaders())
+            );
+        }
+    }
+
+    @FunctionalInterface
+    private interface BodyDecoder<T> {
+        T decode(byte[] body) throws IOException;
+    }
 }
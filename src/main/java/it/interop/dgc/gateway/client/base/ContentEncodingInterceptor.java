@@ -0,0 +1,231 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.client.base;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.URI;
+import java.util.zip.GZIPInputStream;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Decodes gzip encoded gateway responses while they are read, and records
+ * the size of each response body on the wire and once decoded, tagged by
+ * gateway resource and content encoding.
+ *
+ * The HTTP client must not decode the response itself, otherwise the
+ * bytes on the wire are not visible here.
+ */
+public class ContentEncodingInterceptor
+    implements ClientHttpRequestInterceptor {
+
+    public static final String METRIC_WIRE_BYTES = "dgc.gateway.response.wire";
+    public static final String METRIC_BODY_BYTES = "dgc.gateway.response.body";
+    public static final String TAG_RESOURCE = "resource";
+    public static final String TAG_ENCODING = "encoding";
+    public static final String ENCODING_GZIP = "gzip";
+    public static final String ENCODING_IDENTITY = "identity";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final MeterRegistry meterRegistry;
+    private final String basePath;
+
+    public ContentEncodingInterceptor(
+        MeterRegistry meterRegistry,
+        String baseUrl
+    ) {
+        this.meterRegistry = meterRegistry;
+        String path = baseUrl == null ? null : URI.create(baseUrl).getPath();
+        this.basePath = path == null ? "" : path.replaceAll("/+$", "");
+    }
+
+    @Override
+    public ClientHttpResponse intercept(
+        HttpRequest request,
+        byte[] body,
+        ClientHttpRequestExecution execution
+    ) throws IOException {
+        return new DecodingResponse(
+            execution.execute(request, body),
+            resource(request.getURI())
+        );
+    }
+
+    /**
+     * @return the first path segment after the base url, e.g. "trustList".
+     */
+    private String resource(URI uri) {
+        String path = uri.getPath() == null ? "" : uri.getPath();
+        if (path.startsWith(basePath)) {
+            path = path.substring(basePath.length());
+        }
+        path = path.replaceAll("^/+", "");
+        int end = path.indexOf('/');
+        return end < 0 ? path : path.substring(0, end);
+    }
+
+    private DistributionSummary summary(
+        String name,
+        String resource,
+        String encoding
+    ) {
+        return DistributionSummary
+            .builder(name)
+            .baseUnit("bytes")
+            .tag(TAG_RESOURCE, resource)
+            .tag(TAG_ENCODING, encoding)
+            .register(meterRegistry);
+    }
+
+    private final class DecodingResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse response;
+        private final String resource;
+        private final boolean gzip;
+        private HttpHeaders headers;
+        private CountingInputStream wire;
+        private CountingInputStream decoded;
+
+        DecodingResponse(ClientHttpResponse response, String resource) {
+            this.response = response;
+            this.resource = resource;
+            String encoding = response
+                .getHeaders()
+                .getFirst(HttpHeaders.CONTENT_ENCODING);
+            this.gzip = ENCODING_GZIP.equalsIgnoreCase(encoding);
+        }
+
+        @Override
+        public HttpStatus getStatusCode() throws IOException {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public int getRawStatusCode() throws IOException {
+            return response.getRawStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return response.getStatusText();
+        }
+
+        /**
+         * The headers of the decoded body: without the content encoding and
+         * the length of the encoded body.
+         */
+        @Override
+        public HttpHeaders getHeaders() {
+            if (headers == null) {
+                if (gzip) {
+                    HttpHeaders decodedHeaders = new HttpHeaders();
+                    decodedHeaders.putAll(response.getHeaders());
+                    decodedHeaders.remove(HttpHeaders.CONTENT_ENCODING);
+                    decodedHeaders.remove(HttpHeaders.CONTENT_LENGTH);
+                    headers = HttpHeaders.readOnlyHttpHeaders(decodedHeaders);
+                } else {
+                    headers = response.getHeaders();
+                }
+            }
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (decoded == null) {
+                wire = new CountingInputStream(response.getBody());
+                InputStream body = wire;
+                if (gzip) {
+                    PushbackInputStream pushback = new PushbackInputStream(
+                        wire
+                    );
+                    int first = pushback.read();
+                    if (first != -1) {
+                        pushback.unread(first);
+                        body = new GZIPInputStream(pushback, BUFFER_SIZE);
+                    } else {
+                        body = pushback;
+                    }
+                }
+                decoded = new CountingInputStream(body);
+            }
+            return decoded;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (decoded != null) {
+                    String encoding = gzip ? ENCODING_GZIP : ENCODING_IDENTITY;
+                    summary(METRIC_WIRE_BYTES, resource, encoding)
+                        .record(wire.count);
+                    summary(METRIC_BODY_BYTES, resource, encoding)
+                        .record(decoded.count);
+                }
+            } finally {
+                response.close();
+            }
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
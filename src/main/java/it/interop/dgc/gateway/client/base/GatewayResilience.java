@@ -0,0 +1,302 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.client.base;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import it.interop.dgc.gateway.util.DscUtil;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * Retry, circuit breaker and run deadline around the gateway calls.
+ *
+ * GETs failing with an I/O error, a 5xx or a 429 are retried with jittered
+ * exponential backoff, or after the Retry-After of a 429 if longer. Consecutive failures of an endpoint open its circuit
+ * and further calls fail fast until a single probe call is let through
+ * after the open period. A run deadline set by the worker stops both new
+ * calls and retries once it has passed.
+ */
+@Slf4j
+@Component
+public class GatewayResilience {
+
+    public static final String METRIC_RETRIES = "dgc.gateway.retries";
+    public static final String METRIC_REJECTED = "dgc.gateway.rejected";
+    public static final String METRIC_CIRCUIT_OPEN = "dgc.gateway.circuit.open";
+    public static final String TAG_REASON = "reason";
+    public static final String REASON_CIRCUIT_OPEN = "circuit_open";
+    public static final String REASON_DEADLINE = "deadline";
+
+    @Value("${dgc.retry.max_attempts}")
+    private int maxAttempts;
+
+    @Value("${dgc.retry.backoff.initial_millis}")
+    private long backoffInitialMillis;
+
+    @Value("${dgc.retry.backoff.max_millis}")
+    private long backoffMaxMillis;
+
+    @Value("${dgc.circuit.failure_threshold}")
+    private int failureThreshold;
+
+    @Value("${dgc.circuit.open_seconds}")
+    private long openSeconds;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<Long> deadline = new ThreadLocal<>();
+
+    /**
+     * Runs the task with a deadline for all the gateway calls it makes on
+     * the calling thread. A non positive duration means no deadline.
+     */
+    public void runWithDeadline(long seconds, Runnable task) {
+        if (seconds <= 0) {
+            task.run();
+            return;
+        }
+        Long previous = deadline.get();
+        deadline.set(
+            System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seconds)
+        );
+        try {
+            task.run();
+        } finally {
+            if (previous == null) {
+                deadline.remove();
+            } else {
+                deadline.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Makes the call through the circuit of the endpoint, retrying
+     * transient failures of idempotent (GET) calls.
+     *
+     * @throws GatewayUnavailableException if the circuit is open or the run
+     * deadline has passed.
+     */
+    public <T> T call(String endpoint, HttpMethod method, Supplier<T> call) {
+        CircuitBreaker breaker = breakers.computeIfAbsent(
+            endpoint,
+            this::newBreaker
+        );
+        int attempts = method == HttpMethod.GET ? Math.max(1, maxAttempts) : 1;
+        for (int attempt = 1;; attempt++) {
+            if (remainingMillis() <= 0) {
+                throw reject(endpoint, REASON_DEADLINE);
+            }
+            if (!breaker.tryAcquire()) {
+                throw reject(endpoint, REASON_CIRCUIT_OPEN);
+            }
+            try {
+                T result = call.get();
+                breaker.onSuccess();
+                return result;
+            } catch (RuntimeException e) {
+                if (!isTransient(e)) {
+                    // The gateway answered: the endpoint is up
+                    breaker.onSuccess();
+                    throw e;
+                }
+                if (breaker.onFailure()) {
+                    log.warn(
+                        "Circuit of gateway endpoint {} open for {} s",
+                        endpoint,
+                        openSeconds
+                    );
+                }
+                long delayMillis = Math.max(
+                    backoffMillis(attempt),
+                    retryAfterMillis(e)
+                );
+                if (
+                    attempt >= attempts ||
+                    breaker.isOpen() ||
+                    delayMillis >= remainingMillis() ||
+                    !sleep(delayMillis)
+                ) {
+                    throw e;
+                }
+                meterRegistry.counter(
+                    METRIC_RETRIES,
+                    RestApiClientBase.TAG_ENDPOINT,
+                    endpoint
+                ).increment();
+                log.warn(
+                    "Retrying {} {} after {} ms (attempt {} of {}): {}",
+                    method,
+                    endpoint,
+                    delayMillis,
+                    attempt + 1,
+                    attempts,
+                    e.getMessage()
+                );
+            }
+        }
+    }
+
+    private CircuitBreaker newBreaker(String endpoint) {
+        CircuitBreaker breaker = new CircuitBreaker(
+            Math.max(1, failureThreshold),
+            TimeUnit.SECONDS.toMillis(openSeconds)
+        );
+        meterRegistry.gauge(
+            METRIC_CIRCUIT_OPEN,
+            Tags.of(RestApiClientBase.TAG_ENDPOINT, endpoint),
+            breaker,
+            b -> b.isOpen() ? 1 : 0
+        );
+        return breaker;
+    }
+
+    private GatewayUnavailableException reject(String endpoint, String reason) {
+        meterRegistry.counter(
+            METRIC_REJECTED,
+            RestApiClientBase.TAG_ENDPOINT,
+            endpoint,
+            TAG_REASON,
+            reason
+        ).increment();
+        return new GatewayUnavailableException(
+            "Gateway call to " + endpoint + " not attempted: " + reason
+        );
+    }
+
+    private long remainingMillis() {
+        Long runDeadline = deadline.get();
+        return runDeadline == null
+            ? Long.MAX_VALUE
+            : runDeadline - System.currentTimeMillis();
+    }
+
+    /**
+     * Exponential backoff with equal jitter: between half and all of the
+     * capped exponential delay.
+     */
+    private long backoffMillis(int attempt) {
+        long cap = Math.min(
+            backoffInitialMillis << Math.min(attempt - 1, 20),
+            backoffMaxMillis
+        );
+        long half = Math.max(0, cap / 2);
+        return half + ThreadLocalRandom.current().nextLong(cap - half + 1);
+    }
+
+    private static long retryAfterMillis(RuntimeException e) {
+        if (!(e instanceof HttpStatusCodeException)) {
+            return 0;
+        }
+        Long retryAfter = DscUtil.retryAfterMillis(
+            ((HttpStatusCodeException) e).getResponseHeaders()
+        );
+        return retryAfter == null ? 0 : retryAfter;
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static boolean isTransient(RuntimeException e) {
+        if (
+            e instanceof ResourceAccessException ||
+            e instanceof HttpServerErrorException
+        ) {
+            return true;
+        }
+        return (
+            e instanceof HttpStatusCodeException &&
+            ((HttpStatusCodeException) e).getRawStatusCode() ==
+            HttpStatus.TOO_MANY_REQUESTS.value()
+        );
+    }
+
+    /**
+     * Closed until the failure threshold is reached, then open for the open
+     * period, then half open: one probe call is let through, closing the
+     * circuit on success and opening it again on failure.
+     */
+    static final class CircuitBreaker {
+
+        private final int failureThreshold;
+        private final long openMillis;
+        private int consecutiveFailures;
+        private long openUntil;
+        private boolean probing;
+
+        CircuitBreaker(int failureThreshold, long openMillis) {
+            this.failureThreshold = failureThreshold;
+            this.openMillis = openMillis;
+        }
+
+        synchronized boolean tryAcquire() {
+            if (openUntil == 0) {
+                return true;
+            }
+            if (probing || System.currentTimeMillis() < openUntil) {
+                return false;
+            }
+            probing = true;
+            return true;
+        }
+
+        synchronized void onSuccess() {
+            consecutiveFailures = 0;
+            openUntil = 0;
+            probing = false;
+        }
+
+        /**
+         * @return true if the failure opened the circuit.
+         */
+        synchronized boolean onFailure() {
+            boolean wasOpen = openUntil != 0;
+            probing = false;
+            consecutiveFailures++;
+            if (wasOpen || consecutiveFailures >= failureThreshold) {
+                openUntil = System.currentTimeMillis() + openMillis;
+                return !wasOpen;
+            }
+            return false;
+        }
+
+        synchronized boolean isOpen() {
+            return openUntil != 0;
+        }
+    }
+}
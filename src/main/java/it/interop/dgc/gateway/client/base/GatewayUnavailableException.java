@@ -0,0 +1,30 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.client.base;
+
+import org.springframework.web.client.RestClientException;
+
+/**
+ * A gateway call refused without reaching the gateway, because the circuit
+ * of its endpoint is open or the run deadline has passed.
+ */
+public class GatewayUnavailableException extends RestClientException {
+
+    private static final long serialVersionUID = -2286417640367431585L;
+
+    public GatewayUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -14,10 +14,13 @@
  */
 package it.interop.dgc.gateway.client.base;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import it.interop.dgc.gateway.util.DscUtil;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.URI;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -42,14 +45,25 @@ import org.apache.http.ssl.SSLContextBuilder;
 //import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 //import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
 //import org.apache.http.ssl.SSLContextBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.client.RestTemplate;
 
 public class RestApiClientBase {
 
+    public static final String METRIC_REQUESTS = "dgc.gateway.requests";
+    public static final String TAG_ENDPOINT = "endpoint";
+    public static final String TAG_METHOD = "method";
+    public static final String TAG_STATUS = "status";
+    public static final String STATUS_IO_ERROR = "IO_ERROR";
+
     @Getter
     @Value("${dgc.base_url}")
     private String baseUrl;
@@ -90,6 +104,12 @@ public class RestApiClientBase {
     @Value("${proxy.password}")
     private String proxyPassword;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private GatewayResilience gatewayResilience;
+
     @Getter
     private RestTemplate restTemplate;
 
@@ -146,6 +166,8 @@ public class RestApiClientBase {
                 }
             }
             clientBuilder.disableCookieManagement();
+            // Responses are decoded by the ContentEncodingInterceptor
+            clientBuilder.disableContentCompression();
 
             CloseableHttpClient httpClient = clientBuilder
                 .setSSLSocketFactory(sslConnectionSocketFactory)
@@ -168,6 +190,9 @@ public class RestApiClientBase {
             );
 
             restTemplate = new RestTemplate(requestFactory);
+            restTemplate
+                .getInterceptors()
+                .add(new ContentEncodingInterceptor(meterRegistry, baseUrl));
         } catch (
             KeyStoreException
             | NoSuchAlgorithmException
@@ -180,6 +205,64 @@ public class RestApiClientBase {
         }
     }
 
+    /**
+     * Calls the gateway through the retry and circuit breaker policy of the
+     * endpoint template.
+     */
+    protected <T> ResponseEntity<T> exchange(
+        String endpoint,
+        URI uri,
+        HttpMethod method,
+        HttpEntity<?> entity,
+        Class<T> responseType
+    ) {
+        return gatewayResilience.call(
+            endpoint,
+            method,
+            () -> timedExchange(endpoint, uri, method, entity, responseType)
+        );
+    }
+
+    /**
+     * Calls the gateway once recording the latency of the call, tagged by
+     * endpoint template, method and response status.
+     */
+    private <T> ResponseEntity<T> timedExchange(
+        String endpoint,
+        URI uri,
+        HttpMethod method,
+        HttpEntity<?> entity,
+        Class<T> responseType
+    ) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String status = STATUS_IO_ERROR;
+        try {
+            ResponseEntity<T> respEntity = restTemplate.exchange(
+                uri,
+                method,
+                entity,
+                responseType
+            );
+            if (respEntity != null) {
+                status = String.valueOf(respEntity.getStatusCodeValue());
+            }
+            return respEntity;
+        } catch (RestClientResponseException e) {
+            status = String.valueOf(e.getRawStatusCode());
+            throw e;
+        } finally {
+            sample.stop(
+                Timer
+                    .builder(METRIC_REQUESTS)
+                    .tag(TAG_ENDPOINT, endpoint)
+                    .tag(TAG_METHOD, method.name())
+                    .tag(TAG_STATUS, status)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+            );
+        }
+    }
+
     protected Map<String, List<String>> headersToMap(HttpHeaders headers) {
         Map<String, List<String>> headersList = null;
 
@@ -198,6 +281,10 @@ public class RestApiClientBase {
     protected HttpHeaders makeBaseHeaders() {
         HttpHeaders headers = new HttpHeaders();
         headers.set("User-Agent", userAgent);
+        headers.set(
+            HttpHeaders.ACCEPT_ENCODING,
+            ContentEncodingInterceptor.ENCODING_GZIP
+        );
 
         return headers;
     }
@@ -0,0 +1,72 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.controller;
+
+import it.interop.dgc.gateway.entity.BundleEntity;
+import it.interop.dgc.gateway.repository.BundleRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Serves the bundles written by BundlePublisher as stored, e.g.
+ * /bundles/dsc/0, /bundles/rules/IT, /bundles/valuesets, /bundles/countrylist.
+ */
+@RestController
+@RequestMapping("/bundles")
+public class BundleController {
+
+    @Autowired
+    private BundleRepository bundleRepository;
+
+    @GetMapping({ "/{name}", "/{type}/{name}" })
+    public ResponseEntity<byte[]> bundle(
+        @PathVariable(name = "type", required = false) String type,
+        @PathVariable(name = "name") String name,
+        @RequestHeader(
+            name = HttpHeaders.IF_NONE_MATCH,
+            required = false
+        ) String ifNoneMatch,
+        @RequestHeader(
+            name = HttpHeaders.ACCEPT_ENCODING,
+            required = false
+        ) String acceptEncoding
+    ) {
+        boolean gzip = CachedResponses.isGzip(acceptEncoding);
+        BundleEntity bundle = bundleRepository.get(
+            type == null ? name : type + "/" + name,
+            gzip
+        );
+        if (bundle == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        String etag = CachedResponses.etag(bundle.getContentHash(), gzip);
+        HttpHeaders headers = CachedResponses.cacheHeaders(etag);
+        if (CachedResponses.isNotModified(etag, ifNoneMatch)) {
+            return CachedResponses.notModified(headers);
+        }
+        return CachedResponses.ok(
+            headers,
+            gzip ? bundle.getContentGzip() : bundle.getContent(),
+            gzip
+        );
+    }
+}
@@ -0,0 +1,83 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.controller;
+
+import java.util.Collections;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * ETag, revalidation and gzip handling shared by the endpoints serving
+ * prebuilt JSON to the CDN.
+ */
+final class CachedResponses {
+
+    private CachedResponses() {}
+
+    /**
+     * The gzip and identity bodies are different representations, so they
+     * get different strong ETags.
+     */
+    static String etag(String contentEtag, boolean gzip) {
+        return gzip ? contentEtag + "-gz" : contentEtag;
+    }
+
+    static HttpHeaders cacheHeaders(String etag) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag("\"" + etag + "\"");
+        headers.setCacheControl(CacheControl.noCache().cachePublic());
+        headers.setVary(Collections.singletonList(HttpHeaders.ACCEPT_ENCODING));
+        return headers;
+    }
+
+    /**
+     * Weak validators match too: CDNs weaken the ETag when they re-encode.
+     */
+    static boolean isNotModified(String etag, String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim().replaceFirst("^W/", "");
+            if ("*".equals(tag) || ("\"" + etag + "\"").equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static ResponseEntity<byte[]> notModified(HttpHeaders headers) {
+        return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+    }
+
+    static ResponseEntity<byte[]> ok(
+        HttpHeaders headers,
+        byte[] body,
+        boolean gzip
+    ) {
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        if (gzip) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    static boolean isGzip(String acceptEncoding) {
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+}
@@ -0,0 +1,124 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.controller;
+
+import it.interop.dgc.gateway.snapshot.TrustListSnapshot;
+import it.interop.dgc.gateway.snapshot.TrustListSnapshotHolder;
+import it.interop.dgc.gateway.util.DscUtil;
+import java.io.IOException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Read API over the in-memory trust-list snapshot, meant as the CDN origin
+ * for verifier apps. Responses carry an ETag and are gzip encoded when the
+ * client accepts it.
+ */
+@RestController
+@RequestMapping("/trustlist")
+public class TrustListController {
+
+    public static final String HEADER_RESUME_TOKEN = "X-RESUME-TOKEN";
+    public static final String HEADER_HAS_MORE = "X-HAS-MORE";
+
+    @Value("${dgc.snapshot.max_page_size}")
+    private int maxPageSize;
+
+    @Autowired
+    private TrustListSnapshotHolder snapshotHolder;
+
+    /**
+     * Active DSCs with a resume token greater than the given one.
+     */
+    @GetMapping("/dsc")
+    public ResponseEntity<byte[]> dsc(
+        @RequestParam(
+            name = "resumeToken",
+            defaultValue = "0"
+        ) long resumeToken,
+        @RequestParam(name = "limit", required = false) Integer limit,
+        @RequestHeader(
+            name = HttpHeaders.IF_NONE_MATCH,
+            required = false
+        ) String ifNoneMatch,
+        @RequestHeader(
+            name = HttpHeaders.ACCEPT_ENCODING,
+            required = false
+        ) String acceptEncoding
+    ) throws IOException {
+        int pageSize = limit == null
+            ? maxPageSize
+            : Math.max(1, Math.min(limit, maxPageSize));
+        TrustListSnapshot.Page page = snapshotHolder
+            .get()
+            .page(resumeToken, pageSize);
+
+        boolean gzip = CachedResponses.isGzip(acceptEncoding);
+        String etag = CachedResponses.etag(page.getEtag(), gzip);
+        HttpHeaders headers = CachedResponses.cacheHeaders(etag);
+        headers.set(
+            HEADER_RESUME_TOKEN,
+            String.valueOf(page.getLastResumeToken())
+        );
+        headers.set(HEADER_HAS_MORE, String.valueOf(page.isMore()));
+        if (CachedResponses.isNotModified(etag, ifNoneMatch)) {
+            return CachedResponses.notModified(headers);
+        }
+        if (!gzip) {
+            return CachedResponses.ok(headers, page.getBody(), false);
+        }
+        // Pages off the default chain are compressed on demand
+        byte[] body = page.getBodyGzip() != null
+            ? page.getBodyGzip()
+            : DscUtil.gzip(page.getBody());
+        return CachedResponses.ok(headers, body, true);
+    }
+
+    /**
+     * KIDs of all active DSCs.
+     */
+    @GetMapping("/dsc/status")
+    public ResponseEntity<byte[]> status(
+        @RequestHeader(
+            name = HttpHeaders.IF_NONE_MATCH,
+            required = false
+        ) String ifNoneMatch,
+        @RequestHeader(
+            name = HttpHeaders.ACCEPT_ENCODING,
+            required = false
+        ) String acceptEncoding
+    ) {
+        TrustListSnapshot snapshot = snapshotHolder.get();
+
+        boolean gzip = CachedResponses.isGzip(acceptEncoding);
+        String etag = CachedResponses.etag(snapshot.getEtag(), gzip);
+        HttpHeaders headers = CachedResponses.cacheHeaders(etag);
+        if (CachedResponses.isNotModified(etag, ifNoneMatch)) {
+            return CachedResponses.notModified(headers);
+        }
+        return CachedResponses.ok(
+            headers,
+            gzip ? snapshot.getStatusGzip() : snapshot.getStatus(),
+            gzip
+        );
+    }
+}
@@ -0,0 +1,57 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.entity;
+
+import java.io.Serializable;
+import java.util.Date;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Pending CDN purge of one target. Every change requested while the purge
+ * is pending bumps the generation, so one purge covers all of them.
+ */
+@Data
+@Document(collection = "akamai_purge_queue")
+public class AkamaiPurgeRequestEntity implements Serializable {
+
+    private static final long serialVersionUID = 3178342690528120347L;
+
+    /**
+     * Purge target name.
+     */
+    @Id
+    private String id;
+
+    @Field(name = "generation")
+    private Long generation;
+
+    @Field(name = "requested_at")
+    private Date requestedAt;
+
+    @Field(name = "due_at")
+    private Date dueAt;
+
+    @Field(name = "attempts")
+    private Integer attempts;
+
+    @Field(name = "last_error")
+    private String lastError;
+
+    @Field(name = "locked_until")
+    private Date lockedUntil;
+}
@@ -0,0 +1,54 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.entity;
+
+import java.io.Serializable;
+import java.util.Date;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Downstream payload serialized once at the end of a sync, stored with its
+ * gzip variant so it can be served as-is.
+ */
+@Data
+@Document(collection = "bundles")
+public class BundleEntity implements Serializable {
+
+    private static final long serialVersionUID = -2364587218842379618L;
+
+    /**
+     * Bundle key, e.g. dsc/0, rules/IT, valuesets/{id}.
+     */
+    @Id
+    private String id;
+
+    /**
+     * SHA-256 of the JSON content (hex encoded).
+     */
+    @Field(name = "content_hash")
+    private String contentHash;
+
+    @Field(name = "content")
+    private byte[] content;
+
+    @Field(name = "content_gzip")
+    private byte[] contentGzip;
+
+    @Field(name = "created_at")
+    private Date createdAt;
+}
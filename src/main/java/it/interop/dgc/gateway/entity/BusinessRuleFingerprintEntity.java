@@ -0,0 +1,50 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.entity;
+
+import java.io.Serializable;
+import java.util.Date;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+@Data
+@Document(collection = "business_rules_fingerprint")
+public class BusinessRuleFingerprintEntity implements Serializable {
+
+    private static final long serialVersionUID = -6021571848305176362L;
+
+    @Id
+    private String country;
+
+    /**
+     * SHA-256 of the country rule set and of its upload certificates.
+     */
+    @Field(name = "fingerprint")
+    private String fingerprint;
+
+    /**
+     * Number of active rules of the country after the sync.
+     */
+    @Field(name = "rule_count")
+    private Integer ruleCount;
+
+    @Field(name = "updated_at")
+    private Date updatedAt;
+
+    @Field(name = "batch_tag")
+    private String downloadBatchTag;
+}
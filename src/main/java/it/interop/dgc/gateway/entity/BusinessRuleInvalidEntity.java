@@ -55,4 +55,16 @@ public class BusinessRuleInvalidEntity implements Serializable {
 
     @Field(name = "batch_tag")
     private String downloadBatchTag;
+
+    @Field(name = "first_seen")
+    private Date firstSeen;
+
+    @Field(name = "last_seen")
+    private Date lastSeen;
+
+    /**
+     * Number of download runs that found the item invalid.
+     */
+    @Field(name = "occurrences")
+    private Long occurrences;
 }
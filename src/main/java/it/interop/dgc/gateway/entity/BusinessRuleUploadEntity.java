@@ -61,4 +61,10 @@ public class BusinessRuleUploadEntity implements Serializable {
 
     @Field(name = "batch_tag_revoke")
     private String revokedBatchTag;
+
+    @Field(name = "claimed_by")
+    private String claimedBy;
+
+    @Field(name = "claim_expires_at")
+    private Date claimExpiresAt;
 }
@@ -55,6 +55,12 @@ public class DgcLogEntity implements Serializable {
     @Field("log_info")
     private List<DgcLogInfo> dgcLogInfoList;
 
+    /**
+     * Number of dgc_log_detail chunks holding log_info, when not embedded.
+     */
+    @Field("log_info_chunks")
+    private Integer dgcLogInfoChunks;
+
     @Field("log_amount")
     private DgcLogAmount dgcLogAmount;
 
@@ -0,0 +1,75 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.entity;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Hourly or daily rollup of the run logs, kept after the logs expire. Hourly
+ * rollups expire much sooner than daily ones.
+ */
+@Data
+@Document(collection = "dgc_log_summary")
+public class DgcLogSummaryEntity implements Serializable {
+
+    private static final long serialVersionUID = -8935126004718242539L;
+
+    @Id
+    private String id;
+
+    @Field(name = "granularity")
+    private Granularity granularity;
+
+    @Field(name = "period_start")
+    private Date periodStart;
+
+    /**
+     * Collection of the summarized logs.
+     */
+    @Field(name = "source")
+    private String source;
+
+    @Field(name = "operation")
+    private String operation;
+
+    /**
+     * Country of a dgc_log, item type of a dgc_rule_log.
+     */
+    @Field(name = "scope")
+    private String scope;
+
+    @Field(name = "runs")
+    private Long runs;
+
+    @Field(name = "errors")
+    private Long errors;
+
+    @Field(name = "amount")
+    private Map<String, Long> amount;
+
+    @Field(name = "expire_at")
+    private Date expireAt;
+
+    public enum Granularity {
+        HOUR,
+        DAY,
+    }
+}
@@ -35,6 +35,9 @@ public class DgcRuleLogAmount {
     @Field(name = "num_revoked")
     private Integer numRevoked = 0;
 
+    @Field(name = "num_unchanged_countries")
+    private Integer numUnchangedCountries = 0;
+
     public Integer incNum() {
         return ++num;
     }
@@ -54,4 +57,8 @@ public class DgcRuleLogAmount {
     public Integer incNumRevoked() {
         return ++numRevoked;
     }
+
+    public Integer incNumUnchangedCountries() {
+        return ++numUnchangedCountries;
+    }
 }
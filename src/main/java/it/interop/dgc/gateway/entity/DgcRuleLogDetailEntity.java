@@ -0,0 +1,55 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.entity;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Chunk of the per-country rule log of a run too large to be embedded in its
+ * {@link DgcRuleLogEntity}.
+ */
+@Data
+@Document(collection = "dgc_rule_log_detail")
+public class DgcRuleLogDetailEntity implements Serializable {
+
+    private static final long serialVersionUID = 4418390521766035917L;
+
+    @Id
+    private String id;
+
+    @Field(name = "log_id")
+    private String logId;
+
+    @Field(name = "batch_tag")
+    private String batchTag;
+
+    @Field(name = "country")
+    private String country;
+
+    @Field(name = "chunk")
+    private Integer chunk;
+
+    @Field("log_info")
+    private List<DgcRuleLogInfo> logInfoList;
+
+    @Field("execution")
+    private Date execution;
+}
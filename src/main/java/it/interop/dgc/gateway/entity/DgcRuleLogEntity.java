@@ -58,6 +58,13 @@ public class DgcRuleLogEntity implements Serializable {
     @Field("log_info")
     private Map<String, List<DgcRuleLogInfo>> logInfoList;
 
+    /**
+     * Number of dgc_rule_log_detail chunks holding log_info, when not
+     * embedded.
+     */
+    @Field("log_info_chunks")
+    private Integer logInfoChunks;
+
     @Field("log_amount")
     private DgcRuleLogAmount logAmount;
 
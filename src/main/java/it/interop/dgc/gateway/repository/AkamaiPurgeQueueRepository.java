@@ -0,0 +1,129 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import it.interop.dgc.gateway.entity.AkamaiPurgeRequestEntity;
+import java.util.Collection;
+import java.util.Date;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public class AkamaiPurgeQueueRepository {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * Queues a purge of the target, or folds the request into the one
+     * already pending.
+     *
+     * @return true if no purge of the target was pending.
+     */
+    public boolean enqueue(String target, Date dueAt) {
+        Update update = new Update()
+            .inc("generation", 1L)
+            .setOnInsert("requested_at", new Date())
+            .setOnInsert("due_at", dueAt)
+            .setOnInsert("attempts", 0);
+        return (
+            mongoTemplate
+                .upsert(
+                    new Query(Criteria.where("_id").is(target)),
+                    update,
+                    AkamaiPurgeRequestEntity.class
+                )
+                .getUpsertedId() !=
+            null
+        );
+    }
+
+    /**
+     * Leases one due purge, so no other replica runs it at the same time.
+     *
+     * @param excludedIds targets already processed in the current poll.
+     * @return the leased purge, or null if none is due.
+     */
+    public AkamaiPurgeRequestEntity claimDue(
+        Date now,
+        Date lockedUntil,
+        Collection<String> excludedIds
+    ) {
+        Query query = new Query(
+            Criteria
+                .where("due_at")
+                .lte(now)
+                .orOperator(
+                    Criteria.where("locked_until").is(null),
+                    Criteria.where("locked_until").lt(now)
+                )
+        );
+        if (!excludedIds.isEmpty()) {
+            query.addCriteria(Criteria.where("_id").nin(excludedIds));
+        }
+        return mongoTemplate.findAndModify(
+            query,
+            new Update().set("locked_until", lockedUntil),
+            FindAndModifyOptions.options().returnNew(true),
+            AkamaiPurgeRequestEntity.class
+        );
+    }
+
+    /**
+     * Removes the purge unless new changes were requested while it ran.
+     *
+     * @return false if the purge is still pending.
+     */
+    public boolean complete(AkamaiPurgeRequestEntity claimed) {
+        Query query = new Query()
+            .addCriteria(Criteria.where("_id").is(claimed.getId()))
+            .addCriteria(
+                Criteria.where("generation").is(claimed.getGeneration())
+            );
+        return (
+            mongoTemplate
+                .remove(query, AkamaiPurgeRequestEntity.class)
+                .getDeletedCount() >
+            0
+        );
+    }
+
+    public void reschedule(
+        String target,
+        Date dueAt,
+        int attempts,
+        String lastError
+    ) {
+        Update update = new Update()
+            .set("due_at", dueAt)
+            .set("attempts", attempts)
+            .set("last_error", lastError)
+            .unset("locked_until");
+        mongoTemplate.updateFirst(
+            new Query(Criteria.where("_id").is(target)),
+            update,
+            AkamaiPurgeRequestEntity.class
+        );
+    }
+
+    public long countPending() {
+        return mongoTemplate.count(new Query(), AkamaiPurgeRequestEntity.class);
+    }
+}
@@ -0,0 +1,95 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import it.interop.dgc.gateway.entity.BundleEntity;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public class BundleRepository {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * @return content hash of every bundle whose key starts with prefix.
+     */
+    public Map<String, String> getContentHashes(String prefix) {
+        Query query = new Query(
+            Criteria.where("_id").regex("^" + Pattern.quote(prefix))
+        );
+        query.fields().include("content_hash");
+        Map<String, String> hashes = new HashMap<>();
+        for (BundleEntity bundle : mongoTemplate.find(
+            query,
+            BundleEntity.class
+        )) {
+            hashes.put(bundle.getId(), bundle.getContentHash());
+        }
+        return hashes;
+    }
+
+    /**
+     * @return the bundle with only the requested content variant loaded.
+     */
+    public BundleEntity get(String id, boolean gzip) {
+        Query query = new Query(Criteria.where("_id").is(id));
+        query
+            .fields()
+            .include("content_hash")
+            .include(gzip ? "content_gzip" : "content");
+        return mongoTemplate.findOne(query, BundleEntity.class);
+    }
+
+    /**
+     * Writes the changed bundles and removes the stale ones with a single
+     * unordered bulk write.
+     */
+    public void replace(
+        List<BundleEntity> changed,
+        Collection<String> staleIds
+    ) {
+        if (changed.isEmpty() && staleIds.isEmpty()) {
+            return;
+        }
+        BulkOperations bulkOps = mongoTemplate.bulkOps(
+            BulkMode.UNORDERED,
+            BundleEntity.class
+        );
+        for (BundleEntity bundle : changed) {
+            bulkOps.replaceOne(
+                new Query(Criteria.where("_id").is(bundle.getId())),
+                bundle,
+                FindAndReplaceOptions.options().upsert()
+            );
+        }
+        if (!staleIds.isEmpty()) {
+            bulkOps.remove(new Query(Criteria.where("_id").in(staleIds)));
+        }
+        bulkOps.execute();
+    }
+}
@@ -0,0 +1,45 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import it.interop.dgc.gateway.entity.BusinessRuleFingerprintEntity;
+import java.util.HashMap;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public class BusinessRuleFingerprintRepository {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    public BusinessRuleFingerprintEntity save(
+        BusinessRuleFingerprintEntity businessRuleFingerprintEntity
+    ) {
+        return mongoTemplate.save(businessRuleFingerprintEntity);
+    }
+
+    public Map<String, BusinessRuleFingerprintEntity> getAllByCountry() {
+        Map<String, BusinessRuleFingerprintEntity> fingerprints = new HashMap<>();
+        mongoTemplate
+            .findAll(BusinessRuleFingerprintEntity.class)
+            .forEach(fingerprint ->
+                fingerprints.put(fingerprint.getCountry(), fingerprint)
+            );
+        return fingerprints;
+    }
+}
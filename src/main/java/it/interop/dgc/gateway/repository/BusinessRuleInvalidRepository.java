@@ -16,8 +16,18 @@
 package it.interop.dgc.gateway.repository;
 
 import it.interop.dgc.gateway.entity.BusinessRuleInvalidEntity;
+import java.util.Date;
+import java.util.List;
+import javax.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Repository;
 
 @Repository
@@ -26,9 +36,56 @@ public class BusinessRuleInvalidRepository {
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    // Not unique: collections written before the upsert hold duplicates
+    @PostConstruct
+    private void ensureIndexes() {
+        mongoTemplate
+            .indexOps(BusinessRuleInvalidEntity.class)
+            .ensureIndex(
+                new Index()
+                    .on("country_code", Sort.Direction.ASC)
+                    .on("identifier_name", Sort.Direction.ASC)
+                    .on("version", Sort.Direction.ASC)
+            );
+    }
+
     public BusinessRuleInvalidEntity save(
         BusinessRuleInvalidEntity businessRuleEntity
     ) {
         return mongoTemplate.save(businessRuleEntity);
     }
+
+    /**
+     * Stores each invalid rule once per country, identifier and version,
+     * tracking when it was first and last seen and how many runs found it.
+     */
+    public void upsertAll(List<BusinessRuleInvalidEntity> businessRuleList) {
+        if (businessRuleList.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
+        BulkOperations bulkOps = mongoTemplate.bulkOps(
+            BulkMode.UNORDERED,
+            BusinessRuleInvalidEntity.class
+        );
+        for (BusinessRuleInvalidEntity invalid : businessRuleList) {
+            Query query = new Query()
+                .addCriteria(Criteria.where("country").is(invalid.getCountry()))
+                .addCriteria(
+                    Criteria.where("identifier").is(invalid.getIdentifier())
+                )
+                .addCriteria(
+                    Criteria.where("version").is(invalid.getVersion())
+                );
+            Update update = new Update()
+                .setOnInsert("created_at", now)
+                .setOnInsert("first_seen", now)
+                .set("raw_data", invalid.getRawData())
+                .set("last_seen", now)
+                .set("batch_tag", invalid.getDownloadBatchTag())
+                .inc("occurrences", 1L);
+            bulkOps.upsert(query, update);
+        }
+        bulkOps.execute();
+    }
 }
@@ -16,12 +16,19 @@
 package it.interop.dgc.gateway.repository;
 
 import it.interop.dgc.gateway.entity.BusinessRuleEntity;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Repository;
 
 @Repository
@@ -34,35 +41,65 @@ public class BusinessRuleRepository {
         return mongoTemplate.save(businessRuleEntity);
     }
 
-    public BusinessRuleEntity getByCountryAndHash(
-        String country,
-        String hash,
-        String batchTag
-    ) {
+    /**
+     * @return the active rules ordered by country, identifier and version.
+     */
+    public List<BusinessRuleEntity> getActive() {
+        Query query = new Query()
+            .addCriteria(Criteria.where("revoked").is(false))
+            .with(Sort.by("country", "identifier", "version"));
+        return mongoTemplate.find(query, BusinessRuleEntity.class);
+    }
+
+    /**
+     * Loads the active rules, projected on their key only.
+     *
+     * @return rule id by hash, by country.
+     */
+    public Map<String, Map<String, String>> getActiveRuleIds() {
         Query query = new Query();
-        query
-            .addCriteria(Criteria.where("country").is(country))
-            .addCriteria(Criteria.where("hash").is(hash))
-            .addCriteria(Criteria.where("batch_tag_revoke").is(batchTag));
-        return mongoTemplate.findOne(query, BusinessRuleEntity.class);
+        query.addCriteria(Criteria.where("revoked").is(false));
+        query.fields().include("country_code").include("hash");
+        Map<String, Map<String, String>> ruleIds = new HashMap<>();
+        mongoTemplate
+            .find(query, BusinessRuleEntity.class)
+            .forEach(rule ->
+                ruleIds
+                    .computeIfAbsent(rule.getCountry(), k -> new HashMap<>())
+                    .put(rule.getHash(), rule.getId())
+            );
+        return ruleIds;
     }
 
-    public int setAllBusinessRuleRevoked(String revokedBatchTag) {
-        int numDoc = 0;
-        List<BusinessRuleEntity> businessRuleEntityList = mongoTemplate.findAll(
+    /**
+     * Inserts the new rules and revokes the given ones with a single
+     * unordered bulk write. Unchanged rules are not written at all.
+     */
+    public void reconcile(
+        List<BusinessRuleEntity> toInsert,
+        Collection<String> toRevokeIds,
+        String revokedBatchTag
+    ) {
+        if (toInsert.isEmpty() && toRevokeIds.isEmpty()) {
+            return;
+        }
+        BulkOperations bulkOps = mongoTemplate.bulkOps(
+            BulkMode.UNORDERED,
             BusinessRuleEntity.class
         );
-        if (businessRuleEntityList != null) {
-            for (BusinessRuleEntity businessRuleEntity : businessRuleEntityList) {
-                if (!businessRuleEntity.isRevoked()) {
-                    businessRuleEntity.setRevoked(true);
-                    businessRuleEntity.setRevokedDate(new Date());
-                    businessRuleEntity.setRevokedBatchTag(revokedBatchTag);
-                    mongoTemplate.save(businessRuleEntity);
-                    numDoc++;
-                }
-            }
+        if (!toInsert.isEmpty()) {
+            bulkOps.insert(toInsert);
+        }
+        if (!toRevokeIds.isEmpty()) {
+            Update update = new Update()
+                .set("revoked", true)
+                .set("revoked_date", new Date())
+                .set("batch_tag_revoke", revokedBatchTag);
+            bulkOps.updateMulti(
+                new Query(Criteria.where("_id").in(toRevokeIds)),
+                update
+            );
         }
-        return numDoc;
+        bulkOps.execute();
     }
 }
@@ -16,11 +16,20 @@
 package it.interop.dgc.gateway.repository;
 
 import it.interop.dgc.gateway.entity.BusinessRuleUploadEntity;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import javax.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Repository;
 
 @Repository
@@ -29,6 +38,30 @@ public class BusinessRuleUploadRepository {
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    // Polling cost must follow the pending documents, not the collection size
+    @PostConstruct
+    private void ensureIndexes() {
+        IndexOperations indexOps = mongoTemplate.indexOps(
+            BusinessRuleUploadEntity.class
+        );
+        // Sent documents leave the index
+        indexOps.ensureIndex(
+            new Index()
+                .on("batch_tag", Sort.Direction.ASC)
+                .partial(
+                    PartialIndexFilter.of(Criteria.where("batch_tag").is(null))
+                )
+        );
+        indexOps.ensureIndex(
+            new Index()
+                .on("revoked", Sort.Direction.ASC)
+                .on("batch_tag_revoke", Sort.Direction.ASC)
+                .partial(
+                    PartialIndexFilter.of(Criteria.where("revoked").is(true))
+                )
+        );
+    }
+
     public BusinessRuleUploadEntity save(
         BusinessRuleUploadEntity businessRuleUploadEntity
     ) {
@@ -36,8 +69,7 @@ public class BusinessRuleUploadRepository {
     }
 
     public List<BusinessRuleUploadEntity> getSignerInformationToSend() {
-        Query query = new Query();
-        query.addCriteria(Criteria.where("batch_tag").is(null));
+        Query query = toSendQuery();
         List<BusinessRuleUploadEntity> certs = mongoTemplate.find(
             query,
             BusinessRuleUploadEntity.class
@@ -46,15 +78,137 @@ public class BusinessRuleUploadRepository {
     }
 
     public List<BusinessRuleUploadEntity> getSignerInformationToRevoke() {
-        Query query = new Query();
-        query
-            .addCriteria(Criteria.where("revoked").is(true))
-            .addCriteria(Criteria.where("batch_tag").exists(true))
-            .addCriteria(Criteria.where("batch_tag_revoke").is(null));
+        Query query = toRevokeQuery();
         List<BusinessRuleUploadEntity> certs = mongoTemplate.find(
             query,
             BusinessRuleUploadEntity.class
         );
         return certs;
     }
+
+    public long countToSend() {
+        return mongoTemplate.count(
+            toSendQuery(),
+            BusinessRuleUploadEntity.class
+        );
+    }
+
+    public long countToRevoke() {
+        return mongoTemplate.count(
+            toRevokeQuery(),
+            BusinessRuleUploadEntity.class
+        );
+    }
+
+    /**
+     * Atomically claims one document still to send, so that concurrent
+     * replicas never post the same document. Documents whose claim expired
+     * (e.g. the claiming replica died) can be claimed again.
+     *
+     * @param excludedIds documents that failed in the current run.
+     * @return the claimed document, or null if nothing is left to send.
+     */
+    public BusinessRuleUploadEntity claimToSend(
+        String owner,
+        long claimMillis,
+        Collection<String> excludedIds
+    ) {
+        return claim(toSendQuery(), owner, claimMillis, excludedIds);
+    }
+
+    public BusinessRuleUploadEntity claimToRevoke(
+        String owner,
+        long claimMillis,
+        Collection<String> excludedIds
+    ) {
+        return claim(toRevokeQuery(), owner, claimMillis, excludedIds);
+    }
+
+    public void markUploaded(
+        String id,
+        String uploadBatchTag,
+        String identifier,
+        String version
+    ) {
+        Update update = new Update()
+            .set("batch_tag", uploadBatchTag)
+            .set("identifier_name", identifier)
+            .set("version", version);
+        mongoTemplate.updateFirst(
+            byId(id),
+            update,
+            BusinessRuleUploadEntity.class
+        );
+    }
+
+    public void markRevoked(String id, String revokedBatchTag) {
+        Update update = new Update()
+            .set("revoked_date", new Date())
+            .set("batch_tag_revoke", revokedBatchTag);
+        mongoTemplate.updateFirst(
+            byId(id),
+            update,
+            BusinessRuleUploadEntity.class
+        );
+    }
+
+    public void releaseClaim(String id, String owner) {
+        Query query = new Query()
+            .addCriteria(Criteria.where("_id").is(id))
+            .addCriteria(Criteria.where("claimed_by").is(owner));
+        Update update = new Update()
+            .unset("claimed_by")
+            .unset("claim_expires_at");
+        mongoTemplate.updateFirst(query, update, BusinessRuleUploadEntity.class);
+    }
+
+    private BusinessRuleUploadEntity claim(
+        Query query,
+        String owner,
+        long claimMillis,
+        Collection<String> excludedIds
+    ) {
+        Date now = new Date();
+        query.addCriteria(
+            new Criteria()
+                .orOperator(
+                    Criteria.where("claimed_by").is(null),
+                    Criteria.where("claim_expires_at").lt(now)
+                )
+        );
+        if (excludedIds != null && !excludedIds.isEmpty()) {
+            query.addCriteria(Criteria.where("_id").nin(excludedIds));
+        }
+        // Only what the upload needs: the document is then updated in place
+        query.fields().include("raw_data");
+
+        Update update = new Update()
+            .set("claimed_by", owner)
+            .set("claim_expires_at", new Date(now.getTime() + claimMillis));
+        return mongoTemplate.findAndModify(
+            query,
+            update,
+            FindAndModifyOptions.options().returnNew(true),
+            BusinessRuleUploadEntity.class
+        );
+    }
+
+    private static Query byId(String id) {
+        return new Query(Criteria.where("_id").is(id));
+    }
+
+    private static Query toSendQuery() {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("batch_tag").is(null));
+        return query;
+    }
+
+    private static Query toRevokeQuery() {
+        Query query = new Query();
+        query
+            .addCriteria(Criteria.where("revoked").is(true))
+            .addCriteria(Criteria.where("batch_tag").exists(true))
+            .addCriteria(Criteria.where("batch_tag_revoke").is(null));
+        return query;
+    }
 }
@@ -16,6 +16,7 @@
 package it.interop.dgc.gateway.repository;
 
 import it.interop.dgc.gateway.entity.CountryListEntity;
+import java.util.Collections;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Query;
@@ -27,6 +28,9 @@ public class CountryListRepository {
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    @Autowired
+    private SnapshotRepository snapshotRepository;
+
     public CountryListEntity save(CountryListEntity countryListEntity) {
         return mongoTemplate.save(countryListEntity);
     }
@@ -35,6 +39,17 @@ public class CountryListRepository {
         mongoTemplate.remove(new Query(), CountryListEntity.class);
     }
 
+    /**
+     * @return false if the stored country list is already this one.
+     */
+    public boolean replace(CountryListEntity countryListEntity) {
+        return snapshotRepository.replace(
+            CountryListEntity.class,
+            Collections.singletonList(countryListEntity),
+            countryListEntity.getHash()
+        );
+    }
+
     public CountryListEntity getCountries() {
         return mongoTemplate.findOne(new Query(), CountryListEntity.class);
     }
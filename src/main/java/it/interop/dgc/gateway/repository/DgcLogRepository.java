@@ -14,18 +14,175 @@
  */
 package it.interop.dgc.gateway.repository;
 
+import it.interop.dgc.gateway.entity.DgcLogDetailEntity;
 import it.interop.dgc.gateway.entity.DgcLogEntity;
+import it.interop.dgc.gateway.entity.DgcLogInfo;
+import it.interop.dgc.gateway.enums.LogDetailPolicy;
+import it.interop.dgc.gateway.util.DscUtil;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public class DgcLogRepository {
 
+    @Value("${dgc.log.inline_limit}")
+    private int inlineLimit;
+
+    @Value("${dgc.log.chunk_size}")
+    private int chunkSize;
+
+    @Value("${dgc.log.retention_days}")
+    private long retentionDays;
+
+    @Value("${dgc.log.detail_policy}")
+    private LogDetailPolicy detailPolicy;
+
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    @Autowired
+    private DgcLogSummaryRepository dgcLogSummaryRepository;
+
+    @PostConstruct
+    private void ensureIndexes() {
+        mongoTemplate
+            .indexOps(DgcLogDetailEntity.class)
+            .ensureIndex(new Index().on("log_id", Sort.Direction.ASC));
+        if (retentionDays > 0) {
+            long expireAfterSeconds = TimeUnit.DAYS.toSeconds(retentionDays);
+            TtlIndexes.ensure(
+                mongoTemplate,
+                mongoTemplate.getCollectionName(DgcLogEntity.class),
+                "execution",
+                expireAfterSeconds
+            );
+            TtlIndexes.ensure(
+                mongoTemplate,
+                mongoTemplate.getCollectionName(DgcLogDetailEntity.class),
+                "execution",
+                expireAfterSeconds
+            );
+        }
+    }
+
+    /**
+     * @return the written copy of the log.
+     */
     public DgcLogEntity save(DgcLogEntity efgsWorkerInfo) {
-        return mongoTemplate.save(efgsWorkerInfo);
+        return saveAll(Collections.singletonList(efgsWorkerInfo)).get(0);
+    }
+
+    /**
+     * Small logs are written with a single insert. Large per-item logs are
+     * moved out of the run document into chunks, so it stays small and far
+     * from the BSON document size limit. Copies are written: the given logs
+     * are not modified.
+     *
+     * @return the written copies, in the same order.
+     */
+    public List<DgcLogEntity> saveAll(List<DgcLogEntity> dgcLogList) {
+        List<DgcLogEntity> written = new ArrayList<>();
+        List<DgcLogSummaryRepository.Run> runs = new ArrayList<>();
+        List<DgcLogEntity> inlineLogs = new ArrayList<>();
+        for (DgcLogEntity dgcLog : dgcLogList) {
+            DgcLogEntity efgsWorkerInfo = copyOf(dgcLog);
+            written.add(efgsWorkerInfo);
+            boolean success = DscUtil.isSuccessReport(
+                efgsWorkerInfo.getExecutionReport()
+            );
+            if (
+                detailPolicy == LogDetailPolicy.CHANGES_ONLY &&
+                success &&
+                efgsWorkerInfo.getDgcLogInfoList() != null
+            ) {
+                efgsWorkerInfo.setDgcLogInfoList(
+                    efgsWorkerInfo
+                        .getDgcLogInfoList()
+                        .stream()
+                        .filter(info ->
+                            !info.isAlreadyExists() || !info.isVerifiedSign()
+                        )
+                        .collect(Collectors.toList())
+                );
+            }
+            runs.add(
+                new DgcLogSummaryRepository.Run(
+                    efgsWorkerInfo.getOperation().name(),
+                    efgsWorkerInfo.getCountry(),
+                    efgsWorkerInfo.getExecution(),
+                    !success,
+                    efgsWorkerInfo.getDgcLogAmount()
+                )
+            );
+
+            List<DgcLogInfo> dgcLogInfoList = efgsWorkerInfo
+                .getDgcLogInfoList();
+            if (
+                dgcLogInfoList == null || dgcLogInfoList.size() <= inlineLimit
+            ) {
+                inlineLogs.add(efgsWorkerInfo);
+            } else {
+                writeChunked(efgsWorkerInfo);
+            }
+        }
+        if (!inlineLogs.isEmpty()) {
+            mongoTemplate.insert(inlineLogs, DgcLogEntity.class);
+        }
+        dgcLogSummaryRepository.rollup(
+            mongoTemplate.getCollectionName(DgcLogEntity.class),
+            runs
+        );
+        return written;
+    }
+
+    private void writeChunked(DgcLogEntity efgsWorkerInfo) {
+        List<DgcLogInfo> dgcLogInfoList = efgsWorkerInfo.getDgcLogInfoList();
+        List<DgcLogDetailEntity> details = new ArrayList<>();
+        for (int from = 0; from < dgcLogInfoList.size(); from += chunkSize) {
+            DgcLogDetailEntity detail = new DgcLogDetailEntity();
+            detail.setBatchTag(efgsWorkerInfo.getBatchTag());
+            detail.setChunk(from / chunkSize);
+            detail.setDgcLogInfoList(
+                new ArrayList<>(
+                    dgcLogInfoList.subList(
+                        from,
+                        Math.min(from + chunkSize, dgcLogInfoList.size())
+                    )
+                )
+            );
+            detail.setExecution(efgsWorkerInfo.getExecution());
+            details.add(detail);
+        }
+
+        efgsWorkerInfo.setDgcLogInfoList(null);
+        efgsWorkerInfo.setDgcLogInfoChunks(details.size());
+        DgcLogEntity saved = mongoTemplate.save(efgsWorkerInfo);
+        details.forEach(detail -> detail.setLogId(saved.getId()));
+        mongoTemplate.insert(details, DgcLogDetailEntity.class);
+    }
+
+    private static DgcLogEntity copyOf(DgcLogEntity dgcLog) {
+        DgcLogEntity copy = new DgcLogEntity();
+        copy.setId(dgcLog.getId());
+        copy.setBatchTag(dgcLog.getBatchTag());
+        copy.setOperation(dgcLog.getOperation());
+        copy.setCountry(dgcLog.getCountry());
+        copy.setDgcLogInfoList(dgcLog.getDgcLogInfoList());
+        copy.setDgcLogInfoChunks(dgcLog.getDgcLogInfoChunks());
+        copy.setDgcLogAmount(dgcLog.getDgcLogAmount());
+        copy.setExecution(dgcLog.getExecution());
+        copy.setExecutionReport(dgcLog.getExecutionReport());
+        copy.setExecutionAkamaiReport(dgcLog.getExecutionAkamaiReport());
+        return copy;
     }
 }
@@ -0,0 +1,158 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import it.interop.dgc.gateway.entity.DgcLogSummaryEntity;
+import it.interop.dgc.gateway.entity.DgcLogSummaryEntity.Granularity;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public class DgcLogSummaryRepository {
+
+    @Value("${dgc.log.summary.hourly_retention_days}")
+    private long hourlyRetentionDays;
+
+    @Value("${dgc.log.summary.daily_retention_days}")
+    private long dailyRetentionDays;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // Each rollup carries its own expiry, set from its granularity
+    @PostConstruct
+    private void ensureIndexes() {
+        TtlIndexes.ensure(
+            mongoTemplate,
+            mongoTemplate.getCollectionName(DgcLogSummaryEntity.class),
+            "expire_at",
+            0
+        );
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Run {
+
+        private String operation;
+
+        private String scope;
+
+        private Date execution;
+
+        private boolean error;
+
+        private Object amount;
+    }
+
+    /**
+     * Adds the runs and their amounts to the hourly and daily summaries, with
+     * a single bulk write.
+     */
+    public void rollup(String source, List<Run> runs) {
+        if (runs.isEmpty()) {
+            return;
+        }
+        BulkOperations bulkOps = mongoTemplate.bulkOps(
+            BulkMode.UNORDERED,
+            DgcLogSummaryEntity.class
+        );
+        for (Run run : runs) {
+            Document amount = new Document();
+            if (run.getAmount() != null) {
+                mongoTemplate.getConverter().write(run.getAmount(), amount);
+            }
+            Instant instant = run.getExecution().toInstant();
+            rollup(
+                bulkOps,
+                Granularity.HOUR,
+                Date.from(instant.truncatedTo(ChronoUnit.HOURS)),
+                source,
+                run,
+                amount
+            );
+            rollup(
+                bulkOps,
+                Granularity.DAY,
+                Date.from(instant.truncatedTo(ChronoUnit.DAYS)),
+                source,
+                run,
+                amount
+            );
+        }
+        bulkOps.execute();
+    }
+
+    private void rollup(
+        BulkOperations bulkOps,
+        Granularity granularity,
+        Date periodStart,
+        String source,
+        Run run,
+        Document amount
+    ) {
+        // Deterministic id: concurrent replicas upsert the same document
+        String id = String.join(
+            "|",
+            granularity.name(),
+            String.valueOf(periodStart.getTime()),
+            source,
+            run.getOperation(),
+            String.valueOf(run.getScope())
+        );
+        Update update = new Update()
+            .setOnInsert("granularity", granularity)
+            .setOnInsert("period_start", periodStart)
+            .setOnInsert("source", source)
+            .setOnInsert("operation", run.getOperation())
+            .setOnInsert("scope", run.getScope())
+            .inc("runs", 1L)
+            .inc("errors", run.isError() ? 1L : 0L);
+        long retentionDays = granularity == Granularity.HOUR
+            ? hourlyRetentionDays
+            : dailyRetentionDays;
+        if (retentionDays > 0) {
+            update.setOnInsert(
+                "expire_at",
+                new Date(
+                    periodStart.getTime() +
+                    TimeUnit.DAYS.toMillis(retentionDays)
+                )
+            );
+        }
+        amount.forEach((key, value) -> {
+            if (value instanceof Number) {
+                update.inc("amount." + key, ((Number) value).longValue());
+            }
+        });
+        bulkOps.upsert(new Query(Criteria.where("_id").is(id)), update);
+    }
+}
@@ -14,18 +14,188 @@
  */
 package it.interop.dgc.gateway.repository;
 
+import it.interop.dgc.gateway.entity.DgcRuleLogDetailEntity;
 import it.interop.dgc.gateway.entity.DgcRuleLogEntity;
+import it.interop.dgc.gateway.entity.DgcRuleLogInfo;
+import it.interop.dgc.gateway.enums.LogDetailPolicy;
+import it.interop.dgc.gateway.util.DscUtil;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public class DgcRuleLogRepository {
 
+    @Value("${dgc.log.inline_limit}")
+    private int inlineLimit;
+
+    @Value("${dgc.log.chunk_size}")
+    private int chunkSize;
+
+    @Value("${dgc.log.retention_days}")
+    private long retentionDays;
+
+    @Value("${dgc.log.detail_policy}")
+    private LogDetailPolicy detailPolicy;
+
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    @Autowired
+    private DgcLogSummaryRepository dgcLogSummaryRepository;
+
+    @PostConstruct
+    private void ensureIndexes() {
+        mongoTemplate
+            .indexOps(DgcRuleLogDetailEntity.class)
+            .ensureIndex(new Index().on("log_id", Sort.Direction.ASC));
+        if (retentionDays > 0) {
+            long expireAfterSeconds = TimeUnit.DAYS.toSeconds(retentionDays);
+            TtlIndexes.ensure(
+                mongoTemplate,
+                mongoTemplate.getCollectionName(DgcRuleLogEntity.class),
+                "execution",
+                expireAfterSeconds
+            );
+            TtlIndexes.ensure(
+                mongoTemplate,
+                mongoTemplate.getCollectionName(DgcRuleLogDetailEntity.class),
+                "execution",
+                expireAfterSeconds
+            );
+        }
+    }
+
+    /**
+     * @return the written copy of the log.
+     */
     public DgcRuleLogEntity save(DgcRuleLogEntity efgsWorkerInfo) {
-        return mongoTemplate.save(efgsWorkerInfo);
+        return saveAll(Collections.singletonList(efgsWorkerInfo)).get(0);
+    }
+
+    /**
+     * Small logs are written with a single insert. Large per-country logs are
+     * moved out of the run document into chunks, so it stays small and far
+     * from the BSON document size limit. Copies are written: the given logs
+     * are not modified.
+     *
+     * @return the written copies, in the same order.
+     */
+    public List<DgcRuleLogEntity> saveAll(List<DgcRuleLogEntity> dgcRuleLogList) {
+        List<DgcRuleLogEntity> written = new ArrayList<>();
+        List<DgcLogSummaryRepository.Run> runs = new ArrayList<>();
+        List<DgcRuleLogEntity> inlineLogs = new ArrayList<>();
+        for (DgcRuleLogEntity dgcRuleLog : dgcRuleLogList) {
+            DgcRuleLogEntity efgsWorkerInfo = copyOf(dgcRuleLog);
+            written.add(efgsWorkerInfo);
+            boolean success = DscUtil.isSuccessReport(
+                efgsWorkerInfo.getExecutionReport()
+            );
+            Map<String, List<DgcRuleLogInfo>> logInfoList = efgsWorkerInfo
+                .getLogInfoList();
+            if (
+                detailPolicy == LogDetailPolicy.CHANGES_ONLY &&
+                success &&
+                logInfoList != null
+            ) {
+                Map<String, List<DgcRuleLogInfo>> changes = new LinkedHashMap<>();
+                logInfoList.forEach((country, infoList) ->
+                    changes.put(
+                        country,
+                        infoList
+                            .stream()
+                            .filter(info ->
+                                !info.isAlreadyExists() ||
+                                !info.isVerifiedSign()
+                            )
+                            .collect(Collectors.toList())
+                    )
+                );
+                logInfoList = changes;
+                efgsWorkerInfo.setLogInfoList(changes);
+            }
+            runs.add(
+                new DgcLogSummaryRepository.Run(
+                    efgsWorkerInfo.getOperation().name(),
+                    efgsWorkerInfo.getItemType().name(),
+                    efgsWorkerInfo.getExecution(),
+                    !success,
+                    efgsWorkerInfo.getLogAmount()
+                )
+            );
+
+            int numItems = (logInfoList == null)
+                ? 0
+                : logInfoList.values().stream().mapToInt(List::size).sum();
+            if (numItems <= inlineLimit) {
+                inlineLogs.add(efgsWorkerInfo);
+            } else {
+                writeChunked(efgsWorkerInfo);
+            }
+        }
+        if (!inlineLogs.isEmpty()) {
+            mongoTemplate.insert(inlineLogs, DgcRuleLogEntity.class);
+        }
+        dgcLogSummaryRepository.rollup(
+            mongoTemplate.getCollectionName(DgcRuleLogEntity.class),
+            runs
+        );
+        return written;
+    }
+
+    private void writeChunked(DgcRuleLogEntity efgsWorkerInfo) {
+        Map<String, List<DgcRuleLogInfo>> logInfoList = efgsWorkerInfo.getLogInfoList();
+        List<DgcRuleLogDetailEntity> details = new ArrayList<>();
+        for (Map.Entry<String, List<DgcRuleLogInfo>> country : logInfoList.entrySet()) {
+            List<DgcRuleLogInfo> countryInfo = country.getValue();
+            for (int from = 0; from < countryInfo.size(); from += chunkSize) {
+                DgcRuleLogDetailEntity detail = new DgcRuleLogDetailEntity();
+                detail.setBatchTag(efgsWorkerInfo.getBatchTag());
+                detail.setCountry(country.getKey());
+                detail.setChunk(from / chunkSize);
+                detail.setLogInfoList(
+                    new ArrayList<>(
+                        countryInfo.subList(
+                            from,
+                            Math.min(from + chunkSize, countryInfo.size())
+                        )
+                    )
+                );
+                detail.setExecution(efgsWorkerInfo.getExecution());
+                details.add(detail);
+            }
+        }
+
+        efgsWorkerInfo.setLogInfoList(null);
+        efgsWorkerInfo.setLogInfoChunks(details.size());
+        DgcRuleLogEntity saved = mongoTemplate.save(efgsWorkerInfo);
+        details.forEach(detail -> detail.setLogId(saved.getId()));
+        mongoTemplate.insert(details, DgcRuleLogDetailEntity.class);
+    }
+
+    private static DgcRuleLogEntity copyOf(DgcRuleLogEntity dgcRuleLog) {
+        DgcRuleLogEntity copy = new DgcRuleLogEntity();
+        copy.setId(dgcRuleLog.getId());
+        copy.setBatchTag(dgcRuleLog.getBatchTag());
+        copy.setOperation(dgcRuleLog.getOperation());
+        copy.setItemType(dgcRuleLog.getItemType());
+        copy.setLogInfoList(dgcRuleLog.getLogInfoList());
+        copy.setLogInfoChunks(dgcRuleLog.getLogInfoChunks());
+        copy.setLogAmount(dgcRuleLog.getLogAmount());
+        copy.setExecution(dgcRuleLog.getExecution());
+        copy.setExecutionReport(dgcRuleLog.getExecutionReport());
+        copy.setExecutionAkamaiReport(dgcRuleLog.getExecutionAkamaiReport());
+        return copy;
     }
 }
@@ -14,8 +14,11 @@
  */
 package it.interop.dgc.gateway.repository;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsCommandListener;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.convert.CustomConversions;
@@ -55,4 +58,17 @@ public class MongoConfig {
 
         return mappingConverter;
     }
+
+    /**
+     * Records the latency of every Mongo command as mongodb.driver.commands.
+     */
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoMetricsCustomizer(
+        MeterRegistry meterRegistry
+    ) {
+        return builder ->
+            builder.addCommandListener(
+                new MongoMetricsCommandListener(meterRegistry)
+            );
+    }
 }
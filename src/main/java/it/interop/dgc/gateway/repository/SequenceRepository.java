@@ -0,0 +1,76 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import it.interop.dgc.gateway.entity.SequenceEntity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Named counters kept in one document each, incremented atomically on the
+ * server so concurrent workers never hand out the same value twice.
+ */
+@Repository
+public class SequenceRepository {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * Raises the counter to at least the given value, creating it if needed.
+     * A counter is never lowered, so this is safe to repeat at any time.
+     */
+    public void ensureAtLeast(String name, long value) {
+        mongoTemplate.upsert(
+            new Query(Criteria.where("_id").is(name)),
+            new Update().max("value", value),
+            SequenceEntity.class
+        );
+    }
+
+    /**
+     * @return the current value, 0 if the counter does not exist yet.
+     */
+    public long current(String name) {
+        SequenceEntity sequence = mongoTemplate.findById(
+            name,
+            SequenceEntity.class
+        );
+        return sequence == null ? 0 : sequence.getValue();
+    }
+
+    /**
+     * Reserves a block of consecutive values.
+     *
+     * @return the first value of the block.
+     */
+    public long reserve(String name, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+        SequenceEntity sequence = mongoTemplate.findAndModify(
+            new Query(Criteria.where("_id").is(name)),
+            new Update().inc("value", (long) count),
+            FindAndModifyOptions.options().upsert(true).returnNew(true),
+            SequenceEntity.class
+        );
+        return sequence.getValue() - count + 1;
+    }
+}
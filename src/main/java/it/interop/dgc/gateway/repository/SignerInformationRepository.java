@@ -16,60 +16,117 @@ package it.interop.dgc.gateway.repository;
 
 import it.interop.dgc.gateway.entity.SignerInformationEntity;
 import it.interop.dgc.gateway.enums.CertificateType;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public class SignerInformationRepository {
 
+    private static final String RESUME_TOKEN_SEQUENCE =
+        "signer_information.resume_token";
+
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    @Autowired
+    private SequenceRepository sequenceRepository;
+
+    private volatile boolean resumeTokenSeeded = false;
+
     public SignerInformationEntity save(
         SignerInformationEntity signerInformationEntity
     ) {
         return mongoTemplate.save(signerInformationEntity);
     }
 
-    public SignerInformationEntity getByThumbprint(
-        String thumbprint,
-        String batchTag
-    ) {
-        Query query = new Query();
-        query
-            .addCriteria(Criteria.where("thumbprint").is(thumbprint))
-            .addCriteria(Criteria.where("batch_tag_revoke").is(batchTag));
-        return mongoTemplate.findOne(query, SignerInformationEntity.class);
+    /**
+     * Loads the active certificates synced from the gateway, projected on
+     * their id and thumbprint. UK certificates, loaded manually, are left
+     * out so that they are never revoked by a sync.
+     */
+    public List<SignerInformationEntity> getActiveSynced() {
+        Query query = new Query()
+            .addCriteria(Criteria.where("revoked").is(false))
+            .addCriteria(Criteria.where("batch_tag").not().regex("^MANUAL"));
+        query.fields().include("thumbprint");
+        return mongoTemplate.find(query, SignerInformationEntity.class);
     }
 
-    // All DSC (except UK ones) must be revoked every batch run
-    public int setAllTrustedPartyRevoked(String revokedBatchTag) {
-        int numDoc = 0;
-        List<SignerInformationEntity> trustedPartyList = mongoTemplate.findAll(
+    /**
+     * Inserts the new certificates and revokes the given ones with a single
+     * unordered bulk write. Certificates still published are not written,
+     * so readers never see the trust list half revoked.
+     */
+    public void reconcile(
+        List<SignerInformationEntity> toInsert,
+        Collection<String> toRevokeIds,
+        String revokedBatchTag
+    ) {
+        if (toInsert.isEmpty() && toRevokeIds.isEmpty()) {
+            return;
+        }
+        BulkOperations bulkOps = mongoTemplate.bulkOps(
+            BulkMode.UNORDERED,
             SignerInformationEntity.class
         );
-        if (trustedPartyList != null) {
-            for (SignerInformationEntity trustedParty : trustedPartyList) {
-                // Prevent UK certs revoke
-                if (
-                    !trustedParty.isRevoked() &&
-                    !trustedParty.getDownloadBatchTag().startsWith("MANUAL")
-                ) {
-                    trustedParty.setRevoked(true);
-                    trustedParty.setRevokedDate(new Date());
-                    trustedParty.setRevokedBatchTag(revokedBatchTag);
-                    mongoTemplate.save(trustedParty);
-                    numDoc++;
-                }
-            }
+        if (!toInsert.isEmpty()) {
+            bulkOps.insert(toInsert);
+        }
+        if (!toRevokeIds.isEmpty()) {
+            Update update = new Update()
+                .set("revoked", true)
+                .set("revoked_date", new Date())
+                .set("batch_tag_revoke", revokedBatchTag);
+            bulkOps.updateMulti(
+                new Query(Criteria.where("_id").in(toRevokeIds)),
+                update
+            );
+        }
+        bulkOps.execute();
+    }
+
+    /**
+     * @return the active DSCs ordered by resume token.
+     */
+    public List<SignerInformationEntity> getActiveDsc() {
+        Query query = new Query()
+            .addCriteria(
+                Criteria
+                    .where("certificate_type")
+                    .is(CertificateType.DSC.name())
+            )
+            .addCriteria(Criteria.where("revoked").is(false))
+            .addCriteria(Criteria.where("resumeToken").ne(null))
+            .with(Sort.by("resumeToken").ascending());
+        return mongoTemplate.find(query, SignerInformationEntity.class);
+    }
+
+    /**
+     * Reserves a block of consecutive DSC resume tokens. The sequence is
+     * raised to the highest stored token once per process, so it also picks
+     * up tokens assigned before the sequence existed.
+     *
+     * @return the first token of the block.
+     */
+    public long reserveResumeTokens(int count) {
+        if (!resumeTokenSeeded) {
+            sequenceRepository.ensureAtLeast(
+                RESUME_TOKEN_SEQUENCE,
+                maxResumeToken()
+            );
+            resumeTokenSeeded = true;
         }
-        return numDoc;
+        return sequenceRepository.reserve(RESUME_TOKEN_SEQUENCE, count);
     }
 
     public Long maxResumeToken() {
@@ -79,7 +136,7 @@ public class SignerInformationRepository {
                     .where("certificate_type")
                     .is(CertificateType.DSC.name())
             )
-            .with(Sort.by("id").descending())
+            .with(Sort.by("resumeToken").descending())
             .limit(1);
         SignerInformationEntity ret = mongoTemplate.findOne(
             query,
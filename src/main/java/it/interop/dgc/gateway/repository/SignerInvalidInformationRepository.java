@@ -15,8 +15,18 @@
 package it.interop.dgc.gateway.repository;
 
 import it.interop.dgc.gateway.entity.SignerInvalidInformationEntity;
+import java.util.Date;
+import java.util.List;
+import javax.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Repository;
 
 @Repository
@@ -25,9 +35,52 @@ public class SignerInvalidInformationRepository {
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    // Not unique: collections written before the upsert hold duplicates
+    @PostConstruct
+    private void ensureIndexes() {
+        mongoTemplate
+            .indexOps(SignerInvalidInformationEntity.class)
+            .ensureIndex(new Index().on("thumbprint", Sort.Direction.ASC));
+    }
+
     public SignerInvalidInformationEntity save(
         SignerInvalidInformationEntity signerInvalidInformationEntity
     ) {
         return mongoTemplate.save(signerInvalidInformationEntity);
     }
+
+    /**
+     * Stores each invalid certificate once per thumbprint, tracking when it
+     * was first and last seen and how many runs found it.
+     */
+    public void upsertAll(
+        List<SignerInvalidInformationEntity> signerInvalidInformationList
+    ) {
+        if (signerInvalidInformationList.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
+        BulkOperations bulkOps = mongoTemplate.bulkOps(
+            BulkMode.UNORDERED,
+            SignerInvalidInformationEntity.class
+        );
+        for (SignerInvalidInformationEntity invalid : signerInvalidInformationList) {
+            Query query = new Query(
+                Criteria.where("thumbprint").is(invalid.getThumbprint())
+            );
+            Update update = new Update()
+                .setOnInsert("kid", invalid.getKid())
+                .setOnInsert("country", invalid.getCountry())
+                .setOnInsert("raw_data", invalid.getRawData())
+                .setOnInsert("signature", invalid.getSignature())
+                .setOnInsert("certificate_type", invalid.getCertificateType())
+                .setOnInsert("created_at", now)
+                .setOnInsert("first_seen", now)
+                .set("last_seen", now)
+                .set("batch_tag", invalid.getDownloadBatchTag())
+                .inc("occurrences", 1L);
+            bulkOps.upsert(query, update);
+        }
+        bulkOps.execute();
+    }
 }
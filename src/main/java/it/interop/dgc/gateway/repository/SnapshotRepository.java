@@ -0,0 +1,157 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.model.RenameCollectionOptions;
+import it.interop.dgc.gateway.entity.SnapshotMetadataEntity;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Replaces the whole content of a collection as a new generation: documents
+ * are written to a staging collection which is then renamed over the live
+ * one, so readers never see an empty or partial collection. The staging
+ * collection gets the indexes of the live one before the swap. Staging
+ * collections left by aborted runs are dropped by a scheduled cleanup.
+ */
+@Slf4j
+@Repository
+public class SnapshotRepository {
+
+    private static final String STAGING_INFIX = "_staging_";
+
+    // Staging collections older than this belong to an aborted run
+    private static final long ORPHAN_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * @return false if the live collection already holds this content.
+     */
+    public boolean replace(
+        Class<?> entityClass,
+        Collection<?> documents,
+        String contentHash
+    ) {
+        String collection = mongoTemplate.getCollectionName(entityClass);
+        SnapshotMetadataEntity metadata = mongoTemplate.findById(
+            collection,
+            SnapshotMetadataEntity.class
+        );
+        if (
+            metadata != null &&
+            contentHash.equals(metadata.getContentHash()) &&
+            metadata.getCount() ==
+            mongoTemplate.getCollection(collection).estimatedDocumentCount()
+        ) {
+            return false;
+        }
+
+        long generation = System.currentTimeMillis();
+        // Unique even for runs of two replicas in the same millisecond
+        String staging =
+            collection +
+            STAGING_INFIX +
+            generation +
+            "_" +
+            UUID.randomUUID().toString().replace("-", "");
+        copyIndexes(collection, staging);
+        mongoTemplate.insert(documents, staging);
+        mongoTemplate
+            .getCollection(staging)
+            .renameCollection(
+                new MongoNamespace(mongoTemplate.getDb().getName(), collection),
+                new RenameCollectionOptions().dropTarget(true)
+            );
+
+        metadata = new SnapshotMetadataEntity();
+        metadata.setCollection(collection);
+        metadata.setGeneration(generation);
+        metadata.setContentHash(contentHash);
+        metadata.setCount((long) documents.size());
+        metadata.setCreatedAt(new Date());
+        mongoTemplate.save(metadata);
+        return true;
+    }
+
+    /**
+     * renameCollection with dropTarget keeps only the indexes of the source.
+     */
+    private void copyIndexes(String collection, String staging) {
+        List<Document> indexes = new ArrayList<>();
+        for (Document index : mongoTemplate
+            .getCollection(collection)
+            .listIndexes()) {
+            if (!"_id_".equals(index.getString("name"))) {
+                index.remove("v");
+                index.remove("ns");
+                indexes.add(index);
+            }
+        }
+        if (!indexes.isEmpty()) {
+            mongoTemplate
+                .getDb()
+                .runCommand(
+                    new Document("createIndexes", staging)
+                        .append("indexes", indexes)
+                );
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${dgc.snapshot.staging_cleanup_millis}")
+    public void dropOrphanStaging() {
+        long oldest = System.currentTimeMillis() - ORPHAN_AGE_MILLIS;
+        try {
+            for (String name : mongoTemplate.getCollectionNames()) {
+                Long generation = stagingGeneration(name);
+                if (generation != null && generation < oldest) {
+                    log.info("Dropping orphan staging collection {}", name);
+                    mongoTemplate.dropCollection(name);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Orphan staging cleanup failed", e);
+        }
+    }
+
+    /**
+     * @return the generation of a staging collection, null for any other.
+     */
+    private static Long stagingGeneration(String name) {
+        int start = name.indexOf(STAGING_INFIX);
+        if (start < 0) {
+            return null;
+        }
+        String suffix = name.substring(start + STAGING_INFIX.length());
+        int end = suffix.indexOf('_');
+        try {
+            return Long.parseLong(end < 0 ? suffix : suffix.substring(0, end));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
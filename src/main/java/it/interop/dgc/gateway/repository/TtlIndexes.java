@@ -0,0 +1,71 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+@Slf4j
+final class TtlIndexes {
+
+    private TtlIndexes() {}
+
+    /**
+     * Creates the TTL index on the field, or changes its expiry with collMod
+     * when the configured retention changed.
+     */
+    static void ensure(
+        MongoTemplate mongoTemplate,
+        String collection,
+        String field,
+        long expireAfterSeconds
+    ) {
+        Iterable<Document> indexes = mongoTemplate
+            .getCollection(collection)
+            .listIndexes();
+        for (Document index : indexes) {
+            Document key = index.get("key", Document.class);
+            if (key.size() != 1 || !key.containsKey(field)) {
+                continue;
+            }
+            Number current = index.get("expireAfterSeconds", Number.class);
+            if (current == null) {
+                log.warn(
+                    "Index on {}.{} has no TTL: retention not applied",
+                    collection,
+                    field
+                );
+            } else if (current.longValue() != expireAfterSeconds) {
+                Document indexSpec = new Document("keyPattern", key)
+                    .append("expireAfterSeconds", expireAfterSeconds);
+                mongoTemplate.executeCommand(
+                    new Document("collMod", collection)
+                        .append("index", indexSpec)
+                );
+            }
+            return;
+        }
+        mongoTemplate
+            .indexOps(collection)
+            .ensureIndex(
+                new Index()
+                    .on(field, Sort.Direction.ASC)
+                    .expire(expireAfterSeconds)
+            );
+    }
+}
@@ -18,6 +18,7 @@ package it.interop.dgc.gateway.repository;
 import it.interop.dgc.gateway.entity.ValueSetEntity;
 import java.util.List;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Repository;
@@ -28,6 +29,9 @@ public class ValueSetRepository {
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    @Autowired
+    private SnapshotRepository snapshotRepository;
+
     public ValueSetEntity save(ValueSetEntity valueSetEntity) {
         return mongoTemplate.save(valueSetEntity);
     }
@@ -38,7 +42,28 @@ public class ValueSetRepository {
         }
     }
 
+    public List<ValueSetEntity> getAll() {
+        return mongoTemplate.find(
+            new Query().with(Sort.by("identifier")),
+            ValueSetEntity.class
+        );
+    }
+
     public void deleteAll() {
         mongoTemplate.remove(new Query(), ValueSetEntity.class);
     }
+
+    /**
+     * @return false if the stored valuesets already have this content.
+     */
+    public boolean replaceAll(
+        List<ValueSetEntity> valueSetEntityList,
+        String contentHash
+    ) {
+        return snapshotRepository.replace(
+            ValueSetEntity.class,
+            valueSetEntityList,
+            contentHash
+        );
+    }
 }
@@ -0,0 +1,177 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import it.interop.dgc.gateway.entity.WorkerLockEntity;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public class WorkerLockRepository {
+
+    // Token counters have no expires_at, so the TTL index never removes them
+    private static final String TOKEN_PREFIX = "token:";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @PostConstruct
+    private void ensureIndexes() {
+        mongoTemplate
+            .indexOps(WorkerLockEntity.class)
+            .ensureIndex(
+                new Index()
+                    .on("expires_at", Sort.Direction.ASC)
+                    .expire(0, TimeUnit.SECONDS)
+            );
+    }
+
+    /**
+     * Acquires the lease if it is free, expired or already owned by the
+     * caller. Every acquisition gets a new, strictly increasing lease token;
+     * failed attempts do not consume tokens.
+     *
+     * @return the lease, or null if it is held by another owner.
+     */
+    public WorkerLockEntity acquire(
+        String name,
+        String owner,
+        long leaseMillis
+    ) {
+        Date now = new Date();
+        Query query = new Query(
+            Criteria
+                .where("_id")
+                .is(name)
+                .orOperator(
+                    Criteria.where("expires_at").lt(now),
+                    Criteria.where("owner").is(owner)
+                )
+        );
+        Update update = new Update()
+            .set("owner", owner)
+            .set("acquired_at", now)
+            .set("expires_at", new Date(now.getTime() + leaseMillis));
+        WorkerLockEntity lease;
+        try {
+            lease =
+                mongoTemplate.findAndModify(
+                    query,
+                    update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true),
+                    WorkerLockEntity.class
+                );
+        } catch (DuplicateKeyException e) {
+            // Lease is held by another owner: the upsert collided on _id
+            return null;
+        }
+
+        // The previous holder fails its owner check from here on, so the
+        // token can be assigned after the lease has been taken
+        long token = nextToken(name);
+        Query owned = new Query()
+            .addCriteria(Criteria.where("_id").is(name))
+            .addCriteria(Criteria.where("owner").is(owner));
+        if (
+            mongoTemplate
+                .updateFirst(
+                    owned,
+                    new Update().set("token", token),
+                    WorkerLockEntity.class
+                )
+                .getMatchedCount() ==
+            0
+        ) {
+            return null;
+        }
+        lease.setToken(token);
+        return lease;
+    }
+
+    /**
+     * Extends the lease only if it is still held with the given token.
+     *
+     * @return false if the lease expired or has been taken over.
+     */
+    public boolean renew(
+        String name,
+        String owner,
+        long token,
+        long leaseMillis
+    ) {
+        Date now = new Date();
+        Query query = new Query()
+            .addCriteria(Criteria.where("_id").is(name))
+            .addCriteria(Criteria.where("owner").is(owner))
+            .addCriteria(Criteria.where("token").is(token))
+            .addCriteria(Criteria.where("expires_at").gt(now));
+        Update update = new Update()
+            .set("expires_at", new Date(now.getTime() + leaseMillis));
+        return (
+            mongoTemplate
+                .updateFirst(query, update, WorkerLockEntity.class)
+                .getMatchedCount() >
+            0
+        );
+    }
+
+    /**
+     * Keeps the lease of a completed run until the given date, so replicas
+     * whose tick fires a little later do not run it again.
+     */
+    public void hold(String name, String owner, long token, Date until) {
+        Query query = new Query()
+            .addCriteria(Criteria.where("_id").is(name))
+            .addCriteria(Criteria.where("owner").is(owner))
+            .addCriteria(Criteria.where("token").is(token));
+        mongoTemplate.updateFirst(
+            query,
+            new Update().set("expires_at", until),
+            WorkerLockEntity.class
+        );
+    }
+
+    public void release(String name, String owner, long token) {
+        Query query = new Query()
+            .addCriteria(Criteria.where("_id").is(name))
+            .addCriteria(Criteria.where("owner").is(owner))
+            .addCriteria(Criteria.where("token").is(token));
+        mongoTemplate.remove(query, WorkerLockEntity.class);
+    }
+
+    private long nextToken(String name) {
+        Query query = new Query(
+            Criteria.where("_id").is(TOKEN_PREFIX + name)
+        );
+        WorkerLockEntity counter = mongoTemplate.findAndModify(
+            query,
+            new Update().inc("token", 1L),
+            FindAndModifyOptions.options().upsert(true).returnNew(true),
+            WorkerLockEntity.class
+        );
+        return counter.getToken();
+    }
+}
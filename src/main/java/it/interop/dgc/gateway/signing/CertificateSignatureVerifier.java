@@ -19,11 +19,12 @@
  */
 package it.interop.dgc.gateway.signing;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import it.interop.dgc.gateway.dto.TrustListItemDto;
 import it.interop.dgc.gateway.dto.ValidationRuleDto;
 import it.interop.dgc.gateway.model.ValidationRule;
+import it.interop.dgc.gateway.util.JsonCodec;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.security.KeyStore;
@@ -35,6 +36,7 @@ import java.security.cert.X509Certificate;
 import java.util.Base64;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
@@ -55,6 +57,10 @@ import org.springframework.stereotype.Service;
 @Service
 public class CertificateSignatureVerifier {
 
+    public static final String METRIC_VERIFICATION = "dgc.verification";
+    public static final String TAG_CHECK = "check";
+    public static final String TAG_RESULT = "result";
+
     @Value("${truststore.jks.path}")
     private String jksTrustPath;
 
@@ -69,6 +75,12 @@ public class CertificateSignatureVerifier {
     @Autowired
     private CertificateUtils certificateUtils;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JsonCodec jsonCodec;
+
     public CertificateSignatureVerifier() {
         Security.addProvider(new BouncyCastleProvider());
     }
@@ -101,6 +113,58 @@ public class CertificateSignatureVerifier {
     public boolean trustListItemSignedByCa(
         TrustListItemDto certificate,
         TrustListItemDto certificateCa
+    ) {
+        return record(
+            "signed_by_ca",
+            () -> verifySignedByCa(certificate, certificateCa)
+        );
+    }
+
+    public boolean checkTrustAnchorSignature(TrustListItemDto trustListItem) {
+        return record(
+            "trust_anchor",
+            () -> verifyTrustAnchorSignature(trustListItem)
+        );
+    }
+
+    public boolean checkRuleUploadCertificate(
+        ValidationRuleDto validationRule,
+        List<TrustListItemDto> trustCountryList,
+        String countryCode
+    ) {
+        return record(
+            "rule_upload",
+            () ->
+                verifyRuleUploadCertificate(
+                    validationRule,
+                    trustCountryList,
+                    countryCode
+                )
+        );
+    }
+
+    /**
+     * Times a verification, tagged by check and result: the count of the
+     * timer gives the verification throughput.
+     */
+    private boolean record(String check, BooleanSupplier verification) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        boolean valid = verification.getAsBoolean();
+        sample.stop(
+            meterRegistry.timer(
+                METRIC_VERIFICATION,
+                TAG_CHECK,
+                check,
+                TAG_RESULT,
+                valid ? "valid" : "invalid"
+            )
+        );
+        return valid;
+    }
+
+    private boolean verifySignedByCa(
+        TrustListItemDto certificate,
+        TrustListItemDto certificateCa
     ) {
         ContentVerifierProvider verifier;
 
@@ -145,7 +209,9 @@ public class CertificateSignatureVerifier {
         }
     }
 
-    public boolean checkTrustAnchorSignature(TrustListItemDto trustListItem) {
+    private boolean verifyTrustAnchorSignature(
+        TrustListItemDto trustListItem
+    ) {
         SignedCertificateMessageParser parser = new SignedCertificateMessageParser(
             trustListItem.getSignature(),
             trustListItem.getRawData()
@@ -235,7 +301,7 @@ public class CertificateSignatureVerifier {
         return true;
     }
 
-    public boolean checkRuleUploadCertificate(
+    private boolean verifyRuleUploadCertificate(
         ValidationRuleDto validationRule,
         List<TrustListItemDto> trustCountryList,
         String countryCode
@@ -247,7 +313,7 @@ public class CertificateSignatureVerifier {
         List<X509CertificateHolder> trustedUploadCertificates = trustCountryList
             .stream()
             .filter(this::checkThumbprintIntegrity)
-            .filter(c -> this.checkTrustAnchorSignature(c))
+            .filter(this::verifyTrustAnchorSignature)
             .map(this::getCertificateFromTrustListItem)
             .filter(Objects::nonNull)
             .collect(Collectors.toList());
@@ -278,14 +344,12 @@ public class CertificateSignatureVerifier {
             dto.getCms()
         );
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            ValidationRule parsedRule = objectMapper.readValue(
-                parser.getPayload(),
-                ValidationRule.class
+            ValidationRule parsedRule = jsonCodec.readValidationRule(
+                parser.getPayload()
             );
             parsedRule.setRawJson(parser.getPayload());
             return parsedRule;
-        } catch (JsonProcessingException e) {
+        } catch (IOException e) {
             return null;
         }
     }
@@ -14,6 +14,8 @@
  */
 package it.interop.dgc.gateway.signing;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import it.interop.dgc.gateway.client.base.RestApiException;
 import it.interop.dgc.gateway.util.DscUtil;
 import java.io.File;
@@ -33,6 +35,7 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.ssl.SSLContextBuilder;
 import org.bouncycastle.cms.CMSException;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -47,6 +50,9 @@ import org.springframework.web.client.RestTemplate;
 @Service
 public class SignatureService {
 
+    public static final String METRIC_SIGNING = "dgc.signing.requests";
+    public static final String TAG_OUTCOME = "outcome";
+
     @Value("${signature.external.url}")
     private String externalUrl;
 
@@ -71,6 +77,9 @@ public class SignatureService {
     @Value("${truststore.jks.password}")
     private String jksTrustPassword;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     private RestTemplate restTemplate;
 
     @PostConstruct
@@ -137,6 +146,25 @@ public class SignatureService {
 
     public String getSignatureForBytes(final String data)
         throws CMSException, IOException, CertificateSignatureException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "failure";
+        try {
+            String signature = requestSignature(data);
+            outcome = "success";
+            return signature;
+        } finally {
+            sample.stop(
+                Timer
+                    .builder(METRIC_SIGNING)
+                    .tag(TAG_OUTCOME, outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+            );
+        }
+    }
+
+    private String requestSignature(final String data)
+        throws CertificateSignatureException {
         log.info("START Signature process");
         HttpHeaders headers = new HttpHeaders();
 
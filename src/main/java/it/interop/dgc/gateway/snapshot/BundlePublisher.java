@@ -0,0 +1,244 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.snapshot;
+
+import it.interop.dgc.gateway.entity.BundleEntity;
+import it.interop.dgc.gateway.entity.BusinessRuleEntity;
+import it.interop.dgc.gateway.entity.CountryListEntity;
+import it.interop.dgc.gateway.entity.ValueSetEntity;
+import it.interop.dgc.gateway.repository.BundleRepository;
+import it.interop.dgc.gateway.repository.BusinessRuleRepository;
+import it.interop.dgc.gateway.repository.CountryListRepository;
+import it.interop.dgc.gateway.repository.ValueSetRepository;
+import it.interop.dgc.gateway.util.DscUtil;
+import it.interop.dgc.gateway.util.JsonCodec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.util.encoders.Hex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Serializes the synced data into the bundles collection at the end of a
+ * download run:
+ *
+ * <ul>
+ * <li>dsc/{page}: the active DSCs with a resume token in [page * pageSize,
+ * (page + 1) * pageSize), from page 0 to the page of the last token, empty
+ * pages included. Resume tokens only grow, so a new DSC or a revocation
+ * rewrites only the page holding its token. A client resuming after token
+ * t reads page t / pageSize, skipping the tokens up to t, and the following
+ * ones up to dsc/index "last_page"</li>
+ * <li>dsc/index: page size, last page and last resume token</li>
+ * <li>dsc/status</li>
+ * <li>rules/{country}: the active rules of a country</li>
+ * <li>valuesets and valuesets/{identifier}</li>
+ * <li>countrylist</li>
+ * </ul>
+ *
+ * Only bundles whose content hash changed are compressed and written.
+ */
+@Slf4j
+@Component
+public class BundlePublisher {
+
+    public static final String DSC = "dsc/";
+    public static final String DSC_STATUS = DSC + "status";
+    public static final String DSC_INDEX = DSC + "index";
+    public static final String RULES = "rules/";
+    public static final String VALUESETS = "valuesets";
+    public static final String COUNTRY_LIST = "countrylist";
+
+    @Value("${dgc.bundle.page_size}")
+    private int pageSize;
+
+    @Autowired
+    private BundleRepository bundleRepository;
+
+    @Autowired
+    private TrustListSnapshotHolder trustListSnapshotHolder;
+
+    @Autowired
+    private BusinessRuleRepository businessRuleRepository;
+
+    @Autowired
+    private ValueSetRepository valueSetRepository;
+
+    @Autowired
+    private CountryListRepository countryListRepository;
+
+    @Autowired
+    private JsonCodec jsonCodec;
+
+    /**
+     * @return ids of the bundles written or removed.
+     */
+    public Set<String> publish() throws IOException {
+        Set<String> changed = new LinkedHashSet<>();
+        changed.addAll(publish(DSC, trustListBundles()));
+        changed.addAll(publish(RULES, ruleBundles()));
+        changed.addAll(publish(VALUESETS, valuesetBundles()));
+        changed.addAll(publish(COUNTRY_LIST, countryListBundles()));
+        return changed;
+    }
+
+    private Map<String, byte[]> trustListBundles() throws IOException {
+        TrustListSnapshot snapshot = trustListSnapshotHolder.get();
+        Map<String, byte[]> bundles = new LinkedHashMap<>();
+        bundles.put(DSC_STATUS, snapshot.getStatus());
+
+        long lastPage = snapshot.getLastResumeToken() / pageSize;
+        for (long page = 0; page <= lastPage; page++) {
+            bundles.put(
+                DSC + page,
+                snapshot.range(page * pageSize, (page + 1) * pageSize)
+            );
+        }
+
+        Map<String, Long> index = new LinkedHashMap<>();
+        index.put("page_size", (long) pageSize);
+        index.put("last_page", lastPage);
+        index.put("last_resume_token", snapshot.getLastResumeToken());
+        bundles.put(DSC_INDEX, jsonCodec.writeBytes(index));
+        return bundles;
+    }
+
+    private Map<String, byte[]> ruleBundles() {
+        Map<String, List<String>> rulesByCountry = businessRuleRepository
+            .getActive()
+            .stream()
+            .collect(
+                Collectors.groupingBy(
+                    BusinessRuleEntity::getCountry,
+                    LinkedHashMap::new,
+                    Collectors.mapping(
+                        BusinessRuleEntity::getRawData,
+                        Collectors.toList()
+                    )
+                )
+            );
+        Map<String, byte[]> bundles = new LinkedHashMap<>();
+        rulesByCountry.forEach((country, rules) ->
+            bundles.put(RULES + country, page(rules))
+        );
+        return bundles;
+    }
+
+    private Map<String, byte[]> valuesetBundles() throws IOException {
+        List<ValueSetEntity> valuesets = valueSetRepository.getAll();
+        Map<String, byte[]> bundles = new LinkedHashMap<>();
+        bundles.put(
+            VALUESETS,
+            jsonCodec.writeBytes(
+                valuesets
+                    .stream()
+                    .map(ValueSetEntity::getIdentifier)
+                    .collect(Collectors.toList())
+            )
+        );
+        for (ValueSetEntity valueset : valuesets) {
+            bundles.put(
+                VALUESETS + "/" + valueset.getIdentifier(),
+                valueset.getRawData().getBytes(StandardCharsets.UTF_8)
+            );
+        }
+        return bundles;
+    }
+
+    private Map<String, byte[]> countryListBundles() {
+        CountryListEntity countryList = countryListRepository.getCountries();
+        Map<String, byte[]> bundles = new LinkedHashMap<>();
+        if (countryList != null) {
+            bundles.put(
+                COUNTRY_LIST,
+                countryList.getRawData().getBytes(StandardCharsets.UTF_8)
+            );
+        }
+        return bundles;
+    }
+
+    private Set<String> publish(String prefix, Map<String, byte[]> contents)
+        throws IOException {
+        Map<String, String> stored = bundleRepository.getContentHashes(
+            prefix
+        );
+        Date now = new Date();
+        List<BundleEntity> changed = new ArrayList<>();
+        for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+            String hash = sha256(content.getValue());
+            if (hash.equals(stored.remove(content.getKey()))) {
+                continue;
+            }
+            BundleEntity bundle = new BundleEntity();
+            bundle.setId(content.getKey());
+            bundle.setContentHash(hash);
+            bundle.setContent(content.getValue());
+            bundle.setContentGzip(DscUtil.gzip(content.getValue()));
+            bundle.setCreatedAt(now);
+            changed.add(bundle);
+        }
+        bundleRepository.replace(changed, stored.keySet());
+        log.info(
+            "Bundles {}: {} total, {} written, {} removed",
+            prefix,
+            contents.size(),
+            changed.size(),
+            stored.size()
+        );
+        Set<String> changedIds = new LinkedHashSet<>(stored.keySet());
+        changed.forEach(bundle -> changedIds.add(bundle.getId()));
+        return changedIds;
+    }
+
+    /**
+     * JSON array of already serialized JSON values.
+     */
+    private static byte[] page(List<String> items) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write('[');
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) {
+                body.write(',');
+            }
+            byte[] item = items.get(i).getBytes(StandardCharsets.UTF_8);
+            body.write(item, 0, item.length);
+        }
+        body.write(']');
+        return body.toByteArray();
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return Hex.toHexString(
+                MessageDigest.getInstance("SHA-256").digest(data)
+            );
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
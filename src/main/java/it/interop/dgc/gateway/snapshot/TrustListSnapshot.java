@@ -0,0 +1,208 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.snapshot;
+
+import it.interop.dgc.gateway.dto.SignerCertificateDto;
+import it.interop.dgc.gateway.entity.SignerInformationEntity;
+import it.interop.dgc.gateway.util.DscUtil;
+import it.interop.dgc.gateway.util.JsonCodec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.bouncycastle.util.encoders.Hex;
+
+/**
+ * Immutable view of the active DSCs, ordered by resume token. Every
+ * certificate is serialized once when the snapshot is built, so serving a
+ * page only concatenates bytes. The pages a client walks from token 0
+ * with the default page size are also gzipped up front, so the CDN origin
+ * serves them as stored. The ETag is derived from the content: a rebuild
+ * without changes keeps the same ETag.
+ */
+public final class TrustListSnapshot {
+
+    @Getter
+    private final long generation;
+
+    @Getter
+    private final String etag;
+
+    @Getter
+    private final byte[] status;
+
+    @Getter
+    private final byte[] statusGzip;
+
+    private final int pageSize;
+    private final long[] resumeTokens;
+    private final byte[][] items;
+    private final byte[][] pagesGzip;
+
+    private TrustListSnapshot(
+        long generation,
+        String etag,
+        byte[] status,
+        byte[] statusGzip,
+        int pageSize,
+        long[] resumeTokens,
+        byte[][] items
+    ) throws IOException {
+        this.generation = generation;
+        this.etag = etag;
+        this.status = status;
+        this.statusGzip = statusGzip;
+        this.pageSize = pageSize;
+        this.resumeTokens = resumeTokens;
+        this.items = items;
+        this.pagesGzip =
+            new byte[Math.max(1, (items.length + pageSize - 1) / pageSize)][];
+        for (int i = 0; i < pagesGzip.length; i++) {
+            int from = i * pageSize;
+            int to = Math.min(from + pageSize, items.length);
+            pagesGzip[i] = DscUtil.gzip(concat(from, to));
+        }
+    }
+
+    public static TrustListSnapshot build(
+        long generation,
+        List<SignerInformationEntity> activeDsc,
+        int pageSize,
+        JsonCodec jsonCodec
+    ) throws IOException {
+        long[] resumeTokens = new long[activeDsc.size()];
+        byte[][] items = new byte[activeDsc.size()][];
+        List<String> kids = new ArrayList<>(activeDsc.size());
+        MessageDigest digest = sha256();
+
+        for (int i = 0; i < activeDsc.size(); i++) {
+            SignerInformationEntity entity = activeDsc.get(i);
+            SignerCertificateDto dto = new SignerCertificateDto();
+            dto.setResumeToken(entity.getResumeToken());
+            dto.setKid(entity.getKid());
+            dto.setCountry(entity.getCountry());
+            dto.setRawData(entity.getRawData());
+
+            resumeTokens[i] = entity.getResumeToken();
+            items[i] = jsonCodec.writeBytes(dto);
+            kids.add(entity.getKid());
+            digest.update(items[i]);
+        }
+
+        byte[] status = jsonCodec.writeBytes(kids);
+        return new TrustListSnapshot(
+            generation,
+            Hex.toHexString(digest.digest(), 0, 16),
+            status,
+            DscUtil.gzip(status),
+            pageSize,
+            resumeTokens,
+            items
+        );
+    }
+
+    public int size() {
+        return items.length;
+    }
+
+    /**
+     * @return the greatest resume token, 0 if the snapshot is empty.
+     */
+    public long getLastResumeToken() {
+        return items.length == 0 ? 0 : resumeTokens[items.length - 1];
+    }
+
+    /**
+     * @return at most limit certificates with a resume token greater than
+     * the given one.
+     */
+    public Page page(long resumeToken, int limit) {
+        int from = indexAfter(resumeToken);
+        int to = (int) Math.min((long) from + limit, items.length);
+
+        boolean prebuilt =
+            limit == pageSize &&
+            from % pageSize == 0 &&
+            from / pageSize < pagesGzip.length;
+        return new Page(
+            concat(from, to),
+            prebuilt ? pagesGzip[from / pageSize] : null,
+            etag + "-" + resumeToken + "-" + limit,
+            to > from ? resumeTokens[to - 1] : resumeToken,
+            to < items.length
+        );
+    }
+
+    /**
+     * @return the certificates with a resume token in [from, to).
+     */
+    public byte[] range(long from, long to) {
+        return concat(indexAfter(from - 1), indexAfter(to - 1));
+    }
+
+    /**
+     * @return the index of the first certificate with a resume token
+     * greater than the given one.
+     */
+    private int indexAfter(long resumeToken) {
+        int index = Arrays.binarySearch(resumeTokens, resumeToken);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * JSON array of the certificates in [from, to).
+     */
+    private byte[] concat(int from, int to) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write('[');
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                body.write(',');
+            }
+            body.write(items[i], 0, items[i].length);
+        }
+        body.write(']');
+        return body.toByteArray();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Page {
+
+        private final byte[] body;
+
+        /**
+         * Gzipped body, null when the page was not prebuilt.
+         */
+        private final byte[] bodyGzip;
+
+        private final String etag;
+        private final long lastResumeToken;
+        private final boolean more;
+    }
+}
@@ -0,0 +1,128 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.snapshot;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.interop.dgc.gateway.repository.SequenceRepository;
+import it.interop.dgc.gateway.repository.SignerInformationRepository;
+import it.interop.dgc.gateway.util.JsonCodec;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import javax.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the current TrustListSnapshot. The replica running the download
+ * publishes a new generation after each sync; every replica polls the
+ * generation counter and rebuilds its snapshot when it moved, so reads
+ * never touch Mongo. The sync writes inserts and revocations in one bulk
+ * reconcile, so a rebuild racing with it never sees a half revoked list.
+ */
+@Slf4j
+@Component
+public class TrustListSnapshotHolder {
+
+    public static final String METRIC_SNAPSHOT_SIZE = "dgc.snapshot.size";
+
+    private static final String GENERATION_SEQUENCE =
+        "signer_information.generation";
+
+    @Value("${dgc.snapshot.max_page_size}")
+    private int pageSize;
+
+    @Autowired
+    private SignerInformationRepository signerInformationRepository;
+
+    @Autowired
+    private SequenceRepository sequenceRepository;
+
+    @Autowired
+    private JsonCodec jsonCodec;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private volatile TrustListSnapshot snapshot;
+
+    @PostConstruct
+    private void registerMetrics() {
+        meterRegistry.gauge(
+            METRIC_SNAPSHOT_SIZE,
+            this,
+            holder -> holder.snapshot == null ? 0 : holder.snapshot.size()
+        );
+    }
+
+    /**
+     * @return the current snapshot, built on first use.
+     */
+    public TrustListSnapshot get() {
+        TrustListSnapshot current = snapshot;
+        if (current == null) {
+            current = rebuild(sequenceRepository.current(GENERATION_SEQUENCE));
+        }
+        return current;
+    }
+
+    /**
+     * Starts a new generation after the stored trust list changed.
+     */
+    public void publish() {
+        rebuild(sequenceRepository.reserve(GENERATION_SEQUENCE, 1));
+    }
+
+    @Scheduled(fixedDelayString = "${dgc.snapshot.refresh_millis}")
+    public void refresh() {
+        TrustListSnapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        long generation = sequenceRepository.current(GENERATION_SEQUENCE);
+        if (generation != current.getGeneration()) {
+            rebuild(generation);
+        }
+    }
+
+    private synchronized TrustListSnapshot rebuild(long generation) {
+        TrustListSnapshot current = snapshot;
+        if (current != null && current.getGeneration() == generation) {
+            return current;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            current =
+                TrustListSnapshot.build(
+                    generation,
+                    signerInformationRepository.getActiveDsc(),
+                    pageSize,
+                    jsonCodec
+                );
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        snapshot = current;
+        log.info(
+            "Trust list snapshot generation {} built in {} ms: {} DSC",
+            generation,
+            System.currentTimeMillis() - start,
+            current.size()
+        );
+        return current;
+    }
+}
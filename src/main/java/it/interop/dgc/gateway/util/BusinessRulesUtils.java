@@ -19,9 +19,15 @@
  */
 package it.interop.dgc.gateway.util;
 
+import it.interop.dgc.gateway.dto.TrustListItemDto;
+import it.interop.dgc.gateway.dto.ValidationRuleDto;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import lombok.RequiredArgsConstructor;
 import org.bouncycastle.util.encoders.Hex;
 import org.springframework.stereotype.Service;
@@ -39,4 +45,35 @@ public class BusinessRulesUtils {
             .digest(data.getBytes(StandardCharsets.UTF_8));
         return Hex.toHexString(certHashBytes);
     }
+
+    /**
+     * returns SHA-256 fingerprint of a country rule set: identifier, version
+     * and CMS of every rule plus the upload certificates used to verify them.
+     */
+    public String calculateRuleSetFingerprint(
+        Map<String, List<ValidationRuleDto>> rules,
+        List<TrustListItemDto> uploadCertificates
+    ) throws NoSuchAlgorithmException {
+        List<String> entries = new ArrayList<>();
+        if (rules != null) {
+            rules.forEach((identifier, versions) ->
+                versions.forEach(rule ->
+                    entries.add(
+                        identifier +
+                        "|" +
+                        rule.getVersion() +
+                        "|" +
+                        rule.getCms()
+                    )
+                )
+            );
+        }
+        if (uploadCertificates != null) {
+            uploadCertificates.forEach(cert ->
+                entries.add("UPLOAD|" + cert.getThumbprint())
+            );
+        }
+        Collections.sort(entries);
+        return calculateHash(String.join("\n", entries));
+    }
 }
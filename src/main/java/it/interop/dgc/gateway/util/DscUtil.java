@@ -15,8 +15,16 @@
 package it.interop.dgc.gateway.util;
 
 import it.interop.dgc.gateway.entity.DgcLogEntity.OperationType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.springframework.http.HttpHeaders;
 
 public class DscUtil {
 
@@ -28,7 +36,52 @@ public class DscUtil {
         return operation.name().concat("-").concat(df.format(new Date()));
     }
 
+    /**
+     * Execution reports of successful calls are the 2xx HTTP status.
+     */
+    public static boolean isSuccessReport(String report) {
+        return report != null && report.matches("2\\d\\d( .*)?");
+    }
+
     public static int parseWithDefault(String s, int defaultVal) {
         return s.matches("-?\\d+") ? Integer.parseInt(s) : defaultVal;
     }
+
+    public static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+            data.length / 4 + 64
+        );
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the Retry-After delay, in seconds or as an HTTP date, or null.
+     */
+    public static Long retryAfterMillis(HttpHeaders headers) {
+        String retryAfter = headers == null
+            ? null
+            : headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (retryAfter == null) {
+            return null;
+        }
+        retryAfter = retryAfter.trim();
+        if (retryAfter.matches("\\d+")) {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter));
+        }
+        try {
+            return Math.max(
+                0,
+                ZonedDateTime
+                    .parse(retryAfter, DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toInstant()
+                    .toEpochMilli() -
+                System.currentTimeMillis()
+            );
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
 }
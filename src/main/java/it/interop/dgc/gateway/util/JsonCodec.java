@@ -0,0 +1,98 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.util;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import it.interop.dgc.gateway.dto.TrustListItemDto;
+import it.interop.dgc.gateway.dto.ValidationRuleDto;
+import it.interop.dgc.gateway.model.ValidationRule;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import org.springframework.stereotype.Service;
+
+/**
+ * Single JSON codec of the client. Readers and writers are built once and
+ * are thread safe, so decoding a payload costs no per-call introspection;
+ * byte payloads are decoded as UTF-8 by the parser itself.
+ *
+ * <p>Unknown properties and unknown enum values are tolerated, as the Gson
+ * decoding used before did, so new gateway fields do not break the sync.
+ */
+@Service
+public class JsonCodec {
+
+    private final ObjectReader trustListReader;
+    private final ObjectReader validationRulesReader;
+    private final ObjectReader validationRuleReader;
+    private final ObjectReader stringListReader;
+    private final ObjectWriter writer;
+
+    public JsonCodec() {
+        ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .configure(
+                DeserializationFeature.READ_UNKNOWN_ENUM_VALUES_AS_NULL,
+                true
+            );
+        trustListReader =
+            objectMapper.readerFor(
+                new TypeReference<List<TrustListItemDto>>() {}
+            );
+        validationRulesReader =
+            objectMapper.readerFor(
+                new TypeReference<Map<String, List<ValidationRuleDto>>>() {}
+            );
+        validationRuleReader = objectMapper.readerFor(ValidationRule.class);
+        stringListReader =
+            objectMapper.readerFor(new TypeReference<List<String>>() {});
+        writer = objectMapper.writer();
+    }
+
+    public List<TrustListItemDto> readTrustList(byte[] json)
+        throws IOException {
+        return trustListReader.readValue(json);
+    }
+
+    public Map<String, List<ValidationRuleDto>> readValidationRules(
+        byte[] json
+    ) throws IOException {
+        return validationRulesReader.readValue(json);
+    }
+
+    public ValidationRule readValidationRule(String json) throws IOException {
+        return validationRuleReader.readValue(json);
+    }
+
+    public List<String> readStringList(byte[] json) throws IOException {
+        return stringListReader.readValue(json);
+    }
+
+    public List<String> readStringList(String json) throws IOException {
+        return stringListReader.readValue(json);
+    }
+
+    public String write(Object value) throws IOException {
+        return writer.writeValueAsString(value);
+    }
+
+    public byte[] writeBytes(Object value) throws IOException {
+        return writer.writeValueAsBytes(value);
+    }
+}
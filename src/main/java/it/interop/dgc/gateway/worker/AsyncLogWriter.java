@@ -0,0 +1,216 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.worker;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import it.interop.dgc.gateway.entity.DgcLogEntity;
+import it.interop.dgc.gateway.entity.DgcRuleLogEntity;
+import it.interop.dgc.gateway.repository.DgcLogRepository;
+import it.interop.dgc.gateway.repository.DgcRuleLogRepository;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes the per-item run logs off the worker thread: logs are queued in a
+ * bounded queue and inserted in batches when the batch is full, when the
+ * flush interval elapses, at the end of each worker run and on shutdown.
+ * A failed write is retried once. Logs that do not fit in the queue, or
+ * whose write failed twice, are dropped and counted.
+ */
+@Slf4j
+@Component
+public class AsyncLogWriter {
+
+    public static final String METRIC_DROPPED = "dgc.log.dropped";
+    public static final String METRIC_QUEUE_SIZE = "dgc.log.queue.size";
+
+    private static final long RETRY_DELAY_MILLIS = 200;
+
+    @Value("${dgc.log.async.queue_capacity}")
+    private int queueCapacity;
+
+    @Value("${dgc.log.async.batch_size}")
+    private int batchSize;
+
+    @Value("${dgc.log.async.flush_millis}")
+    private long flushMillis;
+
+    @Autowired(required = true)
+    private DgcLogRepository dgcLogRepository;
+
+    @Autowired(required = true)
+    private DgcRuleLogRepository dgcRuleLogRepository;
+
+    @Autowired(required = true)
+    private MeterRegistry meterRegistry;
+
+    private BlockingQueue<Object> queue;
+
+    // Queued logs plus logs taken by the flusher and not yet written
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private Counter dropped;
+
+    private Thread flusher;
+
+    private volatile boolean running;
+
+    @PostConstruct
+    private void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        dropped = meterRegistry.counter(METRIC_DROPPED);
+        meterRegistry.gaugeCollectionSize(METRIC_QUEUE_SIZE, Tags.empty(), queue);
+        running = true;
+        flusher = new Thread(this::flushLoop, "dgc-log-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Drains the queue, then lets the flusher leave its loop at the next
+     * poll timeout: it is not interrupted, so a batch being written is never
+     * cut short.
+     */
+    @PreDestroy
+    private void stop() {
+        flush();
+        running = false;
+        try {
+            flusher.join(flushMillis + TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Logs queued while the flusher was stopping
+        flush();
+    }
+
+    public void write(DgcLogEntity dgcLogEntity) {
+        enqueue(dgcLogEntity);
+    }
+
+    public void write(DgcRuleLogEntity dgcRuleLogEntity) {
+        enqueue(dgcRuleLogEntity);
+    }
+
+    /**
+     * Writes every queued log before returning.
+     */
+    public void flush() {
+        while (pending.get() > 0) {
+            if (!writeBatch(queue.poll())) {
+                // A batch is being taken by the flusher thread
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void enqueue(Object logEntity) {
+        pending.incrementAndGet();
+        if (!queue.offer(logEntity)) {
+            pending.decrementAndGet();
+            dropped.increment();
+            log.warn("Log queue full: run log dropped");
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                writeBatch(queue.poll(flushMillis, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Serialized, so a flush returns only after batches in flight are written
+    private synchronized boolean writeBatch(Object first) {
+        if (first == null) {
+            return false;
+        }
+        List<Object> batch = new ArrayList<>(batchSize);
+        batch.add(first);
+        queue.drainTo(batch, batchSize - 1);
+
+        List<DgcLogEntity> dgcLogList = new ArrayList<>();
+        List<DgcRuleLogEntity> dgcRuleLogList = new ArrayList<>();
+        for (Object logEntity : batch) {
+            if (logEntity instanceof DgcLogEntity) {
+                dgcLogList.add((DgcLogEntity) logEntity);
+            } else {
+                dgcRuleLogList.add((DgcRuleLogEntity) logEntity);
+            }
+        }
+        try {
+            if (!dgcLogList.isEmpty()) {
+                save(
+                    () -> dgcLogRepository.saveAll(dgcLogList),
+                    dgcLogList.size()
+                );
+            }
+            if (!dgcRuleLogList.isEmpty()) {
+                save(
+                    () -> dgcRuleLogRepository.saveAll(dgcRuleLogList),
+                    dgcRuleLogList.size()
+                );
+            }
+        } finally {
+            pending.addAndGet(-batch.size());
+        }
+        return true;
+    }
+
+    /**
+     * Retries a failed write once, e.g. across a primary election, before
+     * dropping the logs.
+     */
+    private void save(Runnable saveAll, int size) {
+        try {
+            saveAll.run();
+            return;
+        } catch (Exception e) {
+            log.warn("Writing {} run logs failed, retrying", size, e);
+        }
+        try {
+            Thread.sleep(RETRY_DELAY_MILLIS);
+            saveAll.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dropped.increment(size);
+            log.error("ERROR Writing {} run logs: interrupted", size);
+        } catch (Exception e) {
+            dropped.increment(size);
+            log.error("ERROR Writing {} run logs", size, e);
+        }
+    }
+}
@@ -14,16 +14,17 @@
  */
 package it.interop.dgc.gateway.worker;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-import it.interop.dgc.gateway.akamai.AkamaiFastPurge;
+import io.micrometer.core.instrument.Timer;
+import it.interop.dgc.gateway.akamai.AkamaiPurgeCoalescer;
+import it.interop.dgc.gateway.akamai.AkamaiPurgeCoalescer.PurgeTarget;
 import it.interop.dgc.gateway.client.RestApiClient;
+import it.interop.dgc.gateway.client.base.GatewayResilience;
 import it.interop.dgc.gateway.client.base.RestApiException;
 import it.interop.dgc.gateway.client.base.RestApiResponse;
 import it.interop.dgc.gateway.dto.TrustListItemDto;
 import it.interop.dgc.gateway.dto.ValidationRuleDto;
 import it.interop.dgc.gateway.entity.BusinessRuleEntity;
+import it.interop.dgc.gateway.entity.BusinessRuleFingerprintEntity;
 import it.interop.dgc.gateway.entity.BusinessRuleInvalidEntity;
 import it.interop.dgc.gateway.entity.BusinessRuleUploadEntity;
 import it.interop.dgc.gateway.entity.CountryListEntity;
@@ -41,6 +42,7 @@ import it.interop.dgc.gateway.entity.ValueSetEntity;
 import it.interop.dgc.gateway.enums.CertificateType;
 import it.interop.dgc.gateway.mapper.DgcMapper;
 import it.interop.dgc.gateway.model.ValidationRule;
+import it.interop.dgc.gateway.repository.BusinessRuleFingerprintRepository;
 import it.interop.dgc.gateway.repository.BusinessRuleInvalidRepository;
 import it.interop.dgc.gateway.repository.BusinessRuleRepository;
 import it.interop.dgc.gateway.repository.BusinessRuleUploadRepository;
@@ -53,33 +55,56 @@ import it.interop.dgc.gateway.repository.SignerUploadInformationRepository;
 import it.interop.dgc.gateway.repository.ValueSetRepository;
 import it.interop.dgc.gateway.signing.CertificateSignatureVerifier;
 import it.interop.dgc.gateway.signing.SignatureService;
+import it.interop.dgc.gateway.snapshot.BundlePublisher;
+import it.interop.dgc.gateway.snapshot.TrustListSnapshotHolder;
 import it.interop.dgc.gateway.util.BusinessRulesUtils;
 import it.interop.dgc.gateway.util.DscUtil;
-import java.lang.reflect.Type;
+import it.interop.dgc.gateway.util.JsonCodec;
+import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.support.CronTrigger;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.client.RestClientException;
 
 @Slf4j
 @Service
 public class DgcWorker {
 
+    public static final String DOWNLOAD_LEASE = "download";
+
     @Getter
     @Value("${dgc.origin_country}")
     private String originCountry;
 
+    @Value("${dgc.worker.upload.claim_seconds}")
+    private long uploadClaimSeconds;
+
+    @Value("${dgc.worker.upload.deadline_seconds}")
+    private long uploadDeadlineSeconds;
+
+    @Value("${dgc.worker.download.deadline_seconds}")
+    private long downloadDeadlineSeconds;
+
+    @Value("${dgc.worker.download.schedul}")
+    private String downloadCron;
+
     @Autowired(required = true)
     private RestApiClient client;
 
@@ -104,6 +129,9 @@ public class DgcWorker {
     @Autowired(required = true)
     private BusinessRuleInvalidRepository businessRuleInvalidRepository;
 
+    @Autowired(required = true)
+    private BusinessRuleFingerprintRepository businessRuleFingerprintRepository;
+
     @Autowired(required = true)
     private BusinessRuleUploadRepository businessRuleUploadRepository;
 
@@ -120,77 +148,280 @@ public class DgcWorker {
     private CertificateSignatureVerifier signatureVerifier;
 
     @Autowired(required = true)
-    private AkamaiFastPurge akamaiFastPurge;
+    private AkamaiPurgeCoalescer akamaiPurgeCoalescer;
 
     @Autowired(required = true)
     private BusinessRulesUtils businessRulesUtils;
 
-    @Scheduled(cron = "${dgc.worker.upload.schedul}")
+    @Autowired(required = true)
+    private WorkerRunGuard workerRunGuard;
+
+    @Autowired(required = true)
+    private WorkerLock workerLock;
+
+    @Autowired(required = true)
+    private AsyncLogWriter asyncLogWriter;
+
+    @Autowired(required = true)
+    private WorkerMetrics workerMetrics;
+
+    @Autowired(required = true)
+    private JsonCodec jsonCodec;
+
+    @Autowired(required = true)
+    private TrustListSnapshotHolder trustListSnapshotHolder;
+
+    @Autowired(required = true)
+    private BundlePublisher bundlePublisher;
+
+    @Autowired(required = true)
+    private GatewayResilience gatewayResilience;
+
+    /**
+     * Targets whose data changed in the current download run.
+     */
+    private final Set<PurgeTarget> changedTargets = EnumSet.noneOf(
+        PurgeTarget.class
+    );
+
     public void uploadWorker() {
+        workerRunGuard.run(
+            WorkerSchedulerConfig.UPLOAD_LANE,
+            () ->
+                gatewayResilience.runWithDeadline(
+                    uploadDeadlineSeconds,
+                    () -> runAndFlushLogs(this::processUpload)
+                )
+        );
+    }
+
+    public void downloadWorker() {
+        workerRunGuard.run(
+            WorkerSchedulerConfig.DOWNLOAD_LANE,
+            () ->
+                gatewayResilience.runWithDeadline(
+                    downloadDeadlineSeconds,
+                    () -> runAndFlushLogs(this::processDownload)
+                )
+        );
+    }
+
+    /**
+     * The run logs are written even if the run failed.
+     */
+    private void runAndFlushLogs(Runnable run) {
+        try {
+            run.run();
+        } finally {
+            asyncLogWriter.flush();
+        }
+    }
+
+    private void processUpload() {
         log.info("@@@  UPLOAD -> START Processing upload. @@@");
+        String owner = workerLock.getOwner();
+        long claimMillis = uploadClaimSeconds * 1000;
 
         log.info("@  UPLOAD CERT -> START Processing upload. @");
-        List<SignerUploadInformationEntity> toSendSignerInformationList = signerUploadInformationRepository.getSignerInformationToSend();
-        if (toSendSignerInformationList != null) {
-            for (SignerUploadInformationEntity signerInformation : toSendSignerInformationList) {
+        Timer.Sample phase = workerMetrics.startPhase();
+        // Sent documents leave the query through their batch tag: only the
+        // failed ones must be excluded, not to be retried in the same run
+        Set<String> failedIds = new HashSet<>();
+        SignerUploadInformationEntity signerInformation;
+        while (
+            (
+                signerInformation =
+                    signerUploadInformationRepository.claimToSend(
+                        owner,
+                        claimMillis,
+                        failedIds
+                    )
+            ) !=
+            null
+        ) {
+            try {
                 send(signerInformation);
+            } finally {
+                if (signerInformation.getUploadBatchTag() == null) {
+                    failedIds.add(signerInformation.getId());
+                }
+                signerUploadInformationRepository.releaseClaim(
+                    signerInformation.getId(),
+                    owner
+                );
             }
         }
+        workerMetrics.stopPhase(phase, "upload.certificates");
         log.info("@  UPLOAD CERT -> END Processing upload. @");
 
         log.info("@  REVOKE CERT -> START Processing revoke. @");
-        List<SignerUploadInformationEntity> toRevokeSignerInformationList = signerUploadInformationRepository.getSignerInformationToRevoke();
-        if (toRevokeSignerInformationList != null) {
-            for (SignerUploadInformationEntity signerInformation : toRevokeSignerInformationList) {
+        phase = workerMetrics.startPhase();
+        failedIds.clear();
+        while (
+            (
+                signerInformation =
+                    signerUploadInformationRepository.claimToRevoke(
+                        owner,
+                        claimMillis,
+                        failedIds
+                    )
+            ) !=
+            null
+        ) {
+            try {
                 revoke(signerInformation);
+            } finally {
+                if (signerInformation.getRevokedBatchTag() == null) {
+                    failedIds.add(signerInformation.getId());
+                }
+                signerUploadInformationRepository.releaseClaim(
+                    signerInformation.getId(),
+                    owner
+                );
             }
         }
+        workerMetrics.stopPhase(phase, "revoke.certificates");
         log.info("@  REVOKE CERT -> END Processing revoke. @");
 
         log.info("@  UPLOAD RULE -> START Processing upload. @");
-        List<BusinessRuleUploadEntity> toSendBusinessRuleList = businessRuleUploadRepository.getSignerInformationToSend();
-        if (toSendBusinessRuleList != null) {
-            for (BusinessRuleUploadEntity businessRuleUploadEntity : toSendBusinessRuleList) {
+        phase = workerMetrics.startPhase();
+        failedIds.clear();
+        BusinessRuleUploadEntity businessRuleUploadEntity;
+        while (
+            (
+                businessRuleUploadEntity =
+                    businessRuleUploadRepository.claimToSend(
+                        owner,
+                        claimMillis,
+                        failedIds
+                    )
+            ) !=
+            null
+        ) {
+            try {
                 sendBusinessRule(businessRuleUploadEntity);
+            } finally {
+                if (businessRuleUploadEntity.getUploadBatchTag() == null) {
+                    failedIds.add(businessRuleUploadEntity.getId());
+                }
+                businessRuleUploadRepository.releaseClaim(
+                    businessRuleUploadEntity.getId(),
+                    owner
+                );
             }
         }
+        workerMetrics.stopPhase(phase, "upload.rules");
         log.info("@  UPLOAD RULE -> END Processing upload. @");
 
         log.info("@  REVOKE RULE -> START Processing revoke. @");
-        List<BusinessRuleUploadEntity> toRevokeBusinessRuleList = businessRuleUploadRepository.getSignerInformationToRevoke();
-        if (toRevokeBusinessRuleList != null) {
-            for (BusinessRuleUploadEntity businessRuleUploadEntity : toRevokeBusinessRuleList) {
+        phase = workerMetrics.startPhase();
+        failedIds.clear();
+        while (
+            (
+                businessRuleUploadEntity =
+                    businessRuleUploadRepository.claimToRevoke(
+                        owner,
+                        claimMillis,
+                        failedIds
+                    )
+            ) !=
+            null
+        ) {
+            try {
                 revokeBusinessRule(businessRuleUploadEntity);
+            } finally {
+                if (businessRuleUploadEntity.getRevokedBatchTag() == null) {
+                    failedIds.add(businessRuleUploadEntity.getId());
+                }
+                businessRuleUploadRepository.releaseClaim(
+                    businessRuleUploadEntity.getId(),
+                    owner
+                );
             }
         }
+        workerMetrics.stopPhase(phase, "revoke.rules");
         log.info("@  REVOKE RULE -> END Processing revoke. @");
 
+        workerMetrics.setPendingUploads(
+            signerUploadInformationRepository.countToSend(),
+            signerUploadInformationRepository.countToRevoke(),
+            businessRuleUploadRepository.countToSend(),
+            businessRuleUploadRepository.countToRevoke()
+        );
         log.info("@@@  UPLOAD -> END Processing upload. @@@");
     }
 
-    @Scheduled(cron = "${dgc.worker.download.schedul}")
-    public void downloadWorker() {
+    /**
+     * The whole download run holds a single lease, so all its phases and the
+     * publishing of the bundles happen on the same replica. The lease is kept
+     * until the next tick: a replica whose tick fires later skips the run.
+     */
+    private void processDownload() {
+        workerLock.runLocked(
+            DOWNLOAD_LEASE,
+            WorkerCronTrigger.nextTick(
+                new CronTrigger(downloadCron),
+                new Date()
+            ),
+            this::syncAndPublish
+        );
+    }
+
+    private void syncAndPublish() {
         log.info("###  DOWNLOAD -> START Processing download. ###");
+        AtomicBoolean synced = new AtomicBoolean(true);
+        changedTargets.clear();
 
         log.info("#  DOWNLOAD CERT -> START Processing download. #");
-        download();
+        runDownloadPhase("download.certificates", this::download, synced);
         log.info("#  DOWNLOAD CERT -> END Processing download. #");
 
         log.info("#  DOWNLOAD COUNTIES -> START Processing download. #");
-        downloadCountry();
+        runDownloadPhase("download.countries", this::downloadCountry, synced);
         log.info("#  DOWNLOAD COUNTIES -> END Processing download. #");
 
         log.info("#  DOWNLOAD VALUES -> START Processing download. #");
-        downloadValues();
+        runDownloadPhase("download.values", this::downloadValues, synced);
         log.info("#  DOWNLOAD VALUES -> END Processing download. #");
 
         log.info("#  DOWNLOAD RULES -> START Processing download. #");
-        downloadRules();
+        runDownloadPhase("download.rules", this::downloadRules, synced);
         log.info("#  DOWNLOAD RULES -> END Processing download. #");
 
+        // A partially applied sync must not be frozen into the bundles
+        if (synced.get()) {
+            workerMetrics.phase("publish.bundles", this::publishBundles);
+        } else {
+            log.warn("Bundles not published: download run not completed");
+        }
+        // Dopo la pubblicazione, cosi' la CDN non rilegge i bundle vecchi
+        log.info(
+            "Akamai purge of {} -> {}",
+            changedTargets,
+            akamaiPurgeCoalescer.requestPurge(changedTargets)
+        );
+
         log.info("###  DOWNLOAD -> END Processing download. ###");
     }
 
+    /**
+     * Runs a download phase, clearing synced if the phase failed.
+     */
+    private void runDownloadPhase(
+        String name,
+        BooleanSupplier phase,
+        AtomicBoolean synced
+    ) {
+        workerMetrics.phase(
+            name,
+            () -> {
+                if (!phase.getAsBoolean()) {
+                    synced.set(false);
+                }
+            }
+        );
+    }
+
     @Transactional
     private String send(SignerUploadInformationEntity signerInformationEntity) {
         String report = null;
@@ -214,10 +445,11 @@ public class DgcWorker {
                     resp.getStatusCode() ==
                     RestApiClient.UPLOAD_STATUS_CREATED_201
                 ) {
-                    signerInformationEntity.setUploadBatchTag(batchTag);
-                    signerUploadInformationRepository.save(
-                        signerInformationEntity
+                    signerUploadInformationRepository.markUploaded(
+                        signerInformationEntity.getId(),
+                        batchTag
                     );
+                    signerInformationEntity.setUploadBatchTag(batchTag);
                 }
             }
         } catch (Exception e) {
@@ -230,7 +462,7 @@ public class DgcWorker {
         }
         log.info("Upload INFO after sending -> batchTag: {} ", batchTag);
 
-        dgcLogRepository.save(
+        asyncLogWriter.write(
             DgcLogEntity.buildUploadDgcLog(
                 originCountry,
                 batchTag,
@@ -267,11 +499,12 @@ public class DgcWorker {
                     resp.getStatusCode() ==
                     RestApiClient.UPLOAD_STATUS_NO_CONTENT_204
                 ) {
+                    signerUploadInformationRepository.markRevoked(
+                        signerInformationEntity.getId(),
+                        batchTag
+                    );
                     signerInformationEntity.setRevokedDate(new Date());
                     signerInformationEntity.setRevokedBatchTag(batchTag);
-                    signerUploadInformationRepository.save(
-                        signerInformationEntity
-                    );
                 }
             }
         } catch (Exception e) {
@@ -284,7 +517,7 @@ public class DgcWorker {
         }
         log.info("Upload INFO after sending -> batchTag: {} ", batchTag);
 
-        dgcLogRepository.save(
+        asyncLogWriter.write(
             DgcLogEntity.buildRevokeDgcLog(
                 originCountry,
                 batchTag,
@@ -296,8 +529,42 @@ public class DgcWorker {
         return report;
     }
 
+    /**
+     * Once published, the targets to purge are the ones serving the bundles
+     * that changed. If publishing fails they stay the ones whose data
+     * changed, as the endpoints serving the data directly have changed.
+     */
+    private void publishBundles() {
+        try {
+            Set<String> changedBundles = bundlePublisher.publish();
+            changedTargets.clear();
+            changedBundles.forEach(bundleId ->
+                changedTargets.add(AkamaiPurgeCoalescer.targetOf(bundleId))
+            );
+        } catch (Exception e) {
+            log.error("ERROR Publishing downstream bundles.", e);
+        }
+    }
+
+    /**
+     * @return report for the run log.
+     */
+    private String markChanged(PurgeTarget target, boolean changed) {
+        if (!changed) {
+            return AkamaiPurgeCoalescer.REPORT_UNCHANGED;
+        }
+        changedTargets.add(target);
+        return akamaiPurgeCoalescer.isEnabled()
+            ? AkamaiPurgeCoalescer.REPORT_PENDING
+            : null;
+    }
+
+    /**
+     * @return true if the trust list has been synced without errors.
+     */
     @Transactional
-    private void download() {
+    private boolean download() {
+        boolean synced = false;
         String report = null;
         String akamaiReport = null;
 
@@ -324,6 +591,7 @@ public class DgcWorker {
                             cer.getCertificateType() == CertificateType.DSC
                         )
                         .collect(Collectors.toList());
+                    workerMetrics.setTrustListSize(trustList.size());
 
                     List<TrustListItemDto> trustListCsca = trustList
                         .stream()
@@ -380,37 +648,42 @@ public class DgcWorker {
                             });
                         }
 
-                        Integer numTotDocIntoDB = signerInformationRepository.setAllTrustedPartyRevoked(
-                            batchTag
-                        );
+                        //Certificati attivi: quelli non più presenti nella trust list vengono revocati
+                        Map<String, String> activeIds = new HashMap<>();
+                        List<String> toRevokeIds = new ArrayList<>();
+                        for (SignerInformationEntity active : signerInformationRepository.getActiveSynced()) {
+                            if (
+                                activeIds.putIfAbsent(
+                                    active.getThumbprint(),
+                                    active.getId()
+                                ) !=
+                                null
+                            ) {
+                                toRevokeIds.add(active.getId());
+                            }
+                        }
                         dgcLogAmount.setNumCsca(trustListCsca.size());
                         dgcLogAmount.setNumDsc(trustListDsc.size());
 
-                        Long resumeToken = signerInformationRepository.maxResumeToken();
+                        List<SignerInformationEntity> newSignerInformationList = new ArrayList<>();
+                        List<SignerInformationEntity> newDscList = new ArrayList<>();
+                        List<SignerInvalidInformationEntity> signerInvalidInformationList = new ArrayList<>();
 
                         for (TrustListItemDto trustListItemDto : trustList) {
                             DgcLogInfo dgcLogInfo = new DgcLogInfo(
                                 trustListItemDto
                             );
-                            SignerInformationEntity trustedPartyEntity = signerInformationRepository.getByThumbprint(
-                                trustListItemDto.getThumbprint(),
-                                batchTag
-                            );
-                            dgcLogInfo.setAlreadyExists(
-                                trustedPartyEntity != null
-                            );
-                            if (trustedPartyEntity != null) {
-                                //I certificati già presenti nel DB vengono riabilitati
-                                trustedPartyEntity.setRevoked(false);
-                                trustedPartyEntity.setRevokedDate(null);
-                                trustedPartyEntity.setRevokedBatchTag(null);
-                                signerInformationRepository.save(
-                                    trustedPartyEntity
-                                );
-                            } else {
+                            //I certificati già presenti nel DB restano attivi
+                            boolean alreadyExists =
+                                activeIds.remove(
+                                    trustListItemDto.getThumbprint()
+                                ) !=
+                                null;
+                            dgcLogInfo.setAlreadyExists(alreadyExists);
+                            if (!alreadyExists) {
                                 //I certificati non presenti nel DB vengono inseriti e flaggati da pubblicare
                                 if (trustListItemDto.isVerifiedSign()) {
-                                    trustedPartyEntity =
+                                    SignerInformationEntity trustedPartyEntity =
                                         DgcMapper.trustListDtoToEntity(
                                             trustListItemDto
                                         );
@@ -425,12 +698,10 @@ public class DgcWorker {
                                         trustedPartyEntity.setResumeToken(null);
                                         dgcLogAmount.incNumNewCsca();
                                     } else {
-                                        trustedPartyEntity.setResumeToken(
-                                            ++resumeToken
-                                        );
+                                        newDscList.add(trustedPartyEntity);
                                         dgcLogAmount.incNumNewDsc();
                                     }
-                                    signerInformationRepository.save(
+                                    newSignerInformationList.add(
                                         trustedPartyEntity
                                     );
                                 } else {
@@ -448,45 +719,57 @@ public class DgcWorker {
                                     } else {
                                         dgcLogAmount.incNumInvalidDsc();
                                     }
-                                    signerInvalidInformationRepository.save(
+                                    signerInvalidInformationList.add(
                                         signerInvalidInformationEntity
                                     );
                                 }
                             }
                             dgcLogInfoList.add(dgcLogInfo);
                         }
-                        Integer numRevoked =
-                            numTotDocIntoDB -
-                            (
-                                dgcLogAmount.getNumCsca() -
-                                dgcLogAmount.getNumNewCsca()
-                            ) -
-                            (
-                                dgcLogAmount.getNumDsc() -
-                                dgcLogAmount.getNumNewDsc()
+                        //Resume token riservati in blocco, in ordine di trust list
+                        if (!newDscList.isEmpty()) {
+                            long resumeToken = signerInformationRepository.reserveResumeTokens(
+                                newDscList.size()
                             );
-                        dgcLogAmount.setNumRevoked(
-                            (numRevoked > 0 ? numRevoked : 0)
+                            for (SignerInformationEntity dsc : newDscList) {
+                                dsc.setResumeToken(resumeToken++);
+                            }
+                        }
+                        toRevokeIds.addAll(activeIds.values());
+                        workerLock.checkHeld();
+                        //Inserimenti e revoche in un'unica scrittura
+                        signerInformationRepository.reconcile(
+                            newSignerInformationList,
+                            toRevokeIds,
+                            batchTag
+                        );
+                        signerInvalidInformationRepository.upsertAll(
+                            signerInvalidInformationList
                         );
+                        dgcLogAmount.setNumRevoked(toRevokeIds.size());
+
+                        try {
+                            trustListSnapshotHolder.publish();
+                        } catch (Exception e) {
+                            log.error(
+                                "ERROR Publishing trust list snapshot. -> batchTag: {} ",
+                                batchTag,
+                                e
+                            );
+                        }
                     }
                 }
 
-                try {
-                    if (
-                        akamaiFastPurge.getUrl() != null &&
-                        !"".equals(akamaiFastPurge.getUrl())
-                    ) {
-                        akamaiReport = akamaiFastPurge.invalidateUrls();
-                    }
-                } catch (Exception e) {
-                    akamaiReport = "ERROR INVALIDATING AKAMAI CACHE";
-                    log.error(
-                        "ERROR Invalidating akamai cache. -> batchTag: {} ",
-                        batchTag,
-                        e
+                akamaiReport =
+                    markChanged(
+                        PurgeTarget.CERTIFICATES,
+                        dgcLogAmount.getNumNewCsca() +
+                        dgcLogAmount.getNumNewDsc() +
+                        dgcLogAmount.getNumRevoked() >
+                        0
                     );
-                }
             }
+            synced = true;
         } catch (Exception e) {
             report = e.getMessage();
             log.error(
@@ -507,6 +790,7 @@ public class DgcWorker {
                 dgcLogAmount
             )
         );
+        return synced;
     }
 
     //BUSINESS RULE
@@ -539,10 +823,8 @@ public class DgcWorker {
                     resp.getStatusCode() ==
                     RestApiClient.UPLOAD_STATUS_CREATED_201
                 ) {
-                    ObjectMapper objectMapper = new ObjectMapper();
-                    ValidationRule parsedRule = objectMapper.readValue(
-                        businessRuleUploadEntity.getRawData(),
-                        ValidationRule.class
+                    ValidationRule parsedRule = jsonCodec.readValidationRule(
+                        businessRuleUploadEntity.getRawData()
                     );
                     businessRuleUploadEntity.setIdentifier(
                         parsedRule.getIdentifier()
@@ -550,8 +832,13 @@ public class DgcWorker {
                     businessRuleUploadEntity.setVersion(
                         parsedRule.getVersion()
                     );
+                    businessRuleUploadRepository.markUploaded(
+                        businessRuleUploadEntity.getId(),
+                        batchTag,
+                        parsedRule.getIdentifier(),
+                        parsedRule.getVersion()
+                    );
                     businessRuleUploadEntity.setUploadBatchTag(batchTag);
-                    businessRuleUploadRepository.save(businessRuleUploadEntity);
                 }
             }
         } catch (Exception e) {
@@ -564,7 +851,7 @@ public class DgcWorker {
         }
         log.info("Upload INFO after sending -> batchTag: {} ", batchTag);
 
-        dgcRuleLogRepository.save(
+        asyncLogWriter.write(
             DgcRuleLogEntity.buildUploadRuleLog(batchTag, report)
         );
 
@@ -580,10 +867,8 @@ public class DgcWorker {
 
         try {
             if (businessRuleUploadEntity != null) {
-                ObjectMapper objectMapper = new ObjectMapper();
-                ValidationRule parsedRule = objectMapper.readValue(
-                    businessRuleUploadEntity.getRawData(),
-                    ValidationRule.class
+                ValidationRule parsedRule = jsonCodec.readValidationRule(
+                    businessRuleUploadEntity.getRawData()
                 );
 
                 String base64RawData = Base64
@@ -603,9 +888,12 @@ public class DgcWorker {
                     resp.getStatusCode() ==
                     RestApiClient.UPLOAD_STATUS_NO_CONTENT_204
                 ) {
+                    businessRuleUploadRepository.markRevoked(
+                        businessRuleUploadEntity.getId(),
+                        batchTag
+                    );
                     businessRuleUploadEntity.setRevokedDate(new Date());
                     businessRuleUploadEntity.setRevokedBatchTag(batchTag);
-                    businessRuleUploadRepository.save(businessRuleUploadEntity);
                 }
             }
         } catch (Exception e) {
@@ -618,14 +906,15 @@ public class DgcWorker {
         }
         log.info("Upload INFO after sending -> batchTag: {} ", batchTag);
 
-        dgcRuleLogRepository.save(
+        asyncLogWriter.write(
             DgcRuleLogEntity.buildRevokeRuleLog(batchTag, report)
         );
 
         return report;
     }
 
-    public void downloadCountry() {
+    public boolean downloadCountry() {
+        boolean synced = false;
         String report = null;
         String batchTag = DscUtil.batchTagGenerator(OperationType.DOWNLOAD);
 
@@ -647,9 +936,17 @@ public class DgcWorker {
                 countryListEntity.setDownloadBatchTag(batchTag);
                 countryListEntity.setCreatedAt(new Date());
 
-                countryListRepository.deleteAll();
-                countryListRepository.save(countryListEntity);
+                workerLock.checkHeld();
+                if (countryListRepository.replace(countryListEntity)) {
+                    markChanged(PurgeTarget.RULES, true);
+                } else {
+                    log.info(
+                        "Country list unchanged -> batchTag: {} ",
+                        batchTag
+                    );
+                }
             }
+            synced = true;
         } catch (NoSuchAlgorithmException e) {
             report = e.getMessage();
             log.error(
@@ -670,9 +967,11 @@ public class DgcWorker {
         dgcRuleLogRepository.save(
             DgcRuleLogEntity.buildDownloadCountyLog(batchTag, report)
         );
+        return synced;
     }
 
-    public void downloadValues() {
+    public boolean downloadValues() {
+        boolean synced = false;
         String report = null;
         String batchTag = DscUtil.batchTagGenerator(OperationType.DOWNLOAD);
 
@@ -719,11 +1018,30 @@ public class DgcWorker {
             }
 
             if (valueSetEntityList.size() > 0) {
-                valueSetRepository.deleteAll();
-                valueSetRepository.saveAll(valueSetEntityList);
+                String contentHash = businessRulesUtils.calculateHash(
+                    valueSetEntityList
+                        .stream()
+                        .map(valueSet ->
+                            valueSet.getIdentifier() + "|" + valueSet.getHash()
+                        )
+                        .sorted()
+                        .collect(Collectors.joining("\n"))
+                );
+                workerLock.checkHeld();
+                if (
+                    valueSetRepository.replaceAll(
+                        valueSetEntityList,
+                        contentHash
+                    )
+                ) {
+                    markChanged(PurgeTarget.RULES, true);
+                } else {
+                    log.info("Valuesets unchanged -> batchTag: {} ", batchTag);
+                }
             }
 
             log.info("Download INFO after reciving -> batchTag: {} ", batchTag);
+            synced = true;
         } catch (NoSuchAlgorithmException e) {
             report = e.getMessage();
             log.error(
@@ -743,9 +1061,11 @@ public class DgcWorker {
         dgcRuleLogRepository.save(
             DgcRuleLogEntity.buildDownloadValueLog(batchTag, report)
         );
+        return synced;
     }
 
-    public void downloadRules() {
+    public boolean downloadRules() {
+        boolean synced = false;
         String report = null;
         String akamaiReport = null;
         String batchTag = DscUtil.batchTagGenerator(OperationType.DOWNLOAD);
@@ -781,6 +1101,11 @@ public class DgcWorker {
 
                     List<String> countries = _getCountries();
 
+                    Map<String, Map<String, String>> activeRuleIds = businessRuleRepository.getActiveRuleIds();
+                    Map<String, BusinessRuleFingerprintEntity> fingerprints = businessRuleFingerprintRepository.getAllByCountry();
+                    Map<String, String> changedFingerprints = new HashMap<>();
+                    int numUnchangedRules = 0;
+
                     for (String country : countries) {
                         RestApiResponse<Map<String, List<ValidationRuleDto>>> ruleResp = client.downloadValidationRules(
                             country
@@ -797,6 +1122,32 @@ public class DgcWorker {
                                 country
                             );
 
+                            // Unchanged rule set: skip verification and writes
+                            String fingerprint = businessRulesUtils.calculateRuleSetFingerprint(
+                                mapRule,
+                                trustCountryList
+                            );
+                            BusinessRuleFingerprintEntity storedFingerprint = fingerprints.get(
+                                country
+                            );
+                            int activeRuleCount = activeRuleIds
+                                .getOrDefault(country, new HashMap<>())
+                                .size();
+                            if (
+                                storedFingerprint != null &&
+                                fingerprint.equals(
+                                    storedFingerprint.getFingerprint()
+                                ) &&
+                                storedFingerprint.getRuleCount() ==
+                                activeRuleCount
+                            ) {
+                                activeRuleIds.remove(country);
+                                amount.incNumUnchangedCountries();
+                                numUnchangedRules += countRules(mapRule);
+                                continue;
+                            }
+                            changedFingerprints.put(country, fingerprint);
+
                             for (String identifier : mapRule.keySet()) {
                                 List<ValidationRuleDto> rules = mapRule.get(
                                     identifier
@@ -872,37 +1223,38 @@ public class DgcWorker {
                         }
                     }
 
-                    if (businessRuleEntityList.size() > 0) {
-                        Integer numTotDocIntoDB = businessRuleRepository.setAllBusinessRuleRevoked(
-                            batchTag
-                        );
+                    // A changed country may have withdrawn all its rules:
+                    // reconcile even when no valid rule was downloaded
+                    if (!changedFingerprints.isEmpty()) {
+                        List<BusinessRuleEntity> toInsert = new ArrayList<>();
+                        Map<String, Set<String>> ruleHashes = new HashMap<>();
 
                         for (BusinessRuleEntity businessRuleEntity : businessRuleEntityList) {
-                            BusinessRuleEntity businessRuleEntityOld = businessRuleRepository.getByCountryAndHash(
-                                businessRuleEntity.getCountry(),
-                                businessRuleEntity.getHash(),
-                                batchTag
-                            );
-                            if (businessRuleEntityOld != null) {
-                                businessRuleEntityOld.setRevoked(false);
-                                businessRuleEntityOld.setRevokedDate(null);
-                                businessRuleEntityOld.setRevokedBatchTag(null);
-
-                                businessRuleRepository.save(
-                                    businessRuleEntityOld
-                                );
+                            ruleHashes
+                                .computeIfAbsent(
+                                    businessRuleEntity.getCountry(),
+                                    k -> new HashSet<>()
+                                )
+                                .add(businessRuleEntity.getHash());
+                            String activeRuleId = activeRuleIds
+                                .getOrDefault(
+                                    businessRuleEntity.getCountry(),
+                                    new HashMap<>()
+                                )
+                                .remove(businessRuleEntity.getHash());
+                            if (activeRuleId != null) {
                                 logInfo
-                                    .get(businessRuleEntityOld.getCountry())
+                                    .get(businessRuleEntity.getCountry())
                                     .add(
                                         new DgcRuleLogInfo(
-                                            businessRuleEntityOld.getIdentifier(),
+                                            businessRuleEntity.getIdentifier(),
                                             true,
                                             true
                                         )
                                     );
                                 amount.incNumOld();
                             } else {
-                                businessRuleRepository.save(businessRuleEntity);
+                                toInsert.add(businessRuleEntity);
                                 logInfo
                                     .get(businessRuleEntity.getCountry())
                                     .add(
@@ -915,16 +1267,46 @@ public class DgcWorker {
                                 amount.incNumNew();
                             }
                         }
-                        amount.setNumRevoked(
-                            numTotDocIntoDB - amount.getNumOld()
+
+                        // Active rules no longer published by the gateway
+                        List<String> toRevokeIds = activeRuleIds
+                            .values()
+                            .stream()
+                            .flatMap(ids -> ids.values().stream())
+                            .collect(Collectors.toList());
+                        workerLock.checkHeld();
+                        businessRuleRepository.reconcile(
+                            toInsert,
+                            toRevokeIds,
+                            batchTag
                         );
+                        amount.setNumRevoked(toRevokeIds.size());
+
+                        for (Map.Entry<String, String> changed : changedFingerprints.entrySet()) {
+                            BusinessRuleFingerprintEntity fingerprintEntity = new BusinessRuleFingerprintEntity();
+                            fingerprintEntity.setCountry(changed.getKey());
+                            fingerprintEntity.setFingerprint(changed.getValue());
+                            fingerprintEntity.setRuleCount(
+                                ruleHashes
+                                    .getOrDefault(
+                                        changed.getKey(),
+                                        new HashSet<>()
+                                    )
+                                    .size()
+                            );
+                            fingerprintEntity.setDownloadBatchTag(batchTag);
+                            fingerprintEntity.setUpdatedAt(new Date());
+                            businessRuleFingerprintRepository.save(
+                                fingerprintEntity
+                            );
+                        }
                     }
 
                     if (businessRuleInvalidEntityList.size() > 0) {
+                        businessRuleInvalidRepository.upsertAll(
+                            businessRuleInvalidEntityList
+                        );
                         for (BusinessRuleInvalidEntity businessRuleEntity : businessRuleInvalidEntityList) {
-                            businessRuleInvalidRepository.save(
-                                businessRuleEntity
-                            );
                             logInfo
                                 .get(businessRuleEntity.getCountry())
                                 .add(
@@ -938,7 +1320,9 @@ public class DgcWorker {
                         }
                     }
 
+                    // All the downloaded rules, unchanged countries included
                     amount.setNum(
+                        numUnchangedRules +
                         businessRuleEntityList.size() +
                         businessRuleInvalidEntityList.size()
                     );
@@ -949,22 +1333,13 @@ public class DgcWorker {
                     );
                 }
 
-                try {
-                    if (
-                        akamaiFastPurge.getUrl() != null &&
-                        !"".equals(akamaiFastPurge.getUrl())
-                    ) {
-                        akamaiReport = akamaiFastPurge.invalidateRulesUrls();
-                    }
-                } catch (Exception e) {
-                    akamaiReport = "ERROR INVALIDATING AKAMAI CACHE";
-                    log.error(
-                        "ERROR Invalidating akamai cache. -> batchTag: {} ",
-                        batchTag,
-                        e
+                akamaiReport =
+                    markChanged(
+                        PurgeTarget.RULES,
+                        amount.getNumNew() > 0 || amount.getNumRevoked() > 0
                     );
-                }
             }
+            synced = true;
         } catch (NoSuchAlgorithmException e) {
             report = e.getMessage();
             log.error(
@@ -972,7 +1347,8 @@ public class DgcWorker {
                 batchTag,
                 e
             );
-        } catch (RestApiException e) {
+        } catch (RestApiException | IOException | RestClientException e) {
+            // Gateway errors, an open circuit or the run deadline
             report = e.getMessage();
             log.error(
                 "ERROR Processing download Exception. -> batchTag: {} ",
@@ -990,17 +1366,29 @@ public class DgcWorker {
                 amount
             )
         );
+        return synced;
+    }
+
+    private static int countRules(
+        Map<String, List<ValidationRuleDto>> mapRule
+    ) {
+        int count = 0;
+        if (mapRule != null) {
+            for (List<ValidationRuleDto> rules : mapRule.values()) {
+                count += rules.size();
+            }
+        }
+        return count;
     }
 
-    private List<String> _getCountries() {
+    private List<String> _getCountries() throws IOException {
         List<String> countries = null;
 
         CountryListEntity countryListEntity = countryListRepository.getCountries();
 
         if (countryListEntity != null) {
-            Gson gson = new Gson();
-            Type listType = new TypeToken<ArrayList<String>>() {}.getType();
-            countries = gson.fromJson(countryListEntity.getRawData(), listType);
+            countries =
+                jsonCodec.readStringList(countryListEntity.getRawData());
         }
 
         return countries;
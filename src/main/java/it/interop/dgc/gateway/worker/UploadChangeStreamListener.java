@@ -0,0 +1,143 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.worker;
+
+import com.mongodb.client.model.changestream.FullDocument;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.messaging.ChangeStreamRequest;
+import org.springframework.data.mongodb.core.messaging.DefaultMessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.MessageListenerContainer;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+/**
+ * Triggers the upload worker as soon as a document to upload or to revoke
+ * lands in the upload collections, instead of waiting for the next cron
+ * tick. The cron schedule stays active as a safety net for events missed
+ * while the listener was down. Change streams need a replica set.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(
+    name = "dgc.worker.upload.change_stream.enabled",
+    havingValue = "true"
+)
+public class UploadChangeStreamListener {
+
+    private static final String[] COLLECTIONS = {
+        "signer_upload_information",
+        "business_upload_rules",
+    };
+
+    @Autowired(required = true)
+    private MongoTemplate mongoTemplate;
+
+    @Autowired(required = true)
+    private DgcWorker dgcWorker;
+
+    @Autowired(required = true)
+    @Qualifier("uploadTaskScheduler")
+    private ThreadPoolTaskScheduler uploadTaskScheduler;
+
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+
+    private MessageListenerContainer container;
+
+    @PostConstruct
+    private void start() {
+        container =
+            new DefaultMessageListenerContainer(
+                mongoTemplate,
+                new SimpleAsyncTaskExecutor("dgc-upload-stream-"),
+                e -> log.error("ERROR Listening upload change stream.", e)
+            );
+        for (String collection : COLLECTIONS) {
+            ChangeStreamRequest<Document> request = ChangeStreamRequest
+                .builder()
+                .collection(collection)
+                .filter(
+                    Aggregation.newAggregation(
+                        Aggregation.match(toUploadFilter())
+                    )
+                )
+                .fullDocumentLookup(FullDocument.UPDATE_LOOKUP)
+                .publishTo(message -> trigger())
+                .build();
+            container.register(request, Document.class);
+        }
+        container.start();
+        log.info(
+            "Upload change stream listener started on {}",
+            Arrays.toString(COLLECTIONS)
+        );
+    }
+
+    @PreDestroy
+    private void stop() {
+        if (container != null) {
+            container.stop();
+        }
+    }
+
+    /**
+     * Runs are queued on the upload lane; events received while a run is
+     * already queued are coalesced into it.
+     */
+    void trigger() {
+        if (pending.compareAndSet(false, true)) {
+            uploadTaskScheduler.execute(() -> {
+                pending.set(false);
+                dgcWorker.uploadWorker();
+            });
+        }
+    }
+
+    // Only new documents and revocation flags: the worker's own claim and
+    // batch tag writes must not trigger further runs
+    static Criteria toUploadFilter() {
+        return new Criteria()
+            .orOperator(
+                Criteria
+                    .where("operationType")
+                    .in("insert", "replace")
+                    .and("fullDocument.batch_tag")
+                    .is(null),
+                Criteria
+                    .where("operationType")
+                    .in("insert", "replace")
+                    .and("fullDocument.revoked")
+                    .is(true)
+                    .and("fullDocument.batch_tag_revoke")
+                    .is(null),
+                Criteria
+                    .where("operationType")
+                    .is("update")
+                    .and("updateDescription.updatedFields.revoked")
+                    .is(true)
+            );
+    }
+}
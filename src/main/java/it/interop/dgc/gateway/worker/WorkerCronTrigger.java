@@ -0,0 +1,78 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.worker;
+
+import java.util.Date;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.Trigger;
+import org.springframework.scheduling.TriggerContext;
+import org.springframework.scheduling.support.CronTrigger;
+import org.springframework.scheduling.support.SimpleTriggerContext;
+
+/**
+ * Cron trigger of a worker lane. Ticks that elapsed while the previous run
+ * was still active are not fired again, but counted as skipped.
+ */
+@Slf4j
+public class WorkerCronTrigger implements Trigger {
+
+    private static final int MAX_COUNTED_TICKS = 10000;
+
+    private final String lane;
+    private final WorkerRunGuard runGuard;
+    private final CronTrigger cronTrigger;
+
+    public WorkerCronTrigger(
+        String lane,
+        String expression,
+        WorkerRunGuard runGuard
+    ) {
+        this.lane = lane;
+        this.runGuard = runGuard;
+        this.cronTrigger = new CronTrigger(expression);
+    }
+
+    /**
+     * @return the first tick of the cron trigger after the given date.
+     */
+    public static Date nextTick(CronTrigger cronTrigger, Date after) {
+        return cronTrigger.nextExecutionTime(
+            new SimpleTriggerContext(after, after, after)
+        );
+    }
+
+    @Override
+    public Date nextExecutionTime(TriggerContext triggerContext) {
+        Date lastScheduled = triggerContext.lastScheduledExecutionTime();
+        Date lastCompletion = triggerContext.lastCompletionTime();
+        if (lastScheduled != null && lastCompletion != null) {
+            int missed = 0;
+            Date tick = nextTick(cronTrigger, lastScheduled);
+            while (tick.before(lastCompletion) && missed < MAX_COUNTED_TICKS) {
+                missed++;
+                tick = nextTick(cronTrigger, tick);
+            }
+            if (missed > 0) {
+                log.warn(
+                    "{} ticks of {} skipped: previous run still active",
+                    missed,
+                    lane
+                );
+                runGuard.skipped(lane, missed);
+            }
+        }
+        return cronTrigger.nextExecutionTime(triggerContext);
+    }
+}
@@ -0,0 +1,137 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.worker;
+
+import it.interop.dgc.gateway.entity.WorkerLockEntity;
+import it.interop.dgc.gateway.repository.WorkerLockRepository;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.UUID;
+import javax.annotation.PostConstruct;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Mongo lease lock shared by all the replicas of the client: a worker phase
+ * runs only on the replica holding its lease. Before destructive writes the
+ * phase calls {@link #checkHeld()}, which renews the lease and fails if the
+ * lease expired and has been taken over. This is a check before the write,
+ * not fencing: the writes do not carry the lease token. Phases prepare their
+ * changes in memory and apply them in one bulk write right after the check,
+ * so the renewed lease covers the whole write.
+ */
+@Slf4j
+@Component
+public class WorkerLock {
+
+    @Value("${dgc.worker.lock.enabled}")
+    private boolean enabled;
+
+    @Value("${dgc.worker.lock.lease_seconds}")
+    private long leaseSeconds;
+
+    @Autowired(required = true)
+    private WorkerLockRepository workerLockRepository;
+
+    @Getter
+    private String owner;
+
+    private final ThreadLocal<WorkerLockEntity> currentLease = new ThreadLocal<>();
+
+    @PostConstruct
+    private void init() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown";
+        }
+        owner = host + "-" + UUID.randomUUID().toString();
+    }
+
+    /**
+     * Runs the phase on the calling thread if this replica gets its lease.
+     *
+     * @return true if the phase has been executed.
+     */
+    public boolean runLocked(String name, Runnable phase) {
+        return runLocked(name, null, phase);
+    }
+
+    /**
+     * Like {@link #runLocked(String, Runnable)}, but a completed phase keeps
+     * its lease until holdUntil (e.g. the next schedule slot): other
+     * replicas skip the phase for the slot it already ran in.
+     */
+    public boolean runLocked(String name, Date holdUntil, Runnable phase) {
+        if (!enabled) {
+            phase.run();
+            return true;
+        }
+        WorkerLockEntity lease = workerLockRepository.acquire(
+            name,
+            owner,
+            leaseSeconds * 1000
+        );
+        if (lease == null) {
+            log.info("Phase {} skipped: lease held by another replica", name);
+            return false;
+        }
+        currentLease.set(lease);
+        boolean completed = false;
+        try {
+            phase.run();
+            completed = true;
+        } finally {
+            currentLease.remove();
+            if (
+                completed && holdUntil != null && holdUntil.after(new Date())
+            ) {
+                workerLockRepository.hold(
+                    name,
+                    owner,
+                    lease.getToken(),
+                    holdUntil
+                );
+            } else {
+                workerLockRepository.release(name, owner, lease.getToken());
+            }
+        }
+        return true;
+    }
+
+    public void checkHeld() {
+        WorkerLockEntity lease = currentLease.get();
+        if (!enabled || lease == null) {
+            return;
+        }
+        if (
+            !workerLockRepository.renew(
+                lease.getId(),
+                owner,
+                lease.getToken(),
+                leaseSeconds * 1000
+            )
+        ) {
+            throw new WorkerLockLostException(
+                "Lease " + lease.getId() + " lost, token " + lease.getToken()
+            );
+        }
+    }
+}
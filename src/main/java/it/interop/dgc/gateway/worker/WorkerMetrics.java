@@ -0,0 +1,100 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.worker;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Phase timers and gauges of the worker. Gauges are refreshed by the worker
+ * at the end of the phase that changes them, so a scrape never hits Mongo.
+ */
+@Component
+public class WorkerMetrics {
+
+    public static final String METRIC_PHASE = "dgc.worker.phase";
+    public static final String METRIC_TRUST_LIST_SIZE = "dgc.trustlist.size";
+    public static final String METRIC_PENDING_UPLOADS = "dgc.upload.pending";
+    public static final String TAG_PHASE = "phase";
+    public static final String TAG_TYPE = "type";
+    public static final String TAG_OPERATION = "operation";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final AtomicLong trustListSize = new AtomicLong();
+    private final AtomicLong certificatesToSend = new AtomicLong();
+    private final AtomicLong certificatesToRevoke = new AtomicLong();
+    private final AtomicLong rulesToSend = new AtomicLong();
+    private final AtomicLong rulesToRevoke = new AtomicLong();
+
+    @PostConstruct
+    private void registerGauges() {
+        meterRegistry.gauge(METRIC_TRUST_LIST_SIZE, trustListSize);
+        pendingGauge("certificate", "upload", certificatesToSend);
+        pendingGauge("certificate", "revoke", certificatesToRevoke);
+        pendingGauge("rule", "upload", rulesToSend);
+        pendingGauge("rule", "revoke", rulesToRevoke);
+    }
+
+    public void phase(String phase, Runnable task) {
+        phaseTimer(phase).record(task);
+    }
+
+    public Timer.Sample startPhase() {
+        return Timer.start(meterRegistry);
+    }
+
+    public void stopPhase(Timer.Sample sample, String phase) {
+        sample.stop(phaseTimer(phase));
+    }
+
+    public void setTrustListSize(long size) {
+        trustListSize.set(size);
+    }
+
+    public void setPendingUploads(
+        long certificatesToSend,
+        long certificatesToRevoke,
+        long rulesToSend,
+        long rulesToRevoke
+    ) {
+        this.certificatesToSend.set(certificatesToSend);
+        this.certificatesToRevoke.set(certificatesToRevoke);
+        this.rulesToSend.set(rulesToSend);
+        this.rulesToRevoke.set(rulesToRevoke);
+    }
+
+    private Timer phaseTimer(String phase) {
+        return Timer
+            .builder(METRIC_PHASE)
+            .tag(TAG_PHASE, phase)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    private void pendingGauge(String type, String operation, AtomicLong value) {
+        meterRegistry.gauge(
+            METRIC_PENDING_UPLOADS,
+            Tags.of(TAG_TYPE, type, TAG_OPERATION, operation),
+            value
+        );
+    }
+}
@@ -0,0 +1,74 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.worker;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Prevents two runs of the same worker lane from overlapping and records
+ * run durations and skipped ticks for every lane.
+ */
+@Slf4j
+@Component
+public class WorkerRunGuard {
+
+    public static final String METRIC_RUN = "dgc.worker.run";
+    public static final String METRIC_SKIPPED = "dgc.worker.run.skipped";
+    public static final String TAG_LANE = "lane";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, AtomicBoolean> running = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the task on the calling thread unless a previous run of the same
+     * lane is still active, in which case the tick is skipped and counted.
+     *
+     * @return true if the task has been executed.
+     */
+    public boolean run(String lane, Runnable task) {
+        AtomicBoolean active = running.computeIfAbsent(
+            lane,
+            k -> new AtomicBoolean(false)
+        );
+        if (!active.compareAndSet(false, true)) {
+            log.warn("Run of {} skipped: previous run still active", lane);
+            skipped(lane, 1);
+            return false;
+        }
+        try {
+            meterRegistry.timer(METRIC_RUN, TAG_LANE, lane).record(task);
+        } finally {
+            active.set(false);
+        }
+        return true;
+    }
+
+    public boolean isRunning(String lane) {
+        AtomicBoolean active = running.get(lane);
+        return active != null && active.get();
+    }
+
+    public void skipped(String lane, int ticks) {
+        meterRegistry.counter(METRIC_SKIPPED, TAG_LANE, lane).increment(ticks);
+    }
+}
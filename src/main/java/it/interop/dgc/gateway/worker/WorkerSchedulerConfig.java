@@ -0,0 +1,93 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.worker;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+/**
+ * Upload and download workers are scheduled on their own single thread lane,
+ * so a slow download never delays uploads (and vice versa). Every other
+ * scheduled task runs on the shared task scheduler.
+ */
+@Configuration
+public class WorkerSchedulerConfig implements SchedulingConfigurer {
+
+    public static final String UPLOAD_LANE = "upload";
+    public static final String DOWNLOAD_LANE = "download";
+
+    @Value("${dgc.worker.upload.schedul}")
+    private String uploadCron;
+
+    @Value("${dgc.worker.download.schedul}")
+    private String downloadCron;
+
+    @Value("${dgc.worker.scheduler.pool_size}")
+    private int poolSize;
+
+    @Autowired
+    private DgcWorker dgcWorker;
+
+    @Autowired
+    private WorkerRunGuard runGuard;
+
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler() {
+        return buildScheduler("dgc-scheduler-", poolSize);
+    }
+
+    @Bean
+    public ThreadPoolTaskScheduler uploadTaskScheduler() {
+        return buildScheduler("dgc-upload-", 1);
+    }
+
+    @Bean
+    public ThreadPoolTaskScheduler downloadTaskScheduler() {
+        return buildScheduler("dgc-download-", 1);
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+        taskRegistrar.setTaskScheduler(taskScheduler());
+
+        uploadTaskScheduler()
+            .schedule(
+                dgcWorker::uploadWorker,
+                new WorkerCronTrigger(UPLOAD_LANE, uploadCron, runGuard)
+            );
+        downloadTaskScheduler()
+            .schedule(
+                dgcWorker::downloadWorker,
+                new WorkerCronTrigger(DOWNLOAD_LANE, downloadCron, runGuard)
+            );
+    }
+
+    private ThreadPoolTaskScheduler buildScheduler(
+        String threadNamePrefix,
+        int size
+    ) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(size);
+        scheduler.setThreadNamePrefix(threadNamePrefix);
+        scheduler.setWaitForTasksToCompleteOnShutdown(true);
+        scheduler.setAwaitTerminationSeconds(30);
+        return scheduler;
+    }
+}
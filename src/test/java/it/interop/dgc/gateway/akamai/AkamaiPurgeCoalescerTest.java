@@ -0,0 +1,178 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.akamai;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.interop.dgc.gateway.akamai.AkamaiPurgeCoalescer.PurgeTarget;
+import it.interop.dgc.gateway.repository.AkamaiPurgeQueueRepository;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class AkamaiPurgeCoalescerTest {
+
+    private AkamaiFastPurge akamaiFastPurge;
+    private AkamaiPurgeQueueRepository akamaiPurgeQueueRepository;
+    private SimpleMeterRegistry meterRegistry;
+    private AkamaiPurgeCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        akamaiFastPurge = Mockito.mock(AkamaiFastPurge.class);
+        Mockito
+            .when(akamaiFastPurge.getUrl())
+            .thenReturn("https://akamai.test/ccu/v3/invalidate/url");
+        akamaiPurgeQueueRepository =
+            Mockito.mock(AkamaiPurgeQueueRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+
+        coalescer = new AkamaiPurgeCoalescer();
+        ReflectionTestUtils.setField(coalescer, "debounceSeconds", 60L);
+        ReflectionTestUtils.setField(
+            coalescer,
+            "akamaiFastPurge",
+            akamaiFastPurge
+        );
+        ReflectionTestUtils.setField(
+            coalescer,
+            "akamaiPurgeQueueRepository",
+            akamaiPurgeQueueRepository
+        );
+        ReflectionTestUtils.setField(coalescer, "meterRegistry", meterRegistry);
+    }
+
+    @Test
+    void testTargetOf() {
+        Set<PurgeTarget> targets = Arrays
+            .asList("dsc/0", "dsc/status", "dsc/index")
+            .stream()
+            .map(AkamaiPurgeCoalescer::targetOf)
+            .collect(Collectors.toSet());
+        Assertions.assertEquals(EnumSet.of(PurgeTarget.CERTIFICATES), targets);
+
+        targets =
+            Arrays
+                .asList("rules/IT", "valuesets", "valuesets/x", "countrylist")
+                .stream()
+                .map(AkamaiPurgeCoalescer::targetOf)
+                .collect(Collectors.toSet());
+        Assertions.assertEquals(EnumSet.of(PurgeTarget.RULES), targets);
+    }
+
+    @Test
+    void testRequestPurge_onlyChangedTargets() {
+        Mockito
+            .when(
+                akamaiPurgeQueueRepository.enqueue(
+                    ArgumentMatchers.anyString(),
+                    ArgumentMatchers.any()
+                )
+            )
+            .thenReturn(true);
+
+        Assertions.assertEquals(
+            AkamaiPurgeCoalescer.REPORT_SCHEDULED,
+            coalescer.requestPurge(EnumSet.of(PurgeTarget.RULES))
+        );
+
+        Mockito
+            .verify(akamaiPurgeQueueRepository)
+            .enqueue(
+                ArgumentMatchers.eq(PurgeTarget.RULES.name()),
+                ArgumentMatchers.any()
+            );
+        Mockito.verifyNoMoreInteractions(akamaiPurgeQueueRepository);
+        Assertions.assertEquals(1, count(PurgeTarget.RULES, "scheduled"));
+        Assertions.assertEquals(
+            1,
+            count(PurgeTarget.CERTIFICATES, "unchanged")
+        );
+    }
+
+    @Test
+    void testRequestPurge_unchangedNoPurge() {
+        Assertions.assertEquals(
+            AkamaiPurgeCoalescer.REPORT_UNCHANGED,
+            coalescer.requestPurge(Collections.emptySet())
+        );
+
+        Mockito.verifyNoInteractions(akamaiPurgeQueueRepository);
+        Assertions.assertEquals(1, count(PurgeTarget.RULES, "unchanged"));
+        Assertions.assertEquals(
+            1,
+            count(PurgeTarget.CERTIFICATES, "unchanged")
+        );
+    }
+
+    @Test
+    void testRequestPurge_coalesced() {
+        Mockito
+            .when(
+                akamaiPurgeQueueRepository.enqueue(
+                    ArgumentMatchers.anyString(),
+                    ArgumentMatchers.any()
+                )
+            )
+            .thenReturn(true, false);
+
+        coalescer.requestPurge(EnumSet.of(PurgeTarget.CERTIFICATES));
+        coalescer.requestPurge(EnumSet.of(PurgeTarget.CERTIFICATES));
+
+        Assertions.assertEquals(
+            1,
+            count(PurgeTarget.CERTIFICATES, "scheduled")
+        );
+        Assertions.assertEquals(
+            1,
+            count(PurgeTarget.CERTIFICATES, "coalesced")
+        );
+    }
+
+    @Test
+    void testRequestPurge_disabled() {
+        Mockito.when(akamaiFastPurge.getUrl()).thenReturn("");
+
+        Assertions.assertNull(
+            coalescer.requestPurge(EnumSet.allOf(PurgeTarget.class))
+        );
+        Mockito.verifyNoInteractions(akamaiPurgeQueueRepository);
+        Assertions.assertTrue(
+            meterRegistry
+                .find(AkamaiPurgeCoalescer.METRIC_PURGE)
+                .counters()
+                .isEmpty()
+        );
+    }
+
+    private double count(PurgeTarget target, String outcome) {
+        return meterRegistry
+            .counter(
+                AkamaiPurgeCoalescer.METRIC_PURGE,
+                AkamaiPurgeCoalescer.TAG_TARGET,
+                target.name().toLowerCase(),
+                AkamaiPurgeCoalescer.TAG_OUTCOME,
+                outcome
+            )
+            .count();
+    }
+}
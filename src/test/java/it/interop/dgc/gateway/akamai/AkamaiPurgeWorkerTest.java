@@ -0,0 +1,235 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.akamai;
+
+import it.interop.dgc.gateway.akamai.AkamaiPurgeCoalescer.PurgeTarget;
+import it.interop.dgc.gateway.entity.AkamaiPurgeRequestEntity;
+import it.interop.dgc.gateway.repository.AkamaiPurgeQueueRepository;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+class AkamaiPurgeWorkerTest {
+
+    private static final long INITIAL_SECONDS = 30;
+    private static final long MAX_SECONDS = 1800;
+
+    private AkamaiFastPurge akamaiFastPurge;
+    private AkamaiPurgeCoalescer akamaiPurgeCoalescer;
+    private AkamaiPurgeQueueRepository akamaiPurgeQueueRepository;
+    private AkamaiPurgeWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        akamaiFastPurge = Mockito.mock(AkamaiFastPurge.class);
+        akamaiPurgeCoalescer = Mockito.mock(AkamaiPurgeCoalescer.class);
+        Mockito.when(akamaiPurgeCoalescer.isEnabled()).thenReturn(true);
+        akamaiPurgeQueueRepository =
+            Mockito.mock(AkamaiPurgeQueueRepository.class);
+
+        worker = new AkamaiPurgeWorker();
+        ReflectionTestUtils.setField(worker, "leaseSeconds", 300L);
+        ReflectionTestUtils.setField(
+            worker,
+            "backoffInitialSeconds",
+            INITIAL_SECONDS
+        );
+        ReflectionTestUtils.setField(worker, "backoffMaxSeconds", MAX_SECONDS);
+        ReflectionTestUtils.setField(
+            worker,
+            "akamaiFastPurge",
+            akamaiFastPurge
+        );
+        ReflectionTestUtils.setField(
+            worker,
+            "akamaiPurgeCoalescer",
+            akamaiPurgeCoalescer
+        );
+        ReflectionTestUtils.setField(
+            worker,
+            "akamaiPurgeQueueRepository",
+            akamaiPurgeQueueRepository
+        );
+    }
+
+    @Test
+    void testFailure_backoffGrowsUpToCap() throws Exception {
+        Mockito
+            .when(akamaiFastPurge.invalidateUrls())
+            .thenThrow(new HttpServerErrorException(HttpStatus.BAD_GATEWAY));
+
+        Assertions.assertEquals(INITIAL_SECONDS, retryDelaySeconds(0));
+        Assertions.assertEquals(INITIAL_SECONDS * 2, retryDelaySeconds(1));
+        Assertions.assertEquals(INITIAL_SECONDS * 8, retryDelaySeconds(3));
+        Assertions.assertEquals(MAX_SECONDS, retryDelaySeconds(6));
+        Assertions.assertEquals(MAX_SECONDS, retryDelaySeconds(100));
+    }
+
+    @Test
+    void testThrottled_retryAfterLongerThanBackoff() throws Exception {
+        Mockito
+            .when(akamaiFastPurge.invalidateUrls())
+            .thenThrow(throttled("600"));
+
+        Assertions.assertEquals(600, retryDelaySeconds(0));
+    }
+
+    @Test
+    void testThrottled_neverSoonerThanBackoff() throws Exception {
+        Mockito.when(akamaiFastPurge.invalidateUrls()).thenThrow(throttled("0"));
+
+        Assertions.assertEquals(INITIAL_SECONDS * 4, retryDelaySeconds(2));
+    }
+
+    @Test
+    void testSuccess_completed() throws Exception {
+        AkamaiPurgeRequestEntity request = request(PurgeTarget.RULES, 2);
+        claim(request);
+        Mockito
+            .when(akamaiPurgeQueueRepository.complete(request))
+            .thenReturn(true);
+
+        worker.processQueue();
+
+        Mockito.verify(akamaiFastPurge).invalidateRulesUrls();
+        Mockito.verify(akamaiFastPurge, Mockito.never()).invalidateUrls();
+        Mockito
+            .verify(akamaiPurgeQueueRepository, Mockito.never())
+            .reschedule(
+                ArgumentMatchers.anyString(),
+                ArgumentMatchers.any(),
+                ArgumentMatchers.anyInt(),
+                ArgumentMatchers.any()
+            );
+    }
+
+    @Test
+    void testSuccess_changedWhilePurging() throws Exception {
+        AkamaiPurgeRequestEntity request = request(PurgeTarget.RULES, 2);
+        claim(request);
+        Mockito
+            .when(akamaiPurgeQueueRepository.complete(request))
+            .thenReturn(false);
+        Date debounce = new Date();
+        Mockito
+            .when(akamaiPurgeCoalescer.debounceDeadline())
+            .thenReturn(debounce);
+
+        worker.processQueue();
+
+        // Purged once more, from the first attempt
+        Mockito
+            .verify(akamaiPurgeQueueRepository)
+            .reschedule(PurgeTarget.RULES.name(), debounce, 0, null);
+    }
+
+    @Test
+    void testProcessQueue_eachTargetOncePerPoll() throws Exception {
+        Mockito
+            .when(akamaiFastPurge.invalidateUrls())
+            .thenThrow(new HttpServerErrorException(HttpStatus.BAD_GATEWAY));
+        claim(request(PurgeTarget.CERTIFICATES, 0));
+
+        worker.processQueue();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<String>> excluded = ArgumentCaptor.forClass(
+            Collection.class
+        );
+        Mockito
+            .verify(akamaiPurgeQueueRepository, Mockito.times(2))
+            .claimDue(
+                ArgumentMatchers.any(),
+                ArgumentMatchers.any(),
+                excluded.capture()
+            );
+        Assertions.assertTrue(
+            excluded.getValue().contains(PurgeTarget.CERTIFICATES.name())
+        );
+        Mockito.verify(akamaiFastPurge, Mockito.times(1)).invalidateUrls();
+    }
+
+    /**
+     * Runs one failing purge of the certificates after the given attempts.
+     *
+     * @return the retry delay, in seconds.
+     */
+    private long retryDelaySeconds(int attempts) {
+        Mockito.clearInvocations(akamaiPurgeQueueRepository);
+        claim(request(PurgeTarget.CERTIFICATES, attempts));
+
+        long before = System.currentTimeMillis();
+        worker.processQueue();
+
+        ArgumentCaptor<Date> dueAt = ArgumentCaptor.forClass(Date.class);
+        Mockito
+            .verify(akamaiPurgeQueueRepository)
+            .reschedule(
+                ArgumentMatchers.eq(PurgeTarget.CERTIFICATES.name()),
+                dueAt.capture(),
+                ArgumentMatchers.eq(attempts + 1),
+                ArgumentMatchers.anyString()
+            );
+        return TimeUnit.MILLISECONDS.toSeconds(
+            dueAt.getValue().getTime() - before
+        );
+    }
+
+    private void claim(AkamaiPurgeRequestEntity request) {
+        Mockito
+            .when(
+                akamaiPurgeQueueRepository.claimDue(
+                    ArgumentMatchers.any(),
+                    ArgumentMatchers.any(),
+                    ArgumentMatchers.any()
+                )
+            )
+            .thenReturn(request, (AkamaiPurgeRequestEntity) null);
+    }
+
+    private static AkamaiPurgeRequestEntity request(
+        PurgeTarget target,
+        int attempts
+    ) {
+        AkamaiPurgeRequestEntity request = new AkamaiPurgeRequestEntity();
+        request.setId(target.name());
+        request.setGeneration(1L);
+        request.setAttempts(attempts);
+        return request;
+    }
+
+    private static HttpClientErrorException throttled(String retryAfter) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, retryAfter);
+        return HttpClientErrorException.create(
+            HttpStatus.TOO_MANY_REQUESTS,
+            "Too Many Requests",
+            headers,
+            null,
+            null
+        );
+    }
+}
@@ -0,0 +1,212 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.client.base;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.interop.dgc.gateway.util.DscUtil;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.test.web.client.match.MockRestRequestMatchers;
+import org.springframework.test.web.client.response.MockRestResponseCreators;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+class ContentEncodingInterceptorTest {
+
+    private static final String BASE_URL = "http://gateway.test/api/";
+    private static final String URL = BASE_URL + "trustList/DSC";
+    private static final String BODY = "[{\"kid\":\"a\"},{\"kid\":\"b\"}]";
+
+    private SimpleMeterRegistry meterRegistry;
+    private RestTemplate restTemplate;
+    private MockRestServiceServer server;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        restTemplate = new RestTemplate();
+        restTemplate
+            .getInterceptors()
+            .add(new ContentEncodingInterceptor(meterRegistry, BASE_URL));
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+    }
+
+    @Test
+    void testGzip_decoded() throws Exception {
+        byte[] gzip = DscUtil.gzip(BODY.getBytes(StandardCharsets.UTF_8));
+        server
+            .expect(MockRestRequestMatchers.requestTo(URL))
+            .andRespond(
+                MockRestResponseCreators
+                    .withSuccess(gzip, MediaType.APPLICATION_JSON)
+                    .headers(gzipHeaders(gzip.length))
+            );
+
+        Assertions.assertEquals(
+            BODY,
+            restTemplate.getForObject(URL, String.class)
+        );
+
+        assertRecorded(
+            ContentEncodingInterceptor.ENCODING_GZIP,
+            gzip.length,
+            BODY.length()
+        );
+    }
+
+    @Test
+    void testIdentity_unchanged() {
+        server
+            .expect(MockRestRequestMatchers.requestTo(URL))
+            .andRespond(
+                MockRestResponseCreators.withSuccess(
+                    BODY,
+                    MediaType.APPLICATION_JSON
+                )
+            );
+
+        Assertions.assertEquals(
+            BODY,
+            restTemplate.getForObject(URL, String.class)
+        );
+
+        assertRecorded(
+            ContentEncodingInterceptor.ENCODING_IDENTITY,
+            BODY.length(),
+            BODY.length()
+        );
+    }
+
+    @Test
+    void testNoContent_emptyBody() {
+        server
+            .expect(MockRestRequestMatchers.requestTo(URL))
+            .andRespond(
+                MockRestResponseCreators
+                    .withNoContent()
+                    .headers(gzipHeaders(0))
+            );
+
+        Assertions.assertNull(restTemplate.getForObject(URL, String.class));
+    }
+
+    @Test
+    void testGzip_emptyBody() {
+        server
+            .expect(MockRestRequestMatchers.requestTo(URL))
+            .andRespond(
+                MockRestResponseCreators
+                    .withSuccess(new byte[0], MediaType.APPLICATION_JSON)
+                    .headers(gzipHeaders(0))
+            );
+
+        Assertions.assertNull(restTemplate.getForObject(URL, String.class));
+    }
+
+    @Test
+    void testGzip_errorBodyDecoded() throws Exception {
+        String error = "{\"code\":\"0x500\",\"problem\":\"gateway down\"}";
+        byte[] gzip = DscUtil.gzip(error.getBytes(StandardCharsets.UTF_8));
+        server
+            .expect(MockRestRequestMatchers.requestTo(URL))
+            .andRespond(
+                MockRestResponseCreators
+                    .withStatus(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(gzip)
+                    .headers(gzipHeaders(gzip.length))
+            );
+
+        HttpServerErrorException e = Assertions.assertThrows(
+            HttpServerErrorException.class,
+            () -> restTemplate.getForObject(URL, String.class)
+        );
+
+        Assertions.assertEquals(error, e.getResponseBodyAsString());
+        Assertions.assertNull(
+            e.getResponseHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)
+        );
+    }
+
+    @Test
+    void testGzip_wrongContentEncoding() {
+        server
+            .expect(MockRestRequestMatchers.requestTo(URL))
+            .andRespond(
+                MockRestResponseCreators
+                    .withSuccess(BODY, MediaType.APPLICATION_JSON)
+                    .headers(gzipHeaders(BODY.length()))
+            );
+
+        // A plain body sent as gzip fails instead of being read as garbage
+        Assertions.assertThrows(
+            RestClientException.class,
+            () -> restTemplate.getForObject(URL, String.class)
+        );
+    }
+
+    @Test
+    void testUnknownEncoding_notDecoded() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_ENCODING, "br");
+        server
+            .expect(MockRestRequestMatchers.requestTo(URL))
+            .andRespond(
+                MockRestResponseCreators
+                    .withSuccess(BODY, MediaType.APPLICATION_JSON)
+                    .headers(headers)
+            );
+
+        Assertions.assertEquals(
+            BODY,
+            restTemplate.getForObject(URL, String.class)
+        );
+    }
+
+    private void assertRecorded(String encoding, long wire, long body) {
+        DistributionSummary wireBytes = meterRegistry
+            .get(ContentEncodingInterceptor.METRIC_WIRE_BYTES)
+            .tag(ContentEncodingInterceptor.TAG_RESOURCE, "trustList")
+            .tag(ContentEncodingInterceptor.TAG_ENCODING, encoding)
+            .summary();
+        DistributionSummary bodyBytes = meterRegistry
+            .get(ContentEncodingInterceptor.METRIC_BODY_BYTES)
+            .tag(ContentEncodingInterceptor.TAG_RESOURCE, "trustList")
+            .tag(ContentEncodingInterceptor.TAG_ENCODING, encoding)
+            .summary();
+        Assertions.assertEquals(1, wireBytes.count());
+        Assertions.assertEquals(wire, (long) wireBytes.totalAmount());
+        Assertions.assertEquals(1, bodyBytes.count());
+        Assertions.assertEquals(body, (long) bodyBytes.totalAmount());
+    }
+
+    private static HttpHeaders gzipHeaders(long contentLength) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(
+            HttpHeaders.CONTENT_ENCODING,
+            ContentEncodingInterceptor.ENCODING_GZIP
+        );
+        headers.setContentLength(contentLength);
+        return headers;
+    }
+}
@@ -0,0 +1,267 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.client.base;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+class GatewayResilienceTest {
+
+    private static final String ENDPOINT = "/trustList";
+    private static final long OPEN_MILLIS = 1000;
+
+    private SimpleMeterRegistry meterRegistry;
+    private GatewayResilience resilience;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        resilience = new GatewayResilience();
+        ReflectionTestUtils.setField(resilience, "maxAttempts", 3);
+        ReflectionTestUtils.setField(resilience, "backoffInitialMillis", 10L);
+        ReflectionTestUtils.setField(resilience, "backoffMaxMillis", 50L);
+        ReflectionTestUtils.setField(resilience, "failureThreshold", 2);
+        ReflectionTestUtils.setField(resilience, "openSeconds", 1L);
+        ReflectionTestUtils.setField(resilience, "meterRegistry", meterRegistry);
+    }
+
+    @Test
+    void testGet_retriedOnTransientFailures() {
+        // The failures are spread over endpoints, so no circuit opens
+        for (RuntimeException failure : new RuntimeException[] {
+            new HttpServerErrorException(HttpStatus.BAD_GATEWAY),
+            new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS),
+            new ResourceAccessException("connection reset"),
+        }) {
+            AtomicInteger calls = new AtomicInteger();
+            String result = resilience.call(
+                ENDPOINT + "/" + failure.getClass().getSimpleName(),
+                HttpMethod.GET,
+                failingOnce(calls, failure)
+            );
+
+            Assertions.assertEquals("ok", result);
+            Assertions.assertEquals(2, calls.get());
+        }
+        Assertions.assertEquals(
+            3,
+            meterRegistry
+                .find(GatewayResilience.METRIC_RETRIES)
+                .counters()
+                .stream()
+                .mapToDouble(counter -> counter.count())
+                .sum()
+        );
+    }
+
+    @Test
+    void testGet_notRetriedOnClientError() {
+        AtomicInteger calls = new AtomicInteger();
+
+        Assertions.assertThrows(
+            HttpClientErrorException.class,
+            () ->
+                resilience.call(
+                    ENDPOINT,
+                    HttpMethod.GET,
+                    failingOnce(
+                        calls,
+                        new HttpClientErrorException(HttpStatus.BAD_REQUEST)
+                    )
+                )
+        );
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @Test
+    void testPost_notRetried() {
+        AtomicInteger calls = new AtomicInteger();
+
+        Assertions.assertThrows(
+            HttpServerErrorException.class,
+            () ->
+                resilience.call(
+                    ENDPOINT,
+                    HttpMethod.POST,
+                    failingOnce(
+                        calls,
+                        new HttpServerErrorException(HttpStatus.BAD_GATEWAY)
+                    )
+                )
+        );
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @Test
+    void testGet_retryAfterHonoured() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "1");
+        AtomicInteger calls = new AtomicInteger();
+
+        long start = System.currentTimeMillis();
+        resilience.call(
+            ENDPOINT,
+            HttpMethod.GET,
+            failingOnce(
+                calls,
+                HttpClientErrorException.create(
+                    HttpStatus.TOO_MANY_REQUESTS,
+                    "Too Many Requests",
+                    headers,
+                    null,
+                    null
+                )
+            )
+        );
+
+        Assertions.assertEquals(2, calls.get());
+        Assertions.assertTrue(System.currentTimeMillis() - start >= 1000);
+    }
+
+    @Test
+    void testCircuit_openHalfOpenClosed() throws Exception {
+        ReflectionTestUtils.setField(resilience, "maxAttempts", 1);
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<String> down = () -> {
+            calls.incrementAndGet();
+            throw new ResourceAccessException("connection refused");
+        };
+
+        // Two consecutive failures open the circuit
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertThrows(
+                ResourceAccessException.class,
+                () -> resilience.call(ENDPOINT, HttpMethod.GET, down)
+            );
+        }
+        Assertions.assertThrows(
+            GatewayUnavailableException.class,
+            () -> resilience.call(ENDPOINT, HttpMethod.GET, down)
+        );
+        Assertions.assertEquals(2, calls.get());
+
+        // Half open: a failed probe opens it again
+        Thread.sleep(OPEN_MILLIS + 100);
+        Assertions.assertThrows(
+            ResourceAccessException.class,
+            () -> resilience.call(ENDPOINT, HttpMethod.GET, down)
+        );
+        Assertions.assertThrows(
+            GatewayUnavailableException.class,
+            () -> resilience.call(ENDPOINT, HttpMethod.GET, () -> "ok")
+        );
+
+        // Half open: a successful probe closes it
+        Thread.sleep(OPEN_MILLIS + 100);
+        Assertions.assertEquals(
+            "ok",
+            resilience.call(ENDPOINT, HttpMethod.GET, () -> "ok")
+        );
+        Assertions.assertEquals(
+            "ok",
+            resilience.call(ENDPOINT, HttpMethod.GET, () -> "ok")
+        );
+    }
+
+    @Test
+    void testDeadline_expired() {
+        AtomicInteger calls = new AtomicInteger();
+
+        resilience.runWithDeadline(
+            1,
+            () -> {
+                Assertions.assertEquals(
+                    "ok",
+                    resilience.call(ENDPOINT, HttpMethod.GET, () -> "ok")
+                );
+                sleep(1100);
+                Assertions.assertThrows(
+                    GatewayUnavailableException.class,
+                    () ->
+                        resilience.call(
+                            ENDPOINT,
+                            HttpMethod.GET,
+                            () -> calls.incrementAndGet()
+                        )
+                );
+            }
+        );
+
+        Assertions.assertEquals(0, calls.get());
+        // No deadline outside the run
+        Assertions.assertEquals(
+            "ok",
+            resilience.call(ENDPOINT, HttpMethod.GET, () -> "ok")
+        );
+    }
+
+    @Test
+    void testDeadline_noRetryPastDeadline() {
+        ReflectionTestUtils.setField(resilience, "backoffInitialMillis", 5000L);
+        ReflectionTestUtils.setField(resilience, "backoffMaxMillis", 5000L);
+        AtomicInteger calls = new AtomicInteger();
+
+        resilience.runWithDeadline(
+            1,
+            () ->
+                Assertions.assertThrows(
+                    HttpServerErrorException.class,
+                    () ->
+                        resilience.call(
+                            ENDPOINT,
+                            HttpMethod.GET,
+                            failingOnce(
+                                calls,
+                                new HttpServerErrorException(
+                                    HttpStatus.SERVICE_UNAVAILABLE
+                                )
+                            )
+                        )
+                )
+        );
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    private static Supplier<String> failingOnce(
+        AtomicInteger calls,
+        RuntimeException failure
+    ) {
+        return () -> {
+            if (calls.incrementAndGet() == 1) {
+                throw failure;
+            }
+            return "ok";
+        };
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
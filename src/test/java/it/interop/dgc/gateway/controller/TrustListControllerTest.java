@@ -0,0 +1,122 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.controller;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import it.interop.dgc.gateway.entity.SignerInformationEntity;
+import it.interop.dgc.gateway.snapshot.TrustListSnapshot;
+import it.interop.dgc.gateway.snapshot.TrustListSnapshotHolder;
+import it.interop.dgc.gateway.util.JsonCodec;
+import java.util.Collections;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+class TrustListControllerTest {
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        SignerInformationEntity entity = new SignerInformationEntity();
+        entity.setResumeToken(1L);
+        entity.setKid("kid1");
+        entity.setCountry("IT");
+        entity.setRawData("raw1");
+        TrustListSnapshot snapshot = TrustListSnapshot.build(
+            1,
+            Collections.singletonList(entity),
+            10,
+            new JsonCodec()
+        );
+
+        TrustListSnapshotHolder holder = Mockito.mock(
+            TrustListSnapshotHolder.class
+        );
+        Mockito.when(holder.get()).thenReturn(snapshot);
+        TrustListController controller = new TrustListController();
+        ReflectionTestUtils.setField(controller, "maxPageSize", 10);
+        ReflectionTestUtils.setField(controller, "snapshotHolder", holder);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    void testDsc_ifNoneMatchNotModified() throws Exception {
+        String etag = mockMvc
+            .perform(get("/trustlist/dsc"))
+            .andExpect(status().isOk())
+            .andReturn()
+            .getResponse()
+            .getHeader(HttpHeaders.ETAG);
+
+        mockMvc
+            .perform(get("/trustlist/dsc").header(HttpHeaders.IF_NONE_MATCH, etag))
+            .andExpect(status().isNotModified())
+            .andExpect(header().string(HttpHeaders.ETAG, etag));
+        mockMvc
+            .perform(
+                get("/trustlist/dsc")
+                    .header(HttpHeaders.IF_NONE_MATCH, "W/" + etag)
+            )
+            .andExpect(status().isNotModified());
+        mockMvc
+            .perform(
+                get("/trustlist/dsc").header(HttpHeaders.IF_NONE_MATCH, "\"x\"")
+            )
+            .andExpect(status().isOk());
+    }
+
+    @Test
+    void testDsc_gzipHasItsOwnEtag() throws Exception {
+        String etag = mockMvc
+            .perform(get("/trustlist/dsc"))
+            .andReturn()
+            .getResponse()
+            .getHeader(HttpHeaders.ETAG);
+        String etagGzip = mockMvc
+            .perform(
+                get("/trustlist/dsc").header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+            )
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+            .andReturn()
+            .getResponse()
+            .getHeader(HttpHeaders.ETAG);
+
+        Assertions.assertNotEquals(etag, etagGzip);
+        mockMvc
+            .perform(
+                get("/trustlist/dsc")
+                    .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                    .header(HttpHeaders.IF_NONE_MATCH, etag)
+            )
+            .andExpect(status().isOk());
+        mockMvc
+            .perform(
+                get("/trustlist/dsc")
+                    .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                    .header(HttpHeaders.IF_NONE_MATCH, etagGzip)
+            )
+            .andExpect(status().isNotModified());
+    }
+}
@@ -0,0 +1,221 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.replay;
+
+import com.sun.management.ThreadMXBean;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.interop.dgc.gateway.client.RestApiClient;
+import it.interop.dgc.gateway.client.base.RestApiClientBase;
+import it.interop.dgc.gateway.entity.SignerInformationEntity;
+import it.interop.dgc.gateway.signing.CertificateSignatureVerifier;
+import it.interop.dgc.gateway.signing.SignatureService;
+import it.interop.dgc.gateway.simulator.GatewaySimulator;
+import it.interop.dgc.gateway.simulator.GatewaySimulatorConfig;
+import it.interop.dgc.gateway.util.JsonCodec;
+import it.interop.dgc.gateway.worker.DgcWorker;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.AutoConfigureDataMongo;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Performance gate for the download path: DgcWorker.downloadWorker() runs
+ * against a recorded GatewayCorpus and must stay within a wall-clock and a
+ * worker-thread allocation budget. Enabled by the perf profile, which also
+ * provides an embedded Mongo:
+ *
+ * <pre>
+ * mvn -Pperf test -Ddgc.perf.budget.millis=60000 \
+ *     -Ddgc.perf.budget.bytes=2147483648
+ * </pre>
+ *
+ * <p>The corpus is read from dgc.replay.corpus (default
+ * target/replay-corpus). When it is empty, it is first recorded from a
+ * GatewaySimulator with dgc.perf.dsc signer certificates.
+ */
+@Slf4j
+@SpringBootTest(
+    properties = {
+        "dgc.worker.upload.schedul=0 0 0 29 2 ?",
+        "dgc.worker.download.schedul=0 0 0 29 2 ?",
+    }
+)
+@AutoConfigureDataMongo
+//prevent @PostConstruct execution
+@MockBean(
+    classes = {
+        SignatureService.class,
+        CertificateSignatureVerifier.class,
+        RestApiClientBase.class,
+        RestApiClient.class,
+    }
+)
+@EnabledIfSystemProperty(named = "dgc.perf", matches = "true")
+class DownloadWorkerPerfTest {
+
+    private static final long BUDGET_MILLIS = Long.getLong(
+        "dgc.perf.budget.millis",
+        60000
+    );
+    private static final long BUDGET_BYTES = Long.getLong(
+        "dgc.perf.budget.bytes",
+        2L * 1024 * 1024 * 1024
+    );
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private DgcWorker worker;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JsonCodec jsonCodec;
+
+    private final GatewayCorpus corpus = new GatewayCorpus(
+        Paths.get(
+            System.getProperty("dgc.replay.corpus", "target/replay-corpus")
+        )
+    );
+
+    private Object client;
+    private Object verifier;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        client = ReflectionTestUtils.getField(worker, "client");
+        verifier = ReflectionTestUtils.getField(worker, "signatureVerifier");
+        clearRepositoryData();
+        if (corpus.isEmpty()) {
+            recordCorpus();
+            clearRepositoryData();
+        }
+        ReflectionTestUtils.setField(
+            worker,
+            "client",
+            new ReplayRestApiClient(corpus, jsonCodec)
+        );
+        ReflectionTestUtils.setField(
+            worker,
+            "signatureVerifier",
+            GatewaySimulator.createVerifier(
+                corpus.readTrustAnchor(),
+                meterRegistry,
+                jsonCodec
+            )
+        );
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.setField(worker, "client", client);
+        ReflectionTestUtils.setField(worker, "signatureVerifier", verifier);
+    }
+
+    @Test
+    void testDownloadWorker_initialSync() {
+        assertWithinBudget("initial sync", worker::downloadWorker);
+        Assertions.assertTrue(
+            mongoTemplate.count(new Query(), SignerInformationEntity.class) > 0
+        );
+    }
+
+    @Test
+    void testDownloadWorker_steadyStateSync() {
+        worker.downloadWorker();
+        long stored = mongoTemplate.count(
+            new Query(),
+            SignerInformationEntity.class
+        );
+
+        assertWithinBudget("steady state sync", worker::downloadWorker);
+        Assertions.assertEquals(
+            stored,
+            mongoTemplate.count(new Query(), SignerInformationEntity.class)
+        );
+    }
+
+    private void assertWithinBudget(String name, Runnable run) {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        run.run();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        long bytes = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        log.info("{}: {} ms, {} bytes allocated", name, millis, bytes);
+        Assertions.assertTrue(
+            millis <= BUDGET_MILLIS,
+            name + " took " + millis + " ms, budget " + BUDGET_MILLIS
+        );
+        Assertions.assertTrue(
+            bytes <= BUDGET_BYTES,
+            name + " allocated " + bytes + " bytes, budget " + BUDGET_BYTES
+        );
+    }
+
+    private void recordCorpus() throws Exception {
+        GatewaySimulatorConfig config = GatewaySimulatorConfig
+            .builder()
+            .dscCount(Integer.getInteger("dgc.perf.dsc", 2000))
+            .build();
+        try (GatewaySimulator simulator = GatewaySimulator.start(config)) {
+            ReflectionTestUtils.setField(
+                worker,
+                "client",
+                new RecordingRestApiClient(
+                    simulator.createClient(meterRegistry, jsonCodec),
+                    corpus,
+                    jsonCodec
+                )
+            );
+            ReflectionTestUtils.setField(
+                worker,
+                "signatureVerifier",
+                simulator.createVerifier(meterRegistry, jsonCodec)
+            );
+            worker.downloadWorker();
+            corpus.writeTrustAnchor(simulator.getData().getTrustAnchor());
+        }
+        log.info("Replay corpus recorded from the gateway simulator");
+    }
+
+    private void clearRepositoryData() {
+        mongoTemplate.remove(new Query(), "business_rules");
+        mongoTemplate.remove(new Query(), "business_rules_invalid");
+        mongoTemplate.remove(new Query(), "business_rules_fingerprint");
+        mongoTemplate.remove(new Query(), "country_list");
+        mongoTemplate.remove(new Query(), "valuesets");
+        mongoTemplate.remove(new Query(), "signer_information");
+        mongoTemplate.remove(new Query(), "signer_invalid_information");
+        mongoTemplate.remove(new Query(), "dgc_log");
+        mongoTemplate.remove(new Query(), "dgc_rule_log");
+    }
+}
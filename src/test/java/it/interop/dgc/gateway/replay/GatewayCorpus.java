@@ -0,0 +1,99 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.replay;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import org.bouncycastle.cert.X509CertificateHolder;
+
+/**
+ * On-disk set of recorded gateway exchanges, one JSON file per operation
+ * and argument list, plus the trust anchor the recorded data is signed
+ * with. Recording the same call twice keeps the last response.
+ */
+public class GatewayCorpus {
+
+    private static final String TRUST_ANCHOR = "trust-anchor.der";
+    private static final String EXTENSION = ".json";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Path directory;
+
+    public GatewayCorpus(Path directory) {
+        this.directory = directory;
+    }
+
+    public boolean isEmpty() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return true;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.noneMatch(
+                file -> file.getFileName().toString().endsWith(EXTENSION)
+            );
+        }
+    }
+
+    public void write(RecordedExchange exchange) throws IOException {
+        Files.createDirectories(directory);
+        mapper.writeValue(
+            directory
+                .resolve(
+                    fileName(
+                        exchange.getOperation(),
+                        exchange.getArguments().toArray(new String[0])
+                    )
+                )
+                .toFile(),
+            exchange
+        );
+    }
+
+    /**
+     * @return the recorded exchange, or null if the call was never recorded.
+     */
+    public RecordedExchange read(String operation, String... arguments)
+        throws IOException {
+        Path file = directory.resolve(fileName(operation, arguments));
+        if (!Files.exists(file)) {
+            return null;
+        }
+        return mapper.readValue(file.toFile(), RecordedExchange.class);
+    }
+
+    public void writeTrustAnchor(X509CertificateHolder trustAnchor)
+        throws IOException {
+        Files.createDirectories(directory);
+        Files.write(directory.resolve(TRUST_ANCHOR), trustAnchor.getEncoded());
+    }
+
+    public X509CertificateHolder readTrustAnchor() throws IOException {
+        return new X509CertificateHolder(
+            Files.readAllBytes(directory.resolve(TRUST_ANCHOR))
+        );
+    }
+
+    public static String fileName(String operation, String... arguments) {
+        StringBuilder name = new StringBuilder(operation);
+        Arrays
+            .stream(arguments)
+            .forEach(argument -> name.append('-').append(argument));
+        return name.toString().replaceAll("[^A-Za-z0-9_.-]", "_") + EXTENSION;
+    }
+}
@@ -0,0 +1,34 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.replay;
+
+import java.util.List;
+import java.util.Map;
+import lombok.Data;
+
+/**
+ * One RestApiClient call as stored in a GatewayCorpus: the response status,
+ * headers and body, or the error the client raised.
+ */
+@Data
+public class RecordedExchange {
+
+    private String operation;
+    private List<String> arguments;
+    private int status;
+    private Map<String, List<String>> headers;
+    private String body;
+    private String error;
+}
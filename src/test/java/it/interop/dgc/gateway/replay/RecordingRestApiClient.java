@@ -0,0 +1,194 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.replay;
+
+import it.interop.dgc.gateway.client.RestApiClient;
+import it.interop.dgc.gateway.client.base.RestApiException;
+import it.interop.dgc.gateway.client.base.RestApiResponse;
+import it.interop.dgc.gateway.dto.TrustListItemDto;
+import it.interop.dgc.gateway.dto.ValidationRuleDto;
+import it.interop.dgc.gateway.enums.CertificateType;
+import it.interop.dgc.gateway.util.JsonCodec;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RestApiClient decorator writing every download response of the delegate,
+ * successful or not, to a GatewayCorpus. Uploads are passed through without
+ * being recorded: their CMS payloads differ on every run.
+ */
+public class RecordingRestApiClient implements RestApiClient {
+
+    private final RestApiClient delegate;
+    private final GatewayCorpus corpus;
+    private final JsonCodec jsonCodec;
+
+    public RecordingRestApiClient(
+        RestApiClient delegate,
+        GatewayCorpus corpus,
+        JsonCodec jsonCodec
+    ) {
+        this.delegate = delegate;
+        this.corpus = corpus;
+        this.jsonCodec = jsonCodec;
+    }
+
+    @Override
+    public RestApiResponse<String> postVerificationInformation(
+        String cms,
+        String countryCode
+    ) throws RestApiException {
+        return delegate.postVerificationInformation(cms, countryCode);
+    }
+
+    @Override
+    public RestApiResponse<String> revokeVerificationInformation(
+        String cms,
+        String countryCode
+    ) throws RestApiException {
+        return delegate.revokeVerificationInformation(cms, countryCode);
+    }
+
+    @Override
+    public RestApiResponse<List<TrustListItemDto>> downloadTrustList()
+        throws RestApiException {
+        return record(delegate::downloadTrustList, "downloadTrustList");
+    }
+
+    @Override
+    public RestApiResponse<List<TrustListItemDto>> downloadTrustListFilteredByType(
+        CertificateType type
+    ) throws RestApiException {
+        return record(
+            () -> delegate.downloadTrustListFilteredByType(type),
+            "downloadTrustListFilteredByType",
+            type.name()
+        );
+    }
+
+    @Override
+    public RestApiResponse<List<TrustListItemDto>> downloadTrustListFilteredByCountryAndType(
+        CertificateType type,
+        String countryCode
+    ) throws RestApiException {
+        return record(
+            () ->
+                delegate.downloadTrustListFilteredByCountryAndType(
+                    type,
+                    countryCode
+                ),
+            "downloadTrustListFilteredByCountryAndType",
+            type.name(),
+            countryCode
+        );
+    }
+
+    @Override
+    public RestApiResponse<String> uploadValidationRule(
+        String cms,
+        String countryCode
+    ) throws RestApiException {
+        return delegate.uploadValidationRule(cms, countryCode);
+    }
+
+    @Override
+    public RestApiResponse<String> deleteValidationRules(
+        String cms,
+        String countryCode
+    ) throws RestApiException {
+        return delegate.deleteValidationRules(cms, countryCode);
+    }
+
+    @Override
+    public RestApiResponse<String> downloadCountryList()
+        throws RestApiException {
+        return record(delegate::downloadCountryList, "downloadCountryList");
+    }
+
+    @Override
+    public RestApiResponse<List<String>> getValuesetIds()
+        throws RestApiException {
+        return record(delegate::getValuesetIds, "getValuesetIds");
+    }
+
+    @Override
+    public RestApiResponse<String> getValueset(String id)
+        throws RestApiException {
+        return record(() -> delegate.getValueset(id), "getValueset", id);
+    }
+
+    @Override
+    public RestApiResponse<Map<String, List<ValidationRuleDto>>> downloadValidationRules(
+        String country
+    ) throws RestApiException {
+        return record(
+            () -> delegate.downloadValidationRules(country),
+            "downloadValidationRules",
+            country
+        );
+    }
+
+    private <T> RestApiResponse<T> record(
+        Call<T> call,
+        String operation,
+        String... arguments
+    ) throws RestApiException {
+        RecordedExchange exchange = new RecordedExchange();
+        exchange.setOperation(operation);
+        exchange.setArguments(Arrays.asList(arguments));
+        try {
+            RestApiResponse<T> response = call.execute();
+            exchange.setStatus(response.getStatusCode().value());
+            exchange.setHeaders(response.getHeaders());
+            exchange.setBody(encode(response.getData()));
+            write(exchange);
+            return response;
+        } catch (RestApiException e) {
+            exchange.setStatus(e.getCode());
+            exchange.setHeaders(e.getResponseHeaders());
+            exchange.setBody(e.getResponseBody());
+            exchange.setError(String.valueOf(e.getMessage()));
+            write(exchange);
+            throw e;
+        }
+    }
+
+    private void write(RecordedExchange exchange) {
+        try {
+            corpus.write(exchange);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String encode(Object data) {
+        if (data == null || data instanceof String) {
+            return (String) data;
+        }
+        try {
+            return jsonCodec.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Call<T> {
+        RestApiResponse<T> execute() throws RestApiException;
+    }
+}
@@ -0,0 +1,206 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.replay;
+
+import it.interop.dgc.gateway.client.RestApiClient;
+import it.interop.dgc.gateway.client.base.RestApiException;
+import it.interop.dgc.gateway.client.base.RestApiResponse;
+import it.interop.dgc.gateway.dto.TrustListItemDto;
+import it.interop.dgc.gateway.dto.ValidationRuleDto;
+import it.interop.dgc.gateway.enums.CertificateType;
+import it.interop.dgc.gateway.util.JsonCodec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.springframework.http.HttpStatus;
+
+/**
+ * RestApiClient serving the responses of a GatewayCorpus. Bodies are decoded
+ * with JsonCodec on every call, so replays keep the production decoding cost.
+ * Calls missing from the corpus fail with 404, uploads always succeed.
+ */
+public class ReplayRestApiClient implements RestApiClient {
+
+    private final GatewayCorpus corpus;
+    private final JsonCodec jsonCodec;
+
+    public ReplayRestApiClient(GatewayCorpus corpus, JsonCodec jsonCodec) {
+        this.corpus = corpus;
+        this.jsonCodec = jsonCodec;
+    }
+
+    @Override
+    public RestApiResponse<String> postVerificationInformation(
+        String cms,
+        String countryCode
+    ) {
+        return new RestApiResponse<>(
+            UPLOAD_STATUS_CREATED_201,
+            Collections.emptyMap()
+        );
+    }
+
+    @Override
+    public RestApiResponse<String> revokeVerificationInformation(
+        String cms,
+        String countryCode
+    ) {
+        return new RestApiResponse<>(
+            UPLOAD_STATUS_NO_CONTENT_204,
+            Collections.emptyMap()
+        );
+    }
+
+    @Override
+    public RestApiResponse<List<TrustListItemDto>> downloadTrustList()
+        throws RestApiException {
+        return replay(this::trustList, "downloadTrustList");
+    }
+
+    @Override
+    public RestApiResponse<List<TrustListItemDto>> downloadTrustListFilteredByType(
+        CertificateType type
+    ) throws RestApiException {
+        return replay(
+            this::trustList,
+            "downloadTrustListFilteredByType",
+            type.name()
+        );
+    }
+
+    @Override
+    public RestApiResponse<List<TrustListItemDto>> downloadTrustListFilteredByCountryAndType(
+        CertificateType type,
+        String countryCode
+    ) throws RestApiException {
+        return replay(
+            this::trustList,
+            "downloadTrustListFilteredByCountryAndType",
+            type.name(),
+            countryCode
+        );
+    }
+
+    @Override
+    public RestApiResponse<String> uploadValidationRule(
+        String cms,
+        String countryCode
+    ) {
+        return new RestApiResponse<>(
+            UPLOAD_STATUS_CREATED_201,
+            Collections.emptyMap()
+        );
+    }
+
+    @Override
+    public RestApiResponse<String> deleteValidationRules(
+        String cms,
+        String countryCode
+    ) {
+        return new RestApiResponse<>(
+            UPLOAD_STATUS_NO_CONTENT_204,
+            Collections.emptyMap()
+        );
+    }
+
+    @Override
+    public RestApiResponse<String> downloadCountryList()
+        throws RestApiException {
+        return replay(body -> body, "downloadCountryList");
+    }
+
+    @Override
+    public RestApiResponse<List<String>> getValuesetIds()
+        throws RestApiException {
+        return replay(jsonCodec::readStringList, "getValuesetIds");
+    }
+
+    @Override
+    public RestApiResponse<String> getValueset(String id)
+        throws RestApiException {
+        return replay(body -> body, "getValueset", id);
+    }
+
+    @Override
+    public RestApiResponse<Map<String, List<ValidationRuleDto>>> downloadValidationRules(
+        String country
+    ) throws RestApiException {
+        return replay(
+            body ->
+                jsonCodec.readValidationRules(
+                    body.getBytes(StandardCharsets.UTF_8)
+                ),
+            "downloadValidationRules",
+            country
+        );
+    }
+
+    private List<TrustListItemDto> trustList(String body) throws IOException {
+        return jsonCodec.readTrustList(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private <T> RestApiResponse<T> replay(
+        BodyDecoder<T> decoder,
+        String operation,
+        String... arguments
+    ) throws RestApiException {
+        RecordedExchange exchange;
+        try {
+            exchange = corpus.read(operation, arguments);
+        } catch (IOException e) {
+            throw new RestApiException(e);
+        }
+        if (exchange == null) {
+            throw new RestApiException(
+                "No recorded exchange " +
+                GatewayCorpus.fileName(operation, arguments),
+                HttpStatus.NOT_FOUND.value(),
+                Collections.emptyMap(),
+                null
+            );
+        }
+        if (exchange.getError() != null) {
+            throw new RestApiException(
+                exchange.getError(),
+                exchange.getStatus(),
+                exchange.getHeaders(),
+                exchange.getBody()
+            );
+        }
+        try {
+            return new RestApiResponse<>(
+                HttpStatus.valueOf(exchange.getStatus()),
+                exchange.getHeaders(),
+                exchange.getBody() == null
+                    ? null
+                    : decoder.decode(exchange.getBody())
+            );
+        } catch (IOException e) {
+            throw new RestApiException(
+                "Invalid JSON response",
+                e,
+                exchange.getStatus(),
+                exchange.getHeaders()
+            );
+        }
+    }
+
+    @FunctionalInterface
+    private interface BodyDecoder<T> {
+        T decode(String body) throws IOException;
+    }
+}
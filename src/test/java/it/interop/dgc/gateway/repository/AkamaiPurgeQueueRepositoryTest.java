@@ -0,0 +1,192 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import it.interop.dgc.gateway.client.RestApiClient;
+import it.interop.dgc.gateway.client.base.RestApiClientBase;
+import it.interop.dgc.gateway.entity.AkamaiPurgeRequestEntity;
+import it.interop.dgc.gateway.signing.CertificateSignatureVerifier;
+import it.interop.dgc.gateway.signing.SignatureService;
+import java.util.Collections;
+import java.util.Date;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.AutoConfigureDataMongo;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+@SpringBootTest(
+    properties = {
+        "dgc.worker.upload.schedul=0 0 0 29 2 ?",
+        "dgc.worker.download.schedul=0 0 0 29 2 ?",
+    }
+)
+@AutoConfigureDataMongo
+//prevent @PostConstruct execution
+@MockBean(
+    classes = {
+        SignatureService.class,
+        CertificateSignatureVerifier.class,
+        RestApiClientBase.class,
+        RestApiClient.class,
+    }
+)
+class AkamaiPurgeQueueRepositoryTest {
+
+    private static final String TARGET = "CERTIFICATES";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private AkamaiPurgeQueueRepository akamaiPurgeQueueRepository;
+
+    @BeforeEach
+    void clearRepositoryData() {
+        mongoTemplate.remove(new Query(), AkamaiPurgeRequestEntity.class);
+    }
+
+    @Test
+    void testEnqueue_coalesced() {
+        Date dueAt = new Date(System.currentTimeMillis() - 1000);
+
+        Assertions.assertTrue(akamaiPurgeQueueRepository.enqueue(TARGET, dueAt));
+        Assertions.assertFalse(
+            akamaiPurgeQueueRepository.enqueue(
+                TARGET,
+                new Date(System.currentTimeMillis() + 60000)
+            )
+        );
+
+        Assertions.assertEquals(1, akamaiPurgeQueueRepository.countPending());
+        AkamaiPurgeRequestEntity request = claim(new Date());
+        Assertions.assertEquals(2L, request.getGeneration());
+        // The first request keeps its due date
+        Assertions.assertEquals(dueAt, request.getDueAt());
+    }
+
+    @Test
+    void testClaimDue_notDue() {
+        akamaiPurgeQueueRepository.enqueue(
+            TARGET,
+            new Date(System.currentTimeMillis() + 60000)
+        );
+
+        Assertions.assertNull(claim(new Date()));
+    }
+
+    @Test
+    void testClaimDue_leaseExpiredReclaimed() {
+        long now = System.currentTimeMillis();
+        akamaiPurgeQueueRepository.enqueue(TARGET, new Date(now - 1000));
+
+        Assertions.assertNotNull(
+            akamaiPurgeQueueRepository.claimDue(
+                new Date(now),
+                new Date(now + 60000),
+                Collections.emptySet()
+            )
+        );
+        // Leased: no other replica claims it
+        Assertions.assertNull(claim(new Date(now + 30000)));
+        // The replica holding the lease died: reclaimed once it expires
+        AkamaiPurgeRequestEntity reclaimed = claim(new Date(now + 61000));
+        Assertions.assertNotNull(reclaimed);
+        Assertions.assertEquals(
+            new Date(now + 61000 + 60000),
+            reclaimed.getLockedUntil()
+        );
+    }
+
+    @Test
+    void testClaimDue_excludedIds() {
+        akamaiPurgeQueueRepository.enqueue(
+            TARGET,
+            new Date(System.currentTimeMillis() - 1000)
+        );
+
+        Assertions.assertNull(
+            akamaiPurgeQueueRepository.claimDue(
+                new Date(),
+                new Date(System.currentTimeMillis() + 60000),
+                Collections.singleton(TARGET)
+            )
+        );
+    }
+
+    @Test
+    void testComplete_removed() {
+        akamaiPurgeQueueRepository.enqueue(
+            TARGET,
+            new Date(System.currentTimeMillis() - 1000)
+        );
+
+        Assertions.assertTrue(
+            akamaiPurgeQueueRepository.complete(claim(new Date()))
+        );
+        Assertions.assertEquals(0, akamaiPurgeQueueRepository.countPending());
+    }
+
+    @Test
+    void testComplete_changedWhilePurgingPurgedAgain() {
+        akamaiPurgeQueueRepository.enqueue(
+            TARGET,
+            new Date(System.currentTimeMillis() - 1000)
+        );
+        AkamaiPurgeRequestEntity claimed = claim(new Date());
+
+        // A change requested while the purge runs
+        akamaiPurgeQueueRepository.enqueue(TARGET, new Date());
+
+        Assertions.assertFalse(akamaiPurgeQueueRepository.complete(claimed));
+        Assertions.assertEquals(1, akamaiPurgeQueueRepository.countPending());
+
+        Date dueAt = new Date(System.currentTimeMillis() - 1000);
+        akamaiPurgeQueueRepository.reschedule(TARGET, dueAt, 0, null);
+        AkamaiPurgeRequestEntity again = claim(new Date());
+        Assertions.assertEquals(2L, again.getGeneration());
+        Assertions.assertTrue(akamaiPurgeQueueRepository.complete(again));
+        Assertions.assertEquals(0, akamaiPurgeQueueRepository.countPending());
+    }
+
+    @Test
+    void testReschedule_releasesLease() {
+        akamaiPurgeQueueRepository.enqueue(
+            TARGET,
+            new Date(System.currentTimeMillis() - 1000)
+        );
+        claim(new Date());
+
+        Date dueAt = new Date(System.currentTimeMillis() - 1000);
+        akamaiPurgeQueueRepository.reschedule(TARGET, dueAt, 3, "502");
+
+        AkamaiPurgeRequestEntity retried = claim(new Date());
+        Assertions.assertNotNull(retried);
+        Assertions.assertEquals(3, retried.getAttempts());
+        Assertions.assertEquals("502", retried.getLastError());
+    }
+
+    private AkamaiPurgeRequestEntity claim(Date now) {
+        return akamaiPurgeQueueRepository.claimDue(
+            now,
+            new Date(now.getTime() + 60000),
+            Collections.emptySet()
+        );
+    }
+}
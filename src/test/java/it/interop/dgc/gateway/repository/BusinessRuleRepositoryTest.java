@@ -0,0 +1,149 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import it.interop.dgc.gateway.client.RestApiClient;
+import it.interop.dgc.gateway.client.base.RestApiClientBase;
+import it.interop.dgc.gateway.entity.BusinessRuleEntity;
+import it.interop.dgc.gateway.signing.CertificateSignatureVerifier;
+import it.interop.dgc.gateway.signing.SignatureService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.AutoConfigureDataMongo;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+@SpringBootTest(
+    properties = {
+        "dgc.worker.upload.schedul=0 0 0 29 2 ?",
+        "dgc.worker.download.schedul=0 0 0 29 2 ?",
+    }
+)
+@AutoConfigureDataMongo
+//prevent @PostConstruct execution
+@MockBean(
+    classes = {
+        SignatureService.class,
+        CertificateSignatureVerifier.class,
+        RestApiClientBase.class,
+        RestApiClient.class,
+    }
+)
+class BusinessRuleRepositoryTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private BusinessRuleRepository businessRuleRepository;
+
+    @BeforeEach
+    void clearRepositoryData() {
+        mongoTemplate.remove(new Query(), BusinessRuleEntity.class);
+    }
+
+    @Test
+    void testReconcile_insertAndRevoke() {
+        BusinessRuleEntity kept = businessRuleRepository.save(
+            rule("IT", "GR-IT-0001", "1.0.0")
+        );
+        BusinessRuleEntity replaced = businessRuleRepository.save(
+            rule("IT", "GR-IT-0002", "1.0.0")
+        );
+        BusinessRuleEntity removed = businessRuleRepository.save(
+            rule("DE", "GR-DE-0001", "1.0.0")
+        );
+
+        businessRuleRepository.reconcile(
+            Arrays.asList(
+                rule("IT", "GR-IT-0002", "1.1.0"),
+                rule("FR", "GR-FR-0001", "1.0.0")
+            ),
+            Arrays.asList(replaced.getId(), removed.getId()),
+            "REVOKE-1"
+        );
+
+        Assertions.assertEquals(5, countRules(null));
+        Assertions.assertEquals(3, countRules(false));
+        Assertions.assertEquals(2, countRules(true));
+        for (String id : Arrays.asList(replaced.getId(), removed.getId())) {
+            BusinessRuleEntity revoked = mongoTemplate.findById(
+                id,
+                BusinessRuleEntity.class
+            );
+            Assertions.assertTrue(revoked.isRevoked());
+            Assertions.assertEquals("REVOKE-1", revoked.getRevokedBatchTag());
+            Assertions.assertNotNull(revoked.getRevokedDate());
+        }
+        Assertions.assertFalse(
+            mongoTemplate
+                .findById(kept.getId(), BusinessRuleEntity.class)
+                .isRevoked()
+        );
+
+        Map<String, Map<String, String>> active = businessRuleRepository
+            .getActiveRuleIds();
+        Assertions.assertEquals(2, active.get("IT").size());
+        Assertions.assertEquals(1, active.get("FR").size());
+        Assertions.assertNull(active.get("DE"));
+    }
+
+    @Test
+    void testReconcile_nothingToWrite() {
+        businessRuleRepository.save(rule("IT", "GR-IT-0001", "1.0.0"));
+
+        businessRuleRepository.reconcile(
+            Collections.emptyList(),
+            Collections.emptyList(),
+            "REVOKE-1"
+        );
+
+        Assertions.assertEquals(1, countRules(false));
+        Assertions.assertEquals(0, countRules(true));
+    }
+
+    private long countRules(Boolean revoked) {
+        Query query = new Query();
+        if (revoked != null) {
+            query.addCriteria(Criteria.where("revoked").is(revoked));
+        }
+        return mongoTemplate.count(query, BusinessRuleEntity.class);
+    }
+
+    private static BusinessRuleEntity rule(
+        String country,
+        String identifier,
+        String version
+    ) {
+        BusinessRuleEntity rule = new BusinessRuleEntity();
+        rule.setCountry(country);
+        rule.setIdentifier(identifier);
+        rule.setVersion(version);
+        rule.setHash(identifier + "-" + version);
+        rule.setRawData("{\"Identifier\":\"" + identifier + "\"}");
+        rule.setCreatedAt(new Date());
+        rule.setDownloadBatchTag("DOWNLOAD-1");
+        return rule;
+    }
+}
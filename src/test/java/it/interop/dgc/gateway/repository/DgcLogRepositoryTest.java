@@ -0,0 +1,210 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import it.interop.dgc.gateway.client.RestApiClient;
+import it.interop.dgc.gateway.client.base.RestApiClientBase;
+import it.interop.dgc.gateway.entity.DgcLogAmount;
+import it.interop.dgc.gateway.entity.DgcLogDetailEntity;
+import it.interop.dgc.gateway.entity.DgcLogEntity;
+import it.interop.dgc.gateway.entity.DgcLogInfo;
+import it.interop.dgc.gateway.enums.CertificateType;
+import it.interop.dgc.gateway.signing.CertificateSignatureVerifier;
+import it.interop.dgc.gateway.signing.SignatureService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.AutoConfigureDataMongo;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+@SpringBootTest(
+    properties = {
+        "dgc.worker.upload.schedul=0 0 0 29 2 ?",
+        "dgc.worker.download.schedul=0 0 0 29 2 ?",
+        "dgc.log.inline_limit=2",
+        "dgc.log.chunk_size=2",
+        "dgc.log.detail_policy=CHANGES_ONLY",
+    }
+)
+@AutoConfigureDataMongo
+//prevent @PostConstruct execution
+@MockBean(
+    classes = {
+        SignatureService.class,
+        CertificateSignatureVerifier.class,
+        RestApiClientBase.class,
+        RestApiClient.class,
+    }
+)
+class DgcLogRepositoryTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private DgcLogRepository dgcLogRepository;
+
+    @BeforeEach
+    void clearRepositoryData() {
+        mongoTemplate.remove(new Query(), DgcLogEntity.class);
+        mongoTemplate.remove(new Query(), DgcLogDetailEntity.class);
+    }
+
+    @Test
+    void testSave_inlineUpToLimit() {
+        DgcLogEntity saved = dgcLogRepository.save(
+            downloadLog("200 OK", infos(2, false))
+        );
+
+        DgcLogEntity stored = mongoTemplate.findById(
+            saved.getId(),
+            DgcLogEntity.class
+        );
+        Assertions.assertEquals(2, stored.getDgcLogInfoList().size());
+        Assertions.assertNull(stored.getDgcLogInfoChunks());
+        Assertions.assertEquals(
+            0,
+            mongoTemplate.count(new Query(), DgcLogDetailEntity.class)
+        );
+    }
+
+    @Test
+    void testSave_chunkedOverLimit() {
+        DgcLogEntity saved = dgcLogRepository.save(
+            downloadLog("200 OK", infos(5, false))
+        );
+
+        DgcLogEntity stored = mongoTemplate.findById(
+            saved.getId(),
+            DgcLogEntity.class
+        );
+        Assertions.assertNull(stored.getDgcLogInfoList());
+        Assertions.assertEquals(3, stored.getDgcLogInfoChunks());
+        List<DgcLogDetailEntity> details = mongoTemplate.find(
+            new Query().with(Sort.by("chunk")),
+            DgcLogDetailEntity.class
+        );
+        Assertions.assertEquals(3, details.size());
+        Assertions.assertEquals(
+            Arrays.asList("kid-0", "kid-1", "kid-2", "kid-3", "kid-4"),
+            details
+                .stream()
+                .flatMap(detail -> detail.getDgcLogInfoList().stream())
+                .map(DgcLogInfo::getKid)
+                .collect(Collectors.toList())
+        );
+        details.forEach(detail ->
+            Assertions.assertEquals(saved.getId(), detail.getLogId())
+        );
+    }
+
+    @Test
+    void testSave_changesOnly() {
+        List<DgcLogInfo> infos = infos(3, true);
+        // A new certificate and one with an invalid signature
+        infos.get(1).setAlreadyExists(false);
+        infos.get(2).setVerifiedSign(false);
+        DgcLogEntity log = downloadLog("200 OK", infos);
+
+        DgcLogEntity saved = dgcLogRepository.save(log);
+
+        Assertions.assertNotSame(log, saved);
+        Assertions.assertNull(log.getId());
+        Assertions.assertEquals(3, log.getDgcLogInfoList().size());
+        Assertions.assertEquals(
+            Arrays.asList("kid-1", "kid-2"),
+            mongoTemplate
+                .findById(saved.getId(), DgcLogEntity.class)
+                .getDgcLogInfoList()
+                .stream()
+                .map(DgcLogInfo::getKid)
+                .collect(Collectors.toList())
+        );
+    }
+
+    @Test
+    void testSave_changesOnlyKeepsFailedRuns() {
+        DgcLogEntity saved = dgcLogRepository.save(
+            downloadLog("500 INTERNAL_SERVER_ERROR", infos(2, true))
+        );
+
+        Assertions.assertEquals(
+            2,
+            mongoTemplate
+                .findById(saved.getId(), DgcLogEntity.class)
+                .getDgcLogInfoList()
+                .size()
+        );
+    }
+
+    @Test
+    void testSaveAll_returnsWrittenCopies() {
+        List<DgcLogEntity> logs = Arrays.asList(
+            downloadLog("200 OK", infos(1, false)),
+            downloadLog("200 OK", infos(5, false))
+        );
+
+        List<DgcLogEntity> written = dgcLogRepository.saveAll(logs);
+
+        Assertions.assertEquals(2, written.size());
+        for (int i = 0; i < logs.size(); i++) {
+            Assertions.assertNotNull(written.get(i).getId());
+            Assertions.assertNull(logs.get(i).getId());
+            Assertions.assertEquals(
+                logs.get(i).getBatchTag(),
+                written.get(i).getBatchTag()
+            );
+        }
+    }
+
+    private static DgcLogEntity downloadLog(
+        String report,
+        List<DgcLogInfo> infos
+    ) {
+        return DgcLogEntity.buildDownloadDgcLog(
+            "ALL",
+            "batch-" + infos.size(),
+            report,
+            null,
+            infos,
+            new DgcLogAmount()
+        );
+    }
+
+    private static List<DgcLogInfo> infos(int count, boolean alreadyExists) {
+        List<DgcLogInfo> infos = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            infos.add(
+                new DgcLogInfo(
+                    "kid-" + i,
+                    "IT",
+                    CertificateType.DSC,
+                    true,
+                    alreadyExists
+                )
+            );
+        }
+        return infos;
+    }
+}
@@ -0,0 +1,182 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import it.interop.dgc.gateway.client.RestApiClient;
+import it.interop.dgc.gateway.client.base.RestApiClientBase;
+import it.interop.dgc.gateway.entity.DgcLogAmount;
+import it.interop.dgc.gateway.entity.DgcLogSummaryEntity;
+import it.interop.dgc.gateway.entity.DgcLogSummaryEntity.Granularity;
+import it.interop.dgc.gateway.signing.CertificateSignatureVerifier;
+import it.interop.dgc.gateway.signing.SignatureService;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.AutoConfigureDataMongo;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+@SpringBootTest(
+    properties = {
+        "dgc.worker.upload.schedul=0 0 0 29 2 ?",
+        "dgc.worker.download.schedul=0 0 0 29 2 ?",
+        "dgc.log.summary.hourly_retention_days=30",
+        "dgc.log.summary.daily_retention_days=730",
+    }
+)
+@AutoConfigureDataMongo
+//prevent @PostConstruct execution
+@MockBean(
+    classes = {
+        SignatureService.class,
+        CertificateSignatureVerifier.class,
+        RestApiClientBase.class,
+        RestApiClient.class,
+    }
+)
+class DgcLogSummaryRepositoryTest {
+
+    private static final String SOURCE = "dgc_log";
+    private static final Instant HOUR_10 = Instant.parse(
+        "2021-06-01T10:00:00Z"
+    );
+    private static final Instant HOUR_11 = Instant.parse(
+        "2021-06-01T11:00:00Z"
+    );
+    private static final Instant DAY = Instant.parse("2021-06-01T00:00:00Z");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private DgcLogSummaryRepository dgcLogSummaryRepository;
+
+    @BeforeEach
+    void clearRepositoryData() {
+        mongoTemplate.remove(new Query(), DgcLogSummaryEntity.class);
+    }
+
+    @Test
+    void testRollup_idsAndIncrements() {
+        dgcLogSummaryRepository.rollup(
+            SOURCE,
+            Arrays.asList(
+                run(HOUR_10.plusSeconds(60), false, 2),
+                run(HOUR_10.plusSeconds(1800), true, 3)
+            )
+        );
+        // A later write of the same hour adds to the same rollups
+        dgcLogSummaryRepository.rollup(
+            SOURCE,
+            Arrays.asList(run(HOUR_11.plusSeconds(60), false, 5))
+        );
+
+        DgcLogSummaryEntity hour10 = summary(Granularity.HOUR, HOUR_10);
+        Assertions.assertEquals(2L, hour10.getRuns());
+        Assertions.assertEquals(1L, hour10.getErrors());
+        Assertions.assertEquals(5L, hour10.getAmount().get("num_new_dsc"));
+        Assertions.assertEquals(2L, hour10.getAmount().get("num_revoked"));
+        Assertions.assertEquals("DOWNLOAD", hour10.getOperation());
+        Assertions.assertEquals("ALL", hour10.getScope());
+        Assertions.assertEquals(SOURCE, hour10.getSource());
+
+        DgcLogSummaryEntity hour11 = summary(Granularity.HOUR, HOUR_11);
+        Assertions.assertEquals(1L, hour11.getRuns());
+        Assertions.assertEquals(5L, hour11.getAmount().get("num_new_dsc"));
+
+        DgcLogSummaryEntity day = summary(Granularity.DAY, DAY);
+        Assertions.assertEquals(3L, day.getRuns());
+        Assertions.assertEquals(1L, day.getErrors());
+        Assertions.assertEquals(10L, day.getAmount().get("num_new_dsc"));
+
+        Assertions.assertEquals(
+            3,
+            mongoTemplate.count(new Query(), DgcLogSummaryEntity.class)
+        );
+    }
+
+    @Test
+    void testRollup_expiryByGranularity() {
+        dgcLogSummaryRepository.rollup(
+            SOURCE,
+            Arrays.asList(run(HOUR_10.plusSeconds(60), false, 1))
+        );
+
+        Assertions.assertEquals(
+            new Date(HOUR_10.toEpochMilli() + TimeUnit.DAYS.toMillis(30)),
+            summary(Granularity.HOUR, HOUR_10).getExpireAt()
+        );
+        Assertions.assertEquals(
+            new Date(DAY.toEpochMilli() + TimeUnit.DAYS.toMillis(730)),
+            summary(Granularity.DAY, DAY).getExpireAt()
+        );
+    }
+
+    @Test
+    void testRollup_noRuns() {
+        dgcLogSummaryRepository.rollup(SOURCE, Arrays.asList());
+
+        Assertions.assertEquals(
+            0,
+            mongoTemplate.count(new Query(), DgcLogSummaryEntity.class)
+        );
+    }
+
+    private DgcLogSummaryEntity summary(
+        Granularity granularity,
+        Instant periodStart
+    ) {
+        String id = String.join(
+            "|",
+            granularity.name(),
+            String.valueOf(periodStart.toEpochMilli()),
+            SOURCE,
+            "DOWNLOAD",
+            "ALL"
+        );
+        List<DgcLogSummaryEntity> summaries = mongoTemplate.find(
+            new Query(Criteria.where("_id").is(id)),
+            DgcLogSummaryEntity.class
+        );
+        Assertions.assertEquals(1, summaries.size(), id);
+        return summaries.get(0);
+    }
+
+    private static DgcLogSummaryRepository.Run run(
+        Instant execution,
+        boolean error,
+        int numNewDsc
+    ) {
+        DgcLogAmount amount = new DgcLogAmount();
+        amount.setNumNewDsc(numNewDsc);
+        amount.setNumRevoked(1);
+        return new DgcLogSummaryRepository.Run(
+            "DOWNLOAD",
+            "ALL",
+            Date.from(execution),
+            error,
+            amount
+        );
+    }
+}
@@ -0,0 +1,170 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import it.interop.dgc.gateway.client.RestApiClient;
+import it.interop.dgc.gateway.client.base.RestApiClientBase;
+import it.interop.dgc.gateway.entity.DgcRuleLogAmount;
+import it.interop.dgc.gateway.entity.DgcRuleLogDetailEntity;
+import it.interop.dgc.gateway.entity.DgcRuleLogEntity;
+import it.interop.dgc.gateway.entity.DgcRuleLogInfo;
+import it.interop.dgc.gateway.signing.CertificateSignatureVerifier;
+import it.interop.dgc.gateway.signing.SignatureService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.AutoConfigureDataMongo;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+@SpringBootTest(
+    properties = {
+        "dgc.worker.upload.schedul=0 0 0 29 2 ?",
+        "dgc.worker.download.schedul=0 0 0 29 2 ?",
+        "dgc.log.inline_limit=2",
+        "dgc.log.chunk_size=2",
+        "dgc.log.detail_policy=CHANGES_ONLY",
+    }
+)
+@AutoConfigureDataMongo
+//prevent @PostConstruct execution
+@MockBean(
+    classes = {
+        SignatureService.class,
+        CertificateSignatureVerifier.class,
+        RestApiClientBase.class,
+        RestApiClient.class,
+    }
+)
+class DgcRuleLogRepositoryTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private DgcRuleLogRepository dgcRuleLogRepository;
+
+    @BeforeEach
+    void clearRepositoryData() {
+        mongoTemplate.remove(new Query(), DgcRuleLogEntity.class);
+        mongoTemplate.remove(new Query(), DgcRuleLogDetailEntity.class);
+    }
+
+    @Test
+    void testSave_inlineUpToLimit() {
+        Map<String, List<DgcRuleLogInfo>> infos = new LinkedHashMap<>();
+        infos.put("IT", infos("IT", 1, false));
+        infos.put("DE", infos("DE", 1, false));
+
+        DgcRuleLogEntity saved = dgcRuleLogRepository.save(ruleLog(infos));
+
+        DgcRuleLogEntity stored = mongoTemplate.findById(
+            saved.getId(),
+            DgcRuleLogEntity.class
+        );
+        Assertions.assertEquals(2, stored.getLogInfoList().size());
+        Assertions.assertNull(stored.getLogInfoChunks());
+    }
+
+    @Test
+    void testSave_chunkedPerCountry() {
+        Map<String, List<DgcRuleLogInfo>> infos = new LinkedHashMap<>();
+        infos.put("IT", infos("IT", 3, false));
+        infos.put("DE", infos("DE", 1, false));
+
+        DgcRuleLogEntity saved = dgcRuleLogRepository.save(ruleLog(infos));
+
+        DgcRuleLogEntity stored = mongoTemplate.findById(
+            saved.getId(),
+            DgcRuleLogEntity.class
+        );
+        Assertions.assertNull(stored.getLogInfoList());
+        Assertions.assertEquals(3, stored.getLogInfoChunks());
+        List<String> chunks = mongoTemplate
+            .find(
+                new Query().with(Sort.by("country", "chunk")),
+                DgcRuleLogDetailEntity.class
+            )
+            .stream()
+            .map(detail ->
+                detail.getCountry() +
+                detail.getChunk() +
+                ":" +
+                detail.getLogInfoList().size()
+            )
+            .collect(Collectors.toList());
+        Assertions.assertEquals(Arrays.asList("DE0:1", "IT0:2", "IT1:1"), chunks);
+    }
+
+    @Test
+    void testSave_changesOnly() {
+        Map<String, List<DgcRuleLogInfo>> infos = new LinkedHashMap<>();
+        infos.put("IT", infos("IT", 2, true));
+        infos.get("IT").get(1).setAlreadyExists(false);
+        DgcRuleLogEntity log = ruleLog(infos);
+
+        DgcRuleLogEntity saved = dgcRuleLogRepository.save(log);
+
+        Assertions.assertNotSame(log, saved);
+        Assertions.assertEquals(2, log.getLogInfoList().get("IT").size());
+        List<DgcRuleLogInfo> stored = mongoTemplate
+            .findById(saved.getId(), DgcRuleLogEntity.class)
+            .getLogInfoList()
+            .get("IT");
+        Assertions.assertEquals(1, stored.size());
+        Assertions.assertEquals("IT-rule-1", stored.get(0).getIdentifier());
+    }
+
+    private static DgcRuleLogEntity ruleLog(
+        Map<String, List<DgcRuleLogInfo>> infos
+    ) {
+        return DgcRuleLogEntity.buildDownloadRuleLog(
+            "batch",
+            "200 OK",
+            null,
+            infos,
+            new DgcRuleLogAmount()
+        );
+    }
+
+    private static List<DgcRuleLogInfo> infos(
+        String country,
+        int count,
+        boolean alreadyExists
+    ) {
+        List<DgcRuleLogInfo> infos = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            infos.add(
+                new DgcRuleLogInfo(
+                    country + "-rule-" + i,
+                    "1.0.0",
+                    true,
+                    alreadyExists
+                )
+            );
+        }
+        return infos;
+    }
+}
@@ -0,0 +1,191 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import it.interop.dgc.gateway.client.RestApiClient;
+import it.interop.dgc.gateway.client.base.RestApiClientBase;
+import it.interop.dgc.gateway.entity.BusinessRuleInvalidEntity;
+import it.interop.dgc.gateway.entity.SignerInvalidInformationEntity;
+import it.interop.dgc.gateway.enums.CertificateType;
+import it.interop.dgc.gateway.signing.CertificateSignatureVerifier;
+import it.interop.dgc.gateway.signing.SignatureService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.AutoConfigureDataMongo;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+@SpringBootTest(
+    properties = {
+        "dgc.worker.upload.schedul=0 0 0 29 2 ?",
+        "dgc.worker.download.schedul=0 0 0 29 2 ?",
+    }
+)
+@AutoConfigureDataMongo
+//prevent @PostConstruct execution
+@MockBean(
+    classes = {
+        SignatureService.class,
+        CertificateSignatureVerifier.class,
+        RestApiClientBase.class,
+        RestApiClient.class,
+    }
+)
+class InvalidRepositoriesTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private SignerInvalidInformationRepository signerInvalidInformationRepository;
+
+    @Autowired
+    private BusinessRuleInvalidRepository businessRuleInvalidRepository;
+
+    @BeforeEach
+    void clearRepositoryData() {
+        mongoTemplate.remove(new Query(), SignerInvalidInformationEntity.class);
+        mongoTemplate.remove(new Query(), BusinessRuleInvalidEntity.class);
+    }
+
+    @Test
+    void testSignerInvalid_upsertedOncePerThumbprint() throws Exception {
+        signerInvalidInformationRepository.upsertAll(
+            Arrays.asList(certificate("a", "RUN-1"), certificate("b", "RUN-1"))
+        );
+        SignerInvalidInformationEntity first = signerInvalid("a");
+        Thread.sleep(5);
+
+        signerInvalidInformationRepository.upsertAll(
+            Collections.singletonList(certificate("a", "RUN-2"))
+        );
+
+        Assertions.assertEquals(
+            2,
+            mongoTemplate.count(new Query(), SignerInvalidInformationEntity.class)
+        );
+        SignerInvalidInformationEntity seenTwice = signerInvalid("a");
+        Assertions.assertEquals(2L, seenTwice.getOccurrences());
+        Assertions.assertEquals(first.getFirstSeen(), seenTwice.getFirstSeen());
+        Assertions.assertEquals(first.getCreatedAt(), seenTwice.getCreatedAt());
+        Assertions.assertTrue(
+            seenTwice.getLastSeen().after(first.getLastSeen())
+        );
+        Assertions.assertEquals("RUN-2", seenTwice.getDownloadBatchTag());
+        Assertions.assertEquals("kid-a", seenTwice.getKid());
+        Assertions.assertEquals(1L, signerInvalid("b").getOccurrences());
+    }
+
+    @Test
+    void testBusinessRuleInvalid_upsertedOncePerVersion() throws Exception {
+        businessRuleInvalidRepository.upsertAll(
+            Arrays.asList(
+                rule("GR-IT-0001", "1.0.0", "RUN-1"),
+                rule("GR-IT-0001", "1.1.0", "RUN-1")
+            )
+        );
+        BusinessRuleInvalidEntity first = ruleInvalid("1.0.0");
+        Thread.sleep(5);
+
+        businessRuleInvalidRepository.upsertAll(
+            Collections.singletonList(rule("GR-IT-0001", "1.0.0", "RUN-2"))
+        );
+
+        Assertions.assertEquals(
+            2,
+            mongoTemplate.count(new Query(), BusinessRuleInvalidEntity.class)
+        );
+        BusinessRuleInvalidEntity seenTwice = ruleInvalid("1.0.0");
+        Assertions.assertEquals(2L, seenTwice.getOccurrences());
+        Assertions.assertEquals(first.getFirstSeen(), seenTwice.getFirstSeen());
+        Assertions.assertTrue(
+            seenTwice.getLastSeen().after(first.getLastSeen())
+        );
+        Assertions.assertEquals("RUN-2", seenTwice.getDownloadBatchTag());
+        Assertions.assertEquals("IT", seenTwice.getCountry());
+        Assertions.assertEquals("GR-IT-0001", seenTwice.getIdentifier());
+        Assertions.assertEquals(1L, ruleInvalid("1.1.0").getOccurrences());
+    }
+
+    @Test
+    void testUpsertAll_empty() {
+        signerInvalidInformationRepository.upsertAll(Collections.emptyList());
+        businessRuleInvalidRepository.upsertAll(Collections.emptyList());
+
+        Assertions.assertEquals(
+            0,
+            mongoTemplate.count(new Query(), SignerInvalidInformationEntity.class)
+        );
+        Assertions.assertEquals(
+            0,
+            mongoTemplate.count(new Query(), BusinessRuleInvalidEntity.class)
+        );
+    }
+
+    private SignerInvalidInformationEntity signerInvalid(String thumbprint) {
+        List<SignerInvalidInformationEntity> found = mongoTemplate.find(
+            new Query(Criteria.where("thumbprint").is(thumbprint)),
+            SignerInvalidInformationEntity.class
+        );
+        Assertions.assertEquals(1, found.size());
+        return found.get(0);
+    }
+
+    private BusinessRuleInvalidEntity ruleInvalid(String version) {
+        List<BusinessRuleInvalidEntity> found = mongoTemplate.find(
+            new Query(Criteria.where("version").is(version)),
+            BusinessRuleInvalidEntity.class
+        );
+        Assertions.assertEquals(1, found.size());
+        return found.get(0);
+    }
+
+    private static SignerInvalidInformationEntity certificate(
+        String thumbprint,
+        String batchTag
+    ) {
+        SignerInvalidInformationEntity invalid = new SignerInvalidInformationEntity();
+        invalid.setThumbprint(thumbprint);
+        invalid.setKid("kid-" + thumbprint);
+        invalid.setCountry("IT");
+        invalid.setRawData("raw-" + thumbprint);
+        invalid.setSignature("signature-" + thumbprint);
+        invalid.setCertificateType(CertificateType.DSC);
+        invalid.setDownloadBatchTag(batchTag);
+        return invalid;
+    }
+
+    private static BusinessRuleInvalidEntity rule(
+        String identifier,
+        String version,
+        String batchTag
+    ) {
+        BusinessRuleInvalidEntity invalid = new BusinessRuleInvalidEntity();
+        invalid.setCountry("IT");
+        invalid.setIdentifier(identifier);
+        invalid.setVersion(version);
+        invalid.setRawData("{\"Identifier\":\"" + identifier + "\"}");
+        invalid.setDownloadBatchTag(batchTag);
+        return invalid;
+    }
+}
@@ -0,0 +1,151 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import it.interop.dgc.gateway.client.RestApiClient;
+import it.interop.dgc.gateway.client.base.RestApiClientBase;
+import it.interop.dgc.gateway.entity.SequenceEntity;
+import it.interop.dgc.gateway.signing.CertificateSignatureVerifier;
+import it.interop.dgc.gateway.signing.SignatureService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.AutoConfigureDataMongo;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+@SpringBootTest(
+    properties = {
+        "dgc.worker.upload.schedul=0 0 0 29 2 ?",
+        "dgc.worker.download.schedul=0 0 0 29 2 ?",
+    }
+)
+@AutoConfigureDataMongo
+//prevent @PostConstruct execution
+@MockBean(
+    classes = {
+        SignatureService.class,
+        CertificateSignatureVerifier.class,
+        RestApiClientBase.class,
+        RestApiClient.class,
+    }
+)
+class SequenceRepositoryTest {
+
+    private static final String SEQUENCE = "test_sequence";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private SequenceRepository sequenceRepository;
+
+    @BeforeEach
+    void clearRepositoryData() {
+        mongoTemplate.remove(new Query(), SequenceEntity.class);
+    }
+
+    @Test
+    void testCurrent_missingCounter() {
+        Assertions.assertEquals(0L, sequenceRepository.current(SEQUENCE));
+    }
+
+    @Test
+    void testEnsureAtLeast_neverLowers() {
+        sequenceRepository.ensureAtLeast(SEQUENCE, 100L);
+        Assertions.assertEquals(100L, sequenceRepository.current(SEQUENCE));
+
+        sequenceRepository.ensureAtLeast(SEQUENCE, 40L);
+        Assertions.assertEquals(100L, sequenceRepository.current(SEQUENCE));
+
+        sequenceRepository.ensureAtLeast(SEQUENCE, 120L);
+        Assertions.assertEquals(120L, sequenceRepository.current(SEQUENCE));
+    }
+
+    @Test
+    void testReserve_afterSeed() {
+        sequenceRepository.ensureAtLeast(SEQUENCE, 100L);
+
+        Assertions.assertEquals(101L, sequenceRepository.reserve(SEQUENCE, 5));
+        Assertions.assertEquals(106L, sequenceRepository.reserve(SEQUENCE, 1));
+        Assertions.assertEquals(106L, sequenceRepository.current(SEQUENCE));
+
+        sequenceRepository.ensureAtLeast(SEQUENCE, 50L);
+        Assertions.assertEquals(107L, sequenceRepository.reserve(SEQUENCE, 3));
+    }
+
+    @Test
+    void testReserve_withoutSeed() {
+        Assertions.assertEquals(1L, sequenceRepository.reserve(SEQUENCE, 10));
+        Assertions.assertEquals(10L, sequenceRepository.current(SEQUENCE));
+    }
+
+    @Test
+    void testReserve_concurrentBlocksAreDisjoint() throws Exception {
+        sequenceRepository.ensureAtLeast(SEQUENCE, 1000L);
+        int threads = 8;
+        int reservations = 20;
+        int count = 7;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> starts = new ArrayList<>();
+        try {
+            Callable<Long> task = () -> sequenceRepository.reserve(SEQUENCE, count);
+            for (int i = 0; i < threads * reservations; i++) {
+                starts.add(executor.submit(task));
+            }
+
+            Set<Long> values = new HashSet<>();
+            for (Future<Long> start : starts) {
+                long first = start.get();
+                Assertions.assertTrue(first > 1000L);
+                for (long value = first; value < first + count; value++) {
+                    Assertions.assertTrue(values.add(value));
+                }
+            }
+            Assertions.assertEquals(threads * reservations * count, values.size());
+            Assertions.assertEquals(
+                1000L + values.size(),
+                sequenceRepository.current(SEQUENCE)
+            );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testReserve_invalidCount() {
+        Assertions.assertThrows(
+            IllegalArgumentException.class,
+            () -> sequenceRepository.reserve(SEQUENCE, 0)
+        );
+        Assertions.assertThrows(
+            IllegalArgumentException.class,
+            () -> sequenceRepository.reserve(SEQUENCE, -1)
+        );
+        Assertions.assertEquals(0L, sequenceRepository.current(SEQUENCE));
+    }
+}
@@ -0,0 +1,237 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import it.interop.dgc.gateway.client.RestApiClient;
+import it.interop.dgc.gateway.client.base.RestApiClientBase;
+import it.interop.dgc.gateway.entity.SnapshotMetadataEntity;
+import it.interop.dgc.gateway.entity.ValueSetEntity;
+import it.interop.dgc.gateway.signing.CertificateSignatureVerifier;
+import it.interop.dgc.gateway.signing.SignatureService;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.AutoConfigureDataMongo;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.query.Query;
+
+@SpringBootTest(
+    properties = {
+        "dgc.worker.upload.schedul=0 0 0 29 2 ?",
+        "dgc.worker.download.schedul=0 0 0 29 2 ?",
+    }
+)
+@AutoConfigureDataMongo
+//prevent @PostConstruct execution
+@MockBean(
+    classes = {
+        SignatureService.class,
+        CertificateSignatureVerifier.class,
+        RestApiClientBase.class,
+        RestApiClient.class,
+    }
+)
+class SnapshotRepositoryTest {
+
+    private static final String COLLECTION = "valuesets";
+    private static final String STAGING = COLLECTION + "_staging_";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private SnapshotRepository snapshotRepository;
+
+    @Autowired
+    private ValueSetRepository valueSetRepository;
+
+    @BeforeEach
+    void clearRepositoryData() {
+        mongoTemplate.dropCollection(COLLECTION);
+        mongoTemplate.remove(new Query(), SnapshotMetadataEntity.class);
+        for (String name : mongoTemplate.getCollectionNames()) {
+            if (name.startsWith(STAGING)) {
+                mongoTemplate.dropCollection(name);
+            }
+        }
+    }
+
+    @Test
+    void testReplace_swapsContent() {
+        Assertions.assertTrue(
+            snapshotRepository.replace(
+                ValueSetEntity.class,
+                valuesets("a", "b"),
+                "hash-1"
+            )
+        );
+        Assertions.assertTrue(
+            snapshotRepository.replace(
+                ValueSetEntity.class,
+                valuesets("c"),
+                "hash-2"
+            )
+        );
+
+        Assertions.assertEquals(
+            Arrays.asList("c"),
+            identifiers(valueSetRepository.getAll())
+        );
+        SnapshotMetadataEntity metadata = mongoTemplate.findById(
+            COLLECTION,
+            SnapshotMetadataEntity.class
+        );
+        Assertions.assertEquals("hash-2", metadata.getContentHash());
+        Assertions.assertEquals(1L, metadata.getCount());
+        Assertions.assertTrue(stagingCollections().isEmpty());
+    }
+
+    @Test
+    void testReplace_copiesIndexes() {
+        snapshotRepository.replace(
+            ValueSetEntity.class,
+            valuesets("a"),
+            "hash-1"
+        );
+        mongoTemplate
+            .indexOps(COLLECTION)
+            .ensureIndex(
+                new Index()
+                    .on("identifier_name", Sort.Direction.ASC)
+                    .unique()
+                    .named("identifier_unique")
+            );
+
+        snapshotRepository.replace(
+            ValueSetEntity.class,
+            valuesets("b"),
+            "hash-2"
+        );
+
+        IndexInfo index = mongoTemplate
+            .indexOps(COLLECTION)
+            .getIndexInfo()
+            .stream()
+            .filter(info -> "identifier_unique".equals(info.getName()))
+            .findFirst()
+            .orElse(null);
+        Assertions.assertNotNull(index);
+        Assertions.assertTrue(index.isUnique());
+    }
+
+    @Test
+    void testReplace_sameHashSkipped() {
+        snapshotRepository.replace(
+            ValueSetEntity.class,
+            valuesets("a"),
+            "hash-1"
+        );
+        Date createdAt = mongoTemplate
+            .findById(COLLECTION, SnapshotMetadataEntity.class)
+            .getCreatedAt();
+
+        Assertions.assertFalse(
+            snapshotRepository.replace(
+                ValueSetEntity.class,
+                valuesets("a"),
+                "hash-1"
+            )
+        );
+        Assertions.assertEquals(
+            createdAt,
+            mongoTemplate
+                .findById(COLLECTION, SnapshotMetadataEntity.class)
+                .getCreatedAt()
+        );
+    }
+
+    @Test
+    void testReplace_sameHashRewrittenIfCountDiffers() {
+        snapshotRepository.replace(
+            ValueSetEntity.class,
+            valuesets("a", "b"),
+            "hash-1"
+        );
+        mongoTemplate.remove(new Query().limit(1), COLLECTION);
+
+        Assertions.assertTrue(
+            snapshotRepository.replace(
+                ValueSetEntity.class,
+                valuesets("a", "b"),
+                "hash-1"
+            )
+        );
+        Assertions.assertEquals(2, valueSetRepository.getAll().size());
+    }
+
+    @Test
+    void testDropOrphanStaging() {
+        long now = System.currentTimeMillis();
+        long old = now - TimeUnit.HOURS.toMillis(2);
+        mongoTemplate.createCollection(STAGING + old + "_aborted");
+        // Staging name without a suffix
+        mongoTemplate.createCollection(STAGING + (old - 1));
+        mongoTemplate.createCollection(STAGING + now + "_running");
+        mongoTemplate.createCollection(STAGING + "invalid");
+
+        snapshotRepository.dropOrphanStaging();
+
+        Assertions.assertEquals(
+            Arrays.asList(STAGING + now + "_running", STAGING + "invalid"),
+            stagingCollections()
+        );
+    }
+
+    private List<String> stagingCollections() {
+        return mongoTemplate
+            .getCollectionNames()
+            .stream()
+            .filter(name -> name.startsWith(STAGING))
+            .sorted()
+            .collect(Collectors.toList());
+    }
+
+    private static List<ValueSetEntity> valuesets(String... identifiers) {
+        return Arrays
+            .stream(identifiers)
+            .map(identifier -> {
+                ValueSetEntity valueSet = new ValueSetEntity();
+                valueSet.setIdentifier(identifier);
+                valueSet.setHash("hash-" + identifier);
+                valueSet.setRawData("{\"valueSetId\":\"" + identifier + "\"}");
+                valueSet.setCreatedAt(new Date());
+                return valueSet;
+            })
+            .collect(Collectors.toList());
+    }
+
+    private static List<String> identifiers(List<ValueSetEntity> valuesets) {
+        return valuesets
+            .stream()
+            .map(ValueSetEntity::getIdentifier)
+            .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,108 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.repository;
+
+import it.interop.dgc.gateway.client.RestApiClient;
+import it.interop.dgc.gateway.client.base.RestApiClientBase;
+import it.interop.dgc.gateway.signing.CertificateSignatureVerifier;
+import it.interop.dgc.gateway.signing.SignatureService;
+import org.bson.Document;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.AutoConfigureDataMongo;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+@SpringBootTest(
+    properties = {
+        "dgc.worker.upload.schedul=0 0 0 29 2 ?",
+        "dgc.worker.download.schedul=0 0 0 29 2 ?",
+    }
+)
+@AutoConfigureDataMongo
+//prevent @PostConstruct execution
+@MockBean(
+    classes = {
+        SignatureService.class,
+        CertificateSignatureVerifier.class,
+        RestApiClientBase.class,
+        RestApiClient.class,
+    }
+)
+class TtlIndexesTest {
+
+    private static final String COLLECTION = "ttl_indexes_test";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void dropCollection() {
+        mongoTemplate.dropCollection(COLLECTION);
+        mongoTemplate.createCollection(COLLECTION);
+    }
+
+    @Test
+    void testEnsure_created() {
+        TtlIndexes.ensure(mongoTemplate, COLLECTION, "execution", 3600);
+
+        Assertions.assertEquals(3600L, expireAfterSeconds());
+    }
+
+    @Test
+    void testEnsure_retentionChangedWithCollMod() {
+        TtlIndexes.ensure(mongoTemplate, COLLECTION, "execution", 3600);
+        String name = executionIndex().getString("name");
+
+        TtlIndexes.ensure(mongoTemplate, COLLECTION, "execution", 7200);
+
+        Assertions.assertEquals(7200L, expireAfterSeconds());
+        // Changed in place, not dropped and created again
+        Assertions.assertEquals(name, executionIndex().getString("name"));
+    }
+
+    @Test
+    void testEnsure_indexWithoutTtlLeftAlone() {
+        mongoTemplate
+            .indexOps(COLLECTION)
+            .ensureIndex(new Index().on("execution", Sort.Direction.ASC));
+
+        TtlIndexes.ensure(mongoTemplate, COLLECTION, "execution", 3600);
+
+        Assertions.assertNull(expireAfterSeconds());
+    }
+
+    private Long expireAfterSeconds() {
+        Number expire = executionIndex()
+            .get("expireAfterSeconds", Number.class);
+        return expire == null ? null : expire.longValue();
+    }
+
+    private Document executionIndex() {
+        for (Document index : mongoTemplate
+            .getCollection(COLLECTION)
+            .listIndexes()) {
+            if (index.get("key", Document.class).containsKey("execution")) {
+                return index;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,311 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.simulator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.interop.dgc.gateway.client.RestApiClientImpl;
+import it.interop.dgc.gateway.client.base.ContentEncodingInterceptor;
+import it.interop.dgc.gateway.client.base.GatewayResilience;
+import it.interop.dgc.gateway.enums.CertificateType;
+import it.interop.dgc.gateway.signing.CertificateSignatureVerifier;
+import it.interop.dgc.gateway.signing.CertificateUtils;
+import it.interop.dgc.gateway.util.DscUtil;
+import it.interop.dgc.gateway.util.JsonCodec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Embeddable stub of the EU gateway serving the endpoints used by
+ * RestApiClientImpl over plain HTTP on a random local port:
+ *
+ * <ul>
+ * <li>GET /trustList, /trustList/{type}, /trustList/{type}/{country}</li>
+ * <li>GET /countrylist, /valuesets, /valuesets/{id}, /rules/{country}</li>
+ * <li>POST and DELETE /signerCertificate and /rules</li>
+ * </ul>
+ *
+ * <p>Every full trust-list download after the first one applies the
+ * configured mutation rate, so consecutive sync cycles see certificates and
+ * rules change.
+ */
+@Slf4j
+public class GatewaySimulator implements AutoCloseable {
+
+    @Getter
+    private final GatewaySimulatorConfig config;
+
+    @Getter
+    private final SyntheticGatewayData data;
+
+    private final Random random;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, AtomicLong> requests = new ConcurrentHashMap<>();
+    private final AtomicLong fullDownloads = new AtomicLong();
+
+    private GatewaySimulator(GatewaySimulatorConfig config)
+        throws IOException {
+        this.config = config;
+        this.random = new Random(config.getSeed());
+        long start = System.currentTimeMillis();
+        this.data = new SyntheticGatewayData(config);
+        log.info(
+            "Gateway simulator data generated in {} ms: {} certificates",
+            System.currentTimeMillis() - start,
+            data.trustedCertificateCount()
+        );
+
+        executor = Executors.newFixedThreadPool(config.getThreads());
+        server =
+            HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                0
+            );
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    public static GatewaySimulator start(GatewaySimulatorConfig config)
+        throws IOException {
+        GatewaySimulator simulator = new GatewaySimulator(config);
+        simulator.server.start();
+        log.info("Gateway simulator listening on {}", simulator.getBaseUrl());
+        return simulator;
+    }
+
+    public String getBaseUrl() {
+        return (
+            "http://" +
+            server.getAddress().getHostString() +
+            ":" +
+            server.getAddress().getPort()
+        );
+    }
+
+    /**
+     * @return number of requests served for "METHOD /first-path-segment".
+     */
+    public long getRequestCount(String method, String resource) {
+        AtomicLong count = requests.get(method + " /" + resource);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * A RestApiClientImpl pointed at the simulator over plain HTTP, without
+     * the mTLS key stores its PostConstruct needs.
+     */
+    public RestApiClientImpl createClient(
+        MeterRegistry meterRegistry,
+        JsonCodec jsonCodec
+    ) {
+        RestApiClientImpl client = new RestApiClientImpl();
+        ReflectionTestUtils.setField(client, "baseUrl", getBaseUrl());
+        ReflectionTestUtils.setField(client, "userAgent", "simulator-test");
+        RestTemplate restTemplate = new RestTemplate();
+        restTemplate
+            .getInterceptors()
+            .add(new ContentEncodingInterceptor(meterRegistry, getBaseUrl()));
+        ReflectionTestUtils.setField(client, "restTemplate", restTemplate);
+        ReflectionTestUtils.setField(client, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(client, "jsonCodec", jsonCodec);
+        ReflectionTestUtils.setField(
+            client,
+            "gatewayResilience",
+            createResilience(meterRegistry)
+        );
+        return client;
+    }
+
+    /**
+     * A GatewayResilience retrying quickly, so that injected errors are
+     * retried without slowing the tests down.
+     */
+    public static GatewayResilience createResilience(
+        MeterRegistry meterRegistry
+    ) {
+        GatewayResilience resilience = new GatewayResilience();
+        ReflectionTestUtils.setField(resilience, "maxAttempts", 3);
+        ReflectionTestUtils.setField(resilience, "backoffInitialMillis", 10L);
+        ReflectionTestUtils.setField(resilience, "backoffMaxMillis", 100L);
+        ReflectionTestUtils.setField(resilience, "failureThreshold", 5);
+        ReflectionTestUtils.setField(resilience, "openSeconds", 1L);
+        ReflectionTestUtils.setField(
+            resilience,
+            "meterRegistry",
+            meterRegistry
+        );
+        return resilience;
+    }
+
+    /**
+     * A CertificateSignatureVerifier trusting the simulator trust anchor.
+     */
+    public CertificateSignatureVerifier createVerifier(
+        MeterRegistry meterRegistry,
+        JsonCodec jsonCodec
+    ) {
+        return createVerifier(data.getTrustAnchor(), meterRegistry, jsonCodec);
+    }
+
+    /**
+     * A CertificateSignatureVerifier trusting the given trust anchor, without
+     * the key store its PostConstruct needs.
+     */
+    public static CertificateSignatureVerifier createVerifier(
+        X509CertificateHolder trustAnchor,
+        MeterRegistry meterRegistry,
+        JsonCodec jsonCodec
+    ) {
+        CertificateSignatureVerifier verifier = new CertificateSignatureVerifier();
+        ReflectionTestUtils.setField(
+            verifier,
+            "certificateUtils",
+            new CertificateUtils()
+        );
+        ReflectionTestUtils.setField(verifier, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(verifier, "jsonCodec", jsonCodec);
+        ReflectionTestUtils.setField(verifier, "trustAnchor", trustAnchor);
+        return verifier;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            body.readAllBytes();
+        }
+        String method = exchange.getRequestMethod();
+        String[] path = exchange
+            .getRequestURI()
+            .getPath()
+            .replaceAll("^/+|/+$", "")
+            .split("/");
+        requests
+            .computeIfAbsent(method + " /" + path[0], k -> new AtomicLong())
+            .incrementAndGet();
+
+        try {
+            delay();
+            if (random.nextDouble() < config.getErrorRate()) {
+                respond(exchange, 500, null);
+                return;
+            }
+            if ("GET".equals(method)) {
+                respond(exchange, 200, get(path));
+            } else if (isUpload(path) && "POST".equals(method)) {
+                respond(exchange, 201, new byte[0]);
+            } else if (isUpload(path) && "DELETE".equals(method)) {
+                respond(exchange, 204, null);
+            } else {
+                respond(exchange, 405, null);
+            }
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, null);
+        }
+    }
+
+    private byte[] get(String[] path) {
+        switch (path[0]) {
+            case "trustList":
+                if (path.length == 1) {
+                    if (fullDownloads.getAndIncrement() > 0) {
+                        data.mutate(config.getMutationRate());
+                    }
+                    return data.trustList();
+                }
+                CertificateType type = CertificateType.valueOf(path[1]);
+                return path.length == 2
+                    ? data.trustList(type)
+                    : data.trustList(type, path[2]);
+            case "countrylist":
+                return data.countryList();
+            case "valuesets":
+                return path.length == 1
+                    ? data.valuesetIds()
+                    : data.valueset(path[1]);
+            case "rules":
+                return path.length == 2 ? data.rules(path[1]) : null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isUpload(String[] path) {
+        return (
+            path.length == 1 &&
+            ("signerCertificate".equals(path[0]) || "rules".equals(path[0]))
+        );
+    }
+
+    private void delay() throws InterruptedException {
+        long millis = config.getLatencyMillis();
+        if (config.getLatencyJitterMillis() > 0) {
+            millis +=
+                (long) (random.nextDouble() * config.getLatencyJitterMillis());
+        }
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body)
+        throws IOException {
+        if (status == 200 && body == null) {
+            status = 404;
+        }
+        if (body != null && body.length > 0) {
+            exchange
+                .getResponseHeaders()
+                .set("Content-Type", "application/json");
+            String acceptEncoding = exchange
+                .getRequestHeaders()
+                .getFirst("Accept-Encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                body = DscUtil.gzip(body);
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } else {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        }
+    }
+}
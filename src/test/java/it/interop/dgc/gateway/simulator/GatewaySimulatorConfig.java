@@ -0,0 +1,72 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.simulator;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Size and behaviour of the simulated gateway.
+ */
+@Getter
+@Builder
+public class GatewaySimulatorConfig {
+
+    /** Number of member states, each with its CSCAs and UPLOAD certificate. */
+    @Builder.Default
+    private final int countries = 27;
+
+    @Builder.Default
+    private final int cscaPerCountry = 1;
+
+    /** Total DSCs, spread evenly over the countries. */
+    @Builder.Default
+    private final int dscCount = 1000;
+
+    @Builder.Default
+    private final int rulesPerCountry = 5;
+
+    @Builder.Default
+    private final int valuesetCount = 8;
+
+    @Builder.Default
+    private final SyntheticCertificates.KeyType keyType =
+        SyntheticCertificates.KeyType.EC;
+
+    /** Fixed latency added to every response. */
+    @Builder.Default
+    private final long latencyMillis = 0;
+
+    /** Random extra latency, between 0 and this value. */
+    @Builder.Default
+    private final long latencyJitterMillis = 0;
+
+    /** Fraction of requests answered with 500. */
+    @Builder.Default
+    private final double errorRate = 0;
+
+    /**
+     * Fraction of the DSCs and rules replaced on every full trust-list
+     * download, i.e. once per sync cycle.
+     */
+    @Builder.Default
+    private final double mutationRate = 0;
+
+    @Builder.Default
+    private final int threads = 8;
+
+    @Builder.Default
+    private final long seed = 42;
+}
@@ -0,0 +1,155 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.simulator;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.interop.dgc.gateway.client.RestApiClient;
+import it.interop.dgc.gateway.client.base.RestApiClientBase;
+import it.interop.dgc.gateway.entity.BusinessRuleEntity;
+import it.interop.dgc.gateway.entity.SignerInformationEntity;
+import it.interop.dgc.gateway.signing.CertificateSignatureVerifier;
+import it.interop.dgc.gateway.signing.SignatureService;
+import it.interop.dgc.gateway.util.JsonCodec;
+import it.interop.dgc.gateway.worker.DgcWorker;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.AutoConfigureDataMongo;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Full download cycles of DgcWorker against the gateway simulator, with
+ * real HTTP, JSON decoding and signature verification. Disabled by default:
+ *
+ * <pre>
+ * mvn test -Dtest=GatewaySimulatorLoadTest -Ddgc.simulator.load=true \
+ *     -Ddgc.simulator.dsc=100000 -Ddgc.simulator.cycles=3 \
+ *     -Ddgc.simulator.mutation=0.01
+ * </pre>
+ */
+@Slf4j
+@SpringBootTest(
+    properties = {
+        "dgc.worker.upload.schedul=0 0 0 29 2 ?",
+        "dgc.worker.download.schedul=0 0 0 29 2 ?",
+    }
+)
+@AutoConfigureDataMongo
+//prevent @PostConstruct execution
+@MockBean(
+    classes = {
+        SignatureService.class,
+        CertificateSignatureVerifier.class,
+        RestApiClientBase.class,
+        RestApiClient.class,
+    }
+)
+@EnabledIfSystemProperty(named = "dgc.simulator.load", matches = "true")
+class GatewaySimulatorLoadTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private DgcWorker worker;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private JsonCodec jsonCodec;
+
+    @BeforeEach
+    void clearRepositoryData() {
+        mongoTemplate.remove(new Query(), "business_rules");
+        mongoTemplate.remove(new Query(), "business_rules_invalid");
+        mongoTemplate.remove(new Query(), "business_rules_fingerprint");
+        mongoTemplate.remove(new Query(), "country_list");
+        mongoTemplate.remove(new Query(), "valuesets");
+        mongoTemplate.remove(new Query(), "signer_information");
+        mongoTemplate.remove(new Query(), "signer_invalid_information");
+        mongoTemplate.remove(new Query(), "dgc_log");
+        mongoTemplate.remove(new Query(), "dgc_rule_log");
+    }
+
+    @Test
+    void testDownloadWorker_fullSyncCycles() throws Exception {
+        GatewaySimulatorConfig config = GatewaySimulatorConfig
+            .builder()
+            .dscCount(Integer.getInteger("dgc.simulator.dsc", 10000))
+            .mutationRate(
+                Double.parseDouble(
+                    System.getProperty("dgc.simulator.mutation", "0.01")
+                )
+            )
+            .build();
+        int cycles = Integer.getInteger("dgc.simulator.cycles", 3);
+
+        Object client = ReflectionTestUtils.getField(worker, "client");
+        Object verifier = ReflectionTestUtils.getField(
+            worker,
+            "signatureVerifier"
+        );
+        try (GatewaySimulator simulator = GatewaySimulator.start(config)) {
+            ReflectionTestUtils.setField(
+                worker,
+                "client",
+                simulator.createClient(meterRegistry, jsonCodec)
+            );
+            ReflectionTestUtils.setField(
+                worker,
+                "signatureVerifier",
+                simulator.createVerifier(meterRegistry, jsonCodec)
+            );
+
+            for (int cycle = 1; cycle <= cycles; cycle++) {
+                long start = System.currentTimeMillis();
+                worker.downloadWorker();
+                log.info(
+                    "Sync cycle {} of {} certificates: {} ms",
+                    cycle,
+                    simulator.getData().trustedCertificateCount(),
+                    System.currentTimeMillis() - start
+                );
+
+                Assertions.assertEquals(
+                    simulator.getData().trustedCertificateCount(),
+                    mongoTemplate.count(
+                        Query.query(Criteria.where("revoked").is(false)),
+                        SignerInformationEntity.class
+                    )
+                );
+                Assertions.assertEquals(
+                    config.getCountries() * config.getRulesPerCountry(),
+                    mongoTemplate.count(
+                        Query.query(Criteria.where("revoked").is(false)),
+                        BusinessRuleEntity.class
+                    )
+                );
+            }
+        } finally {
+            ReflectionTestUtils.setField(worker, "client", client);
+            ReflectionTestUtils.setField(worker, "signatureVerifier", verifier);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.simulator;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+/**
+ * Generates keys, certificates and CMS messages shaped like the ones of the
+ * EU gateway.
+ */
+public final class SyntheticCertificates {
+
+    public enum KeyType {
+        EC,
+        RSA,
+    }
+
+    private static final long VALIDITY_MILLIS = TimeUnit.DAYS.toMillis(365);
+    private static final AtomicLong SERIAL = new AtomicLong(
+        System.currentTimeMillis()
+    );
+
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private SyntheticCertificates() {}
+
+    public static KeyPair generateKeyPair(KeyType keyType) {
+        try {
+            KeyPairGenerator generator;
+            if (keyType == KeyType.EC) {
+                generator = KeyPairGenerator.getInstance("EC");
+                generator.initialize(new ECGenParameterSpec("secp256r1"));
+            } else {
+                generator = KeyPairGenerator.getInstance("RSA");
+                generator.initialize(3072);
+            }
+            return generator.generateKeyPair();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static X509CertificateHolder certificate(
+        X500Name subject,
+        KeyPair subjectKeys,
+        X500Name issuer,
+        KeyPair issuerKeys
+    ) {
+        long now = System.currentTimeMillis();
+        try {
+            return new JcaX509v3CertificateBuilder(
+                issuer,
+                BigInteger.valueOf(SERIAL.incrementAndGet()),
+                new Date(now),
+                new Date(now + VALIDITY_MILLIS),
+                subject,
+                subjectKeys.getPublic()
+            )
+                .build(signer(issuerKeys));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * CMS signed data over the payload, detached or with the payload
+     * encapsulated.
+     */
+    public static byte[] cms(
+        X509CertificateHolder signerCertificate,
+        KeyPair signerKeys,
+        byte[] payload,
+        boolean encapsulate
+    ) {
+        try {
+            CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+            generator.addSignerInfoGenerator(
+                new JcaSignerInfoGeneratorBuilder(
+                    new JcaDigestCalculatorProviderBuilder().build()
+                )
+                    .build(signer(signerKeys), signerCertificate)
+            );
+            generator.addCertificate(signerCertificate);
+            return generator
+                .generate(new CMSProcessableByteArray(payload), encapsulate)
+                .getEncoded();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String encode(byte[] bytes) {
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    private static ContentSigner signer(KeyPair keys) throws Exception {
+        String algorithm = "EC".equals(keys.getPrivate().getAlgorithm())
+            ? "SHA256withECDSA"
+            : "SHA256withRSA";
+        return new JcaContentSignerBuilder(algorithm).build(keys.getPrivate());
+    }
+}
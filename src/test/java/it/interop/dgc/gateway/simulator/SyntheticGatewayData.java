@@ -0,0 +1,526 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.simulator;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import it.interop.dgc.gateway.dto.TrustListItemDto;
+import it.interop.dgc.gateway.dto.ValidationRuleDto;
+import it.interop.dgc.gateway.enums.CertificateType;
+import it.interop.dgc.gateway.signing.CertificateUtils;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import lombok.Getter;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509CertificateHolder;
+
+/**
+ * Content of the simulated gateway: a generated trust anchor, per country
+ * CSCAs and an UPLOAD certificate signed by the anchor, DSCs issued by the
+ * CSCAs, rules signed with the UPLOAD certificates and valuesets. Rendered
+ * responses are cached until the next mutation.
+ *
+ * <p>The DSCs of a country share one key pair: every DSC is still a
+ * distinct certificate, and generating 100k of them stays fast.
+ */
+public class SyntheticGatewayData {
+
+    private static final List<String> MEMBER_STATES = Arrays.asList(
+        "AT",
+        "BE",
+        "BG",
+        "HR",
+        "CY",
+        "CZ",
+        "DK",
+        "EE",
+        "FI",
+        "FR",
+        "DE",
+        "GR",
+        "HU",
+        "IE",
+        "IT",
+        "LV",
+        "LT",
+        "LU",
+        "MT",
+        "NL",
+        "PL",
+        "PT",
+        "RO",
+        "SK",
+        "SI",
+        "ES",
+        "SE"
+    );
+
+    private final GatewaySimulatorConfig config;
+    private final Random random;
+    private final ObjectMapper objectMapper;
+    private final CertificateUtils certificateUtils = new CertificateUtils();
+    private final AtomicInteger dscSequence = new AtomicInteger();
+
+    @Getter
+    private final X509CertificateHolder trustAnchor;
+
+    private final KeyPair anchorKeys;
+    private final List<Member> members = new ArrayList<>();
+    private final List<TrustListItemDto> cscas = new ArrayList<>();
+    private final List<TrustListItemDto> uploads = new ArrayList<>();
+    private final List<TrustListItemDto> dscs;
+    private final Map<String, Map<String, ValidationRuleDto>> rules = new LinkedHashMap<>();
+    private final Map<String, String> valuesets = new LinkedHashMap<>();
+    private final Map<String, byte[]> responses = new ConcurrentHashMap<>();
+
+    public SyntheticGatewayData(GatewaySimulatorConfig config) {
+        this.config = config;
+        this.random = new Random(config.getSeed());
+        this.objectMapper =
+            new ObjectMapper()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .addMixIn(TrustListItemDto.class, GatewayDtoMixIn.class)
+                .addMixIn(ValidationRuleDto.class, GatewayDtoMixIn.class);
+
+        anchorKeys = SyntheticCertificates.generateKeyPair(config.getKeyType());
+        X500Name anchorName = new X500Name("CN=Simulator Trust Anchor");
+        trustAnchor =
+            SyntheticCertificates.certificate(
+                anchorName,
+                anchorKeys,
+                anchorName,
+                anchorKeys
+            );
+
+        for (int c = 0; c < config.getCountries(); c++) {
+            Member member = new Member(countryCode(c));
+            members.add(member);
+            for (int i = 0; i < config.getCscaPerCountry(); i++) {
+                cscas.add(member.signedByAnchor(CertificateType.CSCA, i));
+            }
+            uploads.add(member.signedByAnchor(CertificateType.UPLOAD, 0));
+
+            Map<String, ValidationRuleDto> countryRules = new LinkedHashMap<>();
+            for (int r = 0; r < config.getRulesPerCountry(); r++) {
+                String identifier = String.format(
+                    "GR-%s-%04d",
+                    member.country,
+                    r
+                );
+                countryRules.put(identifier, member.rule(identifier, 0));
+            }
+            rules.put(member.country, countryRules);
+        }
+
+        dscs =
+            IntStream
+                .range(0, config.getDscCount())
+                .parallel()
+                .mapToObj(i -> members.get(i % members.size()).dsc())
+                .collect(Collectors.toCollection(ArrayList::new));
+
+        for (int v = 0; v < config.getValuesetCount(); v++) {
+            String id = String.format("valueset-%02d", v);
+            valuesets.put(id, renderValueset(id));
+        }
+    }
+
+    public synchronized byte[] trustList() {
+        return responses.computeIfAbsent(
+            "trustList",
+            k -> write(concat(cscas, uploads, dscs))
+        );
+    }
+
+    public synchronized byte[] trustList(CertificateType type) {
+        return responses.computeIfAbsent(
+            "trustList/" + type,
+            k -> write(byType(type))
+        );
+    }
+
+    public synchronized byte[] trustList(CertificateType type, String country) {
+        return responses.computeIfAbsent(
+            "trustList/" + type + "/" + country,
+            k ->
+                write(
+                    byType(type)
+                        .stream()
+                        .filter(item -> country.equals(item.getCountry()))
+                        .collect(Collectors.toList())
+                )
+        );
+    }
+
+    public synchronized byte[] countryList() {
+        return responses.computeIfAbsent(
+            "countrylist",
+            k ->
+                write(
+                    members
+                        .stream()
+                        .map(member -> member.country)
+                        .collect(Collectors.toList())
+                )
+        );
+    }
+
+    public synchronized byte[] valuesetIds() {
+        return responses.computeIfAbsent(
+            "valuesets",
+            k -> write(new ArrayList<>(valuesets.keySet()))
+        );
+    }
+
+    /**
+     * @return the valueset, or null if the id is unknown.
+     */
+    public synchronized byte[] valueset(String id) {
+        String valueset = valuesets.get(id);
+        return valueset == null
+            ? null
+            : valueset.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the rules of the country by identifier, or null if the
+     * country is unknown.
+     */
+    public synchronized byte[] rules(String country) {
+        Map<String, ValidationRuleDto> countryRules = rules.get(country);
+        if (countryRules == null) {
+            return null;
+        }
+        return responses.computeIfAbsent(
+            "rules/" + country,
+            k -> {
+                Map<String, List<ValidationRuleDto>> body = new LinkedHashMap<>();
+                countryRules.forEach((identifier, rule) ->
+                    body.put(identifier, Arrays.asList(rule))
+                );
+                return write(body);
+            }
+        );
+    }
+
+    /**
+     * Replaces the given fraction of DSCs with new ones and publishes a new
+     * version for the same fraction of rules.
+     */
+    public synchronized void mutate(double rate) {
+        int dscChanges = (int) Math.round(dscs.size() * rate);
+        for (int i = 0; i < dscChanges; i++) {
+            int index = random.nextInt(dscs.size());
+            dscs.set(index, member(dscs.get(index).getCountry()).dsc());
+        }
+
+        List<String[]> ruleKeys = rules
+            .entrySet()
+            .stream()
+            .flatMap(country ->
+                country
+                    .getValue()
+                    .keySet()
+                    .stream()
+                    .map(identifier ->
+                        new String[] { country.getKey(), identifier }
+                    )
+            )
+            .collect(Collectors.toList());
+        int ruleChanges = (int) Math.round(ruleKeys.size() * rate);
+        for (int i = 0; i < ruleChanges; i++) {
+            String[] key = ruleKeys.get(random.nextInt(ruleKeys.size()));
+            Map<String, ValidationRuleDto> countryRules = rules.get(key[0]);
+            int version =
+                Integer.parseInt(
+                    countryRules.get(key[1]).getVersion().substring(4)
+                ) +
+                1;
+            countryRules.put(key[1], member(key[0]).rule(key[1], version));
+        }
+
+        if (dscChanges > 0 || ruleChanges > 0) {
+            responses.clear();
+        }
+    }
+
+    /**
+     * Number of CSCA and DSC items, i.e. the certificates a download cycle
+     * stores as trusted.
+     */
+    public synchronized int trustedCertificateCount() {
+        return cscas.size() + dscs.size();
+    }
+
+    public List<String> getCountries() {
+        return members
+            .stream()
+            .map(member -> member.country)
+            .collect(Collectors.toList());
+    }
+
+    private List<TrustListItemDto> byType(CertificateType type) {
+        if (type == CertificateType.CSCA) {
+            return cscas;
+        } else if (type == CertificateType.UPLOAD) {
+            return uploads;
+        } else if (type == CertificateType.DSC) {
+            return dscs;
+        }
+        return new ArrayList<>();
+    }
+
+    private Member member(String country) {
+        return members
+            .stream()
+            .filter(member -> member.country.equals(country))
+            .findFirst()
+            .orElseThrow(IllegalArgumentException::new);
+    }
+
+    private byte[] write(Object body) {
+        try {
+            return objectMapper.writeValueAsBytes(body);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String renderValueset(String id) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (int i = 0; i < 50; i++) {
+            Map<String, Object> value = new HashMap<>();
+            value.put("display", "Value " + i + " of " + id);
+            value.put("lang", "en");
+            value.put("active", true);
+            value.put("system", "http://simulator.local/" + id);
+            value.put("version", "1.0");
+            values.put(id + "-" + i, value);
+        }
+        Map<String, Object> valueset = new LinkedHashMap<>();
+        valueset.put("valueSetId", id);
+        valueset.put("valueSetDate", "2021-06-01");
+        valueset.put("valueSetValues", values);
+        return new String(write(valueset), StandardCharsets.UTF_8);
+    }
+
+    @SafeVarargs
+    private static List<TrustListItemDto> concat(
+        List<TrustListItemDto>... lists
+    ) {
+        return Stream
+            .of(lists)
+            .flatMap(List::stream)
+            .collect(Collectors.toList());
+    }
+
+    private static String countryCode(int index) {
+        if (index < MEMBER_STATES.size()) {
+            return MEMBER_STATES.get(index);
+        }
+        int synthetic = index - MEMBER_STATES.size();
+        return new String(
+            new char[] {
+                (char) ('A' + synthetic / 26 % 26),
+                (char) ('A' + synthetic % 26),
+            }
+        );
+    }
+
+    private TrustListItemDto item(
+        String country,
+        CertificateType type,
+        X509CertificateHolder certificate,
+        byte[] signature
+    ) {
+        TrustListItemDto item = new TrustListItemDto();
+        item.setKid(certificateUtils.getCertKid(certificate));
+        item.setTimestamp(new Date());
+        item.setCountry(country);
+        item.setCertificateType(type);
+        item.setThumbprint(certificateUtils.getCertThumbprint(certificate));
+        item.setSignature(SyntheticCertificates.encode(signature));
+        item.setRawData(SyntheticCertificates.encode(encoded(certificate)));
+        return item;
+    }
+
+    private static byte[] encoded(X509CertificateHolder certificate) {
+        try {
+            return certificate.getEncoded();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private class Member {
+
+        private final String country;
+        private final X500Name cscaName;
+        private final KeyPair cscaKeys;
+        private final X509CertificateHolder csca;
+        private final KeyPair uploadKeys;
+        private final X509CertificateHolder upload;
+        private final KeyPair dscKeys;
+
+        Member(String country) {
+            this.country = country;
+            cscaName = new X500Name("C=" + country + ",CN=CSCA " + country);
+            cscaKeys = SyntheticCertificates.generateKeyPair(config.getKeyType());
+            csca =
+                SyntheticCertificates.certificate(
+                    cscaName,
+                    cscaKeys,
+                    cscaName,
+                    cscaKeys
+                );
+            X500Name uploadName = new X500Name(
+                "C=" + country + ",CN=UPLOAD " + country
+            );
+            uploadKeys =
+                SyntheticCertificates.generateKeyPair(config.getKeyType());
+            upload =
+                SyntheticCertificates.certificate(
+                    uploadName,
+                    uploadKeys,
+                    uploadName,
+                    uploadKeys
+                );
+            dscKeys = SyntheticCertificates.generateKeyPair(config.getKeyType());
+        }
+
+        /**
+         * The first CSCA is the one issuing the DSCs; further CSCAs are
+         * distinct self-signed certificates with the same keys.
+         */
+        TrustListItemDto signedByAnchor(CertificateType type, int index) {
+            X509CertificateHolder certificate;
+            if (type == CertificateType.UPLOAD) {
+                certificate = upload;
+            } else if (index == 0) {
+                certificate = csca;
+            } else {
+                certificate =
+                    SyntheticCertificates.certificate(
+                        cscaName,
+                        cscaKeys,
+                        cscaName,
+                        cscaKeys
+                    );
+            }
+            return item(
+                country,
+                type,
+                certificate,
+                SyntheticCertificates.cms(
+                    trustAnchor,
+                    anchorKeys,
+                    encoded(certificate),
+                    false
+                )
+            );
+        }
+
+        TrustListItemDto dsc() {
+            X509CertificateHolder certificate = SyntheticCertificates.certificate(
+                new X500Name(
+                    "C=" +
+                    country +
+                    ",CN=DSC " +
+                    country +
+                    " " +
+                    dscSequence.incrementAndGet()
+                ),
+                dscKeys,
+                cscaName,
+                cscaKeys
+            );
+            return item(
+                country,
+                CertificateType.DSC,
+                certificate,
+                SyntheticCertificates.cms(
+                    upload,
+                    uploadKeys,
+                    encoded(certificate),
+                    false
+                )
+            );
+        }
+
+        ValidationRuleDto rule(String identifier, int version) {
+            Date validFrom = new Date(
+                System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)
+            );
+            Date validTo = new Date(
+                System.currentTimeMillis() + TimeUnit.DAYS.toMillis(365)
+            );
+            Map<String, Object> payload = new LinkedHashMap<>();
+            payload.put("Identifier", identifier);
+            payload.put("Type", "Acceptance");
+            payload.put("Country", country);
+            payload.put("Region", "");
+            payload.put("Version", "1.0." + version);
+            payload.put("SchemaVersion", "1.0.0");
+            payload.put("Engine", "CERTLOGIC");
+            payload.put("EngineVersion", "0.7.5");
+            payload.put("CertificateType", "Vaccination");
+            Map<String, String> description = new LinkedHashMap<>();
+            description.put("lang", "en");
+            description.put("desc", "Synthetic rule " + identifier);
+            payload.put("Description", Arrays.asList(description));
+            payload.put("ValidFrom", validFrom);
+            payload.put("ValidTo", validTo);
+            payload.put("AffectedFields", Arrays.asList("v.0", "v.0.dn"));
+            payload.put(
+                "Logic",
+                Map.of("var", Arrays.asList("payload.v.0.dn", identifier))
+            );
+
+            ValidationRuleDto rule = new ValidationRuleDto();
+            rule.setVersion("1.0." + version);
+            rule.setValidFrom(validFrom);
+            rule.setValidTo(validTo);
+            rule.setCms(
+                SyntheticCertificates.encode(
+                    SyntheticCertificates.cms(
+                        upload,
+                        uploadKeys,
+                        write(payload),
+                        true
+                    )
+                )
+            );
+            return rule;
+        }
+    }
+
+    @JsonIgnoreProperties({ "verifiedSign" })
+    private abstract static class GatewayDtoMixIn {}
+}
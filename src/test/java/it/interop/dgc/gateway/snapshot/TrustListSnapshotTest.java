@@ -0,0 +1,147 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.snapshot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.interop.dgc.gateway.entity.SignerInformationEntity;
+import it.interop.dgc.gateway.util.JsonCodec;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TrustListSnapshotTest {
+
+    private static final int PAGE_SIZE = 2;
+
+    @Test
+    void testPage_bounds() throws Exception {
+        TrustListSnapshot snapshot = snapshot(1, 2, 5, 7, 10);
+
+        TrustListSnapshot.Page first = snapshot.page(0, PAGE_SIZE);
+        Assertions.assertEquals("[1,2]", tokens(first.getBody()));
+        Assertions.assertEquals(2, first.getLastResumeToken());
+        Assertions.assertTrue(first.isMore());
+
+        // A token between two certificates starts from the next one
+        TrustListSnapshot.Page between = snapshot.page(3, PAGE_SIZE);
+        Assertions.assertEquals("[5,7]", tokens(between.getBody()));
+        Assertions.assertTrue(between.isMore());
+
+        TrustListSnapshot.Page last = snapshot.page(7, PAGE_SIZE);
+        Assertions.assertEquals("[10]", tokens(last.getBody()));
+        Assertions.assertEquals(10, last.getLastResumeToken());
+        Assertions.assertFalse(last.isMore());
+
+        TrustListSnapshot.Page after = snapshot.page(10, PAGE_SIZE);
+        Assertions.assertEquals("[]", tokens(after.getBody()));
+        Assertions.assertEquals(10, after.getLastResumeToken());
+        Assertions.assertFalse(after.isMore());
+    }
+
+    @Test
+    void testPage_gzipPrebuiltOnDefaultChain() throws Exception {
+        TrustListSnapshot snapshot = snapshot(1, 2, 5, 7, 10);
+
+        for (long resumeToken : new long[] { 0, 2, 7 }) {
+            TrustListSnapshot.Page page = snapshot.page(resumeToken, PAGE_SIZE);
+            Assertions.assertArrayEquals(
+                page.getBody(),
+                gunzip(page.getBodyGzip())
+            );
+        }
+        Assertions.assertNull(snapshot.page(1, PAGE_SIZE).getBodyGzip());
+        Assertions.assertNull(snapshot.page(0, PAGE_SIZE + 1).getBodyGzip());
+        Assertions.assertNull(snapshot.page(10, PAGE_SIZE).getBodyGzip());
+    }
+
+    @Test
+    void testRange_pagesByTokenBucket() throws Exception {
+        TrustListSnapshot snapshot = snapshot(1, 2, 5, 7, 10);
+
+        Assertions.assertEquals(10, snapshot.getLastResumeToken());
+        Assertions.assertEquals("[1,2]", tokens(snapshot.range(0, 5)));
+        Assertions.assertEquals("[5,7]", tokens(snapshot.range(5, 10)));
+        Assertions.assertEquals("[10]", tokens(snapshot.range(10, 15)));
+        Assertions.assertEquals("[]", tokens(snapshot.range(15, 20)));
+    }
+
+    @Test
+    void testRange_revocationOnlyChangesItsBucket() throws Exception {
+        TrustListSnapshot before = snapshot(1, 2, 5, 7, 10);
+        TrustListSnapshot after = snapshot(1, 5, 7, 10, 11);
+
+        Assertions.assertNotEquals(
+            tokens(before.range(0, 5)),
+            tokens(after.range(0, 5))
+        );
+        Assertions.assertArrayEquals(before.range(5, 10), after.range(5, 10));
+    }
+
+    @Test
+    void testEmptySnapshot() throws Exception {
+        TrustListSnapshot snapshot = snapshot();
+
+        Assertions.assertEquals(0, snapshot.size());
+        Assertions.assertEquals(0, snapshot.getLastResumeToken());
+        Assertions.assertEquals("[]", tokens(snapshot.range(0, 5)));
+
+        TrustListSnapshot.Page page = snapshot.page(0, PAGE_SIZE);
+        Assertions.assertEquals("[]", tokens(page.getBody()));
+        Assertions.assertEquals("[]", tokens(gunzip(page.getBodyGzip())));
+        Assertions.assertFalse(page.isMore());
+    }
+
+    static TrustListSnapshot snapshot(long... resumeTokens) throws Exception {
+        List<SignerInformationEntity> activeDsc = new ArrayList<>();
+        for (long resumeToken : resumeTokens) {
+            SignerInformationEntity entity = new SignerInformationEntity();
+            entity.setResumeToken(resumeToken);
+            entity.setKid("kid" + resumeToken);
+            entity.setCountry("IT");
+            entity.setRawData("raw" + resumeToken);
+            activeDsc.add(entity);
+        }
+        return TrustListSnapshot.build(
+            1,
+            activeDsc,
+            PAGE_SIZE,
+            new JsonCodec()
+        );
+    }
+
+    /**
+     * @return the resume tokens of a page body, e.g. "[1,2]".
+     */
+    static String tokens(byte[] body) throws Exception {
+        List<Long> tokens = new ArrayList<>();
+        new ObjectMapper()
+            .readTree(body)
+            .forEach(item -> tokens.add(item.get("resumeToken").asLong()));
+        return tokens.toString().replace(" ", "");
+    }
+
+    static byte[] gunzip(byte[] body) throws Exception {
+        try (
+            GZIPInputStream in = new GZIPInputStream(
+                new ByteArrayInputStream(body)
+            )
+        ) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.util;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+class DscUtilTest {
+
+    @Test
+    void testRetryAfterMillis_seconds() {
+        Assertions.assertEquals(
+            120000L,
+            DscUtil.retryAfterMillis(retryAfter(" 120 "))
+        );
+        Assertions.assertEquals(0L, DscUtil.retryAfterMillis(retryAfter("0")));
+    }
+
+    @Test
+    void testRetryAfterMillis_httpDate() {
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+            ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(60)
+        );
+
+        Long millis = DscUtil.retryAfterMillis(retryAfter(date));
+
+        Assertions.assertNotNull(millis);
+        // The date has a precision of one second
+        Assertions.assertTrue(millis > 58000 && millis <= 60000, "" + millis);
+    }
+
+    @Test
+    void testRetryAfterMillis_pastDate() {
+        Assertions.assertEquals(
+            0L,
+            DscUtil.retryAfterMillis(
+                retryAfter("Wed, 21 Oct 2015 07:28:00 GMT")
+            )
+        );
+    }
+
+    @Test
+    void testRetryAfterMillis_missingOrInvalid() {
+        Assertions.assertNull(DscUtil.retryAfterMillis(null));
+        Assertions.assertNull(DscUtil.retryAfterMillis(new HttpHeaders()));
+        Assertions.assertNull(DscUtil.retryAfterMillis(retryAfter("soon")));
+        Assertions.assertNull(DscUtil.retryAfterMillis(retryAfter("-5")));
+    }
+
+    private static HttpHeaders retryAfter(String value) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, value);
+        return headers;
+    }
+}
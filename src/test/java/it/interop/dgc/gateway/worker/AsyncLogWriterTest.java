@@ -0,0 +1,193 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.worker;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.interop.dgc.gateway.entity.DgcLogEntity;
+import it.interop.dgc.gateway.entity.DgcRuleLogEntity;
+import it.interop.dgc.gateway.repository.DgcLogRepository;
+import it.interop.dgc.gateway.repository.DgcRuleLogRepository;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class AsyncLogWriterTest {
+
+    private static final int QUEUE_CAPACITY = 2;
+
+    private DgcLogRepository dgcLogRepository;
+    private DgcRuleLogRepository dgcRuleLogRepository;
+    private SimpleMeterRegistry meterRegistry;
+    private AsyncLogWriter writer;
+
+    private final AtomicInteger written = new AtomicInteger();
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        dgcLogRepository = Mockito.mock(DgcLogRepository.class);
+        dgcRuleLogRepository = Mockito.mock(DgcRuleLogRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+
+        writer = new AsyncLogWriter();
+        ReflectionTestUtils.setField(writer, "queueCapacity", QUEUE_CAPACITY);
+        ReflectionTestUtils.setField(writer, "batchSize", 10);
+        ReflectionTestUtils.setField(writer, "flushMillis", 50L);
+        ReflectionTestUtils.setField(
+            writer,
+            "dgcLogRepository",
+            dgcLogRepository
+        );
+        ReflectionTestUtils.setField(
+            writer,
+            "dgcRuleLogRepository",
+            dgcRuleLogRepository
+        );
+        ReflectionTestUtils.setField(writer, "meterRegistry", meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        ReflectionTestUtils.invokeMethod(writer, "stop");
+    }
+
+    @Test
+    void testWrite_queueFullDropped() throws Exception {
+        blockWrites();
+        start();
+
+        writer.write(new DgcLogEntity());
+        // Taken by the flusher, which is now writing it
+        Assertions.assertTrue(writing.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < QUEUE_CAPACITY + 1; i++) {
+            writer.write(new DgcLogEntity());
+        }
+
+        Assertions.assertEquals(1, dropped());
+        release.countDown();
+        writer.flush();
+        Assertions.assertEquals(1 + QUEUE_CAPACITY, written.get());
+    }
+
+    @Test
+    void testFlush_waitsForBatchInFlight() throws Exception {
+        blockWrites();
+        start();
+        writer.write(new DgcLogEntity());
+        Assertions.assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        Thread flush = new Thread(writer::flush);
+        flush.start();
+        flush.join(300);
+        Assertions.assertTrue(flush.isAlive());
+
+        release.countDown();
+        flush.join(5000);
+        Assertions.assertFalse(flush.isAlive());
+        Assertions.assertEquals(1, written.get());
+    }
+
+    @Test
+    void testStop_drainsQueue() {
+        countWrites();
+        start();
+        writer.write(new DgcLogEntity());
+        writer.write(new DgcRuleLogEntity());
+
+        ReflectionTestUtils.invokeMethod(writer, "stop");
+
+        Assertions.assertEquals(2, written.get());
+        Assertions.assertFalse(
+            ((Thread) ReflectionTestUtils.getField(writer, "flusher")).isAlive()
+        );
+    }
+
+    @Test
+    void testWrite_retriedOnce() {
+        Mockito
+            .when(dgcLogRepository.saveAll(ArgumentMatchers.any()))
+            .thenThrow(new IllegalStateException("not primary"))
+            .thenReturn(null);
+        start();
+
+        writer.write(new DgcLogEntity());
+        writer.flush();
+
+        Mockito
+            .verify(dgcLogRepository, Mockito.times(2))
+            .saveAll(ArgumentMatchers.any());
+        Assertions.assertEquals(0, dropped());
+    }
+
+    @Test
+    void testWrite_droppedAfterRetry() {
+        Mockito
+            .when(dgcLogRepository.saveAll(ArgumentMatchers.any()))
+            .thenThrow(new IllegalStateException("not primary"));
+        start();
+
+        writer.write(new DgcLogEntity());
+        writer.flush();
+
+        Mockito
+            .verify(dgcLogRepository, Mockito.times(2))
+            .saveAll(ArgumentMatchers.any());
+        Assertions.assertEquals(1, dropped());
+    }
+
+    private void start() {
+        ReflectionTestUtils.invokeMethod(writer, "start");
+    }
+
+    private double dropped() {
+        return meterRegistry.counter(AsyncLogWriter.METRIC_DROPPED).count();
+    }
+
+    private void countWrites() {
+        Mockito
+            .when(dgcLogRepository.saveAll(ArgumentMatchers.any()))
+            .thenAnswer(invocation -> {
+                written.addAndGet(invocation.<List<?>>getArgument(0).size());
+                return null;
+            });
+        Mockito
+            .when(dgcRuleLogRepository.saveAll(ArgumentMatchers.any()))
+            .thenAnswer(invocation -> {
+                written.addAndGet(invocation.<List<?>>getArgument(0).size());
+                return null;
+            });
+    }
+
+    private void blockWrites() {
+        Mockito
+            .when(dgcLogRepository.saveAll(ArgumentMatchers.any()))
+            .thenAnswer(invocation -> {
+                writing.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                written.addAndGet(invocation.<List<?>>getArgument(0).size());
+                return null;
+            });
+    }
+}
@@ -21,6 +21,7 @@ import it.interop.dgc.gateway.client.base.RestApiResponse;
 import it.interop.dgc.gateway.dto.TrustListItemDto;
 import it.interop.dgc.gateway.dto.ValidationRuleDto;
 import it.interop.dgc.gateway.entity.BusinessRuleEntity;
+import it.interop.dgc.gateway.entity.BusinessRuleFingerprintEntity;
 import it.interop.dgc.gateway.entity.BusinessRuleInvalidEntity;
 import it.interop.dgc.gateway.entity.BusinessRuleUploadEntity;
 import it.interop.dgc.gateway.entity.CountryListEntity;
@@ -31,17 +32,25 @@ import it.interop.dgc.gateway.entity.DgcRuleLogEntity;
 import it.interop.dgc.gateway.entity.SignerInformationEntity;
 import it.interop.dgc.gateway.entity.SignerUploadInformationEntity;
 import it.interop.dgc.gateway.entity.ValueSetEntity;
+import it.interop.dgc.gateway.entity.WorkerLockEntity;
 import it.interop.dgc.gateway.enums.CertificateType;
 import it.interop.dgc.gateway.signing.CertificateSignatureVerifier;
 import it.interop.dgc.gateway.signing.SignatureService;
+import it.interop.dgc.gateway.util.BusinessRulesUtils;
 import it.interop.dgc.gateway.util.DscUtil;
 import it.interop.dgc.gateway.worker.testdata.DgcWorkerTestHelper;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -50,13 +59,17 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.boot.test.autoconfigure.data.mongo.AutoConfigureDataMongo;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.ApplicationContext;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.ResourceAccessException;
 
 @SpringBootTest(
     properties = {
@@ -88,6 +101,12 @@ class DgcWorkerTest {
     @Mock
     private CertificateSignatureVerifier signatureVerifier;
 
+    @Autowired
+    private BusinessRulesUtils businessRulesUtils;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
     @Autowired
     @InjectMocks
     private DgcWorker worker;
@@ -96,6 +115,7 @@ class DgcWorkerTest {
     void clearRepositoryData() {
         mongoTemplate.remove(new Query(), "business_rules");
         mongoTemplate.remove(new Query(), "business_rules_invalid");
+        mongoTemplate.remove(new Query(), "business_rules_fingerprint");
         mongoTemplate.remove(new Query(), "business_upload_rules");
         mongoTemplate.remove(new Query(), "countrylist");
         mongoTemplate.remove(new Query(), "valuesets");
@@ -104,6 +124,8 @@ class DgcWorkerTest {
         mongoTemplate.remove(new Query(), "signer_upload_information");
         mongoTemplate.remove(new Query(), "dgc_log");
         mongoTemplate.remove(new Query(), "dgc_rule_log");
+        mongoTemplate.remove(new Query(), "bundles");
+        mongoTemplate.remove(new Query(), "worker_lock");
 
         MockitoAnnotations.initMocks(this);
     }
@@ -171,6 +193,60 @@ class DgcWorkerTest {
         );
     }
 
+    @Test
+    void testUploadWorker_claimReleasedOnFailure() throws Exception {
+        Mockito
+            .when(
+                signatureService.getSignatureForBytes(
+                    DgcWorkerTestHelper.DSC_TO_UPLOAD
+                )
+            )
+            .thenReturn(DgcWorkerTestHelper.SIGNATURE_SERVICE_MOCKDATA);
+        Mockito
+            .when(
+                restApiClient.postVerificationInformation(
+                    DgcWorkerTestHelper.SIGNATURE_SERVICE_MOCKDATA,
+                    "IT"
+                )
+            )
+            .thenThrow(new ResourceAccessException("gateway down"))
+            .thenReturn(
+                new RestApiResponse<String>(
+                    HttpStatus.CREATED,
+                    null,
+                    "201 CREATED"
+                )
+            );
+
+        SignerUploadInformationEntity entityToUpload = new SignerUploadInformationEntity();
+        entityToUpload.setCertificateType(CertificateType.DSC);
+        entityToUpload.setCreatedAt(new Date());
+        entityToUpload.setRevoked(false);
+        entityToUpload.setRawData(DgcWorkerTestHelper.DSC_TO_UPLOAD);
+        mongoTemplate.save(entityToUpload);
+
+        worker.uploadWorker();
+
+        // Failed upload: the claim is released and the cert stays pending
+        SignerUploadInformationEntity failedCert = mongoTemplate.findById(
+            entityToUpload.getId(),
+            SignerUploadInformationEntity.class
+        );
+        Assertions.assertNull(failedCert.getUploadBatchTag());
+        Assertions.assertNull(failedCert.getClaimedBy());
+        Assertions.assertNull(failedCert.getClaimExpiresAt());
+
+        // The next run can claim it again
+        worker.uploadWorker();
+
+        SignerUploadInformationEntity uploadedCert = mongoTemplate.findById(
+            entityToUpload.getId(),
+            SignerUploadInformationEntity.class
+        );
+        Assertions.assertNotNull(uploadedCert.getUploadBatchTag());
+        Assertions.assertNull(uploadedCert.getClaimedBy());
+    }
+
     @Test
     void testUploadWorker_revokeExistingCert() throws Exception {
         Mockito
@@ -449,6 +525,190 @@ class DgcWorkerTest {
         );
     }
 
+    @Test
+    void testDownloadWorker_failedSyncNotPublished() throws Exception {
+        Mockito
+            .when(restApiClient.downloadTrustList())
+            .thenThrow(new ResourceAccessException("gateway down"));
+
+        RestApiResponse<String> countryListResponse = DgcWorkerTestHelper.getCountryList();
+        Mockito
+            .when(restApiClient.downloadCountryList())
+            .thenReturn(countryListResponse);
+
+        RestApiResponse<List<String>> emptyValueSets = DgcWorkerTestHelper.getEmptyValueSetsResponse();
+        Mockito.when(restApiClient.getValuesetIds()).thenReturn(emptyValueSets);
+
+        RestApiResponse<List<TrustListItemDto>> emptyUploadCerts = DgcWorkerTestHelper.getEmptyUploadCertsResponse();
+        Mockito
+            .when(
+                restApiClient.downloadTrustListFilteredByType(
+                    CertificateType.UPLOAD
+                )
+            )
+            .thenReturn(emptyUploadCerts);
+        worker.downloadWorker();
+
+        // The later phases still run, but nothing is published
+        Assertions.assertEquals(
+            1,
+            mongoTemplate.count(new Query(), CountryListEntity.class)
+        );
+        Assertions.assertEquals(0, mongoTemplate.count(new Query(), "bundles"));
+    }
+
+    @Test
+    void testDownloadWorker_lockHeldByOtherReplica() throws Exception {
+        WorkerLockEntity otherLease = new WorkerLockEntity();
+        otherLease.setId(DgcWorker.DOWNLOAD_LEASE);
+        otherLease.setOwner("other-replica");
+        otherLease.setToken(7L);
+        otherLease.setAcquiredAt(new Date());
+        otherLease.setExpiresAt(new Date(System.currentTimeMillis() + 60000));
+        mongoTemplate.save(otherLease);
+
+        worker.downloadWorker();
+
+        // The whole run is skipped and nothing is published
+        Mockito.verifyNoInteractions(restApiClient);
+        Assertions.assertEquals(
+            0,
+            mongoTemplate.count(new Query(), SignerInformationEntity.class)
+        );
+        Assertions.assertEquals(0, mongoTemplate.count(new Query(), "bundles"));
+
+        // The lease is untouched and the failed attempt used no token
+        WorkerLockEntity lease = mongoTemplate.findById(
+            DgcWorker.DOWNLOAD_LEASE,
+            WorkerLockEntity.class
+        );
+        Assertions.assertEquals("other-replica", lease.getOwner());
+        Assertions.assertEquals(7L, lease.getToken());
+        Assertions.assertNull(
+            mongoTemplate.findById(
+                "token:" + DgcWorker.DOWNLOAD_LEASE,
+                WorkerLockEntity.class
+            )
+        );
+    }
+
+    @Test
+    void testDownloadWorker_twoReplicasPublish() throws Exception {
+        RestApiResponse<List<TrustListItemDto>> emptyTrustList = DgcWorkerTestHelper.getEmptyTrustListResponse();
+        Mockito
+            .when(restApiClient.downloadTrustList())
+            .thenReturn(emptyTrustList);
+
+        RestApiResponse<String> emptyList = DgcWorkerTestHelper.getEmptyCountryListResponse();
+        Mockito.when(restApiClient.downloadCountryList()).thenReturn(emptyList);
+
+        RestApiResponse<List<String>> emptyValueSets = DgcWorkerTestHelper.getEmptyValueSetsResponse();
+        Mockito.when(restApiClient.getValuesetIds()).thenReturn(emptyValueSets);
+
+        RestApiResponse<List<TrustListItemDto>> emptyUploadCerts = DgcWorkerTestHelper.getEmptyUploadCertsResponse();
+        Mockito
+            .when(
+                restApiClient.downloadTrustListFilteredByType(
+                    CertificateType.UPLOAD
+                )
+            )
+            .thenReturn(emptyUploadCerts);
+
+        DgcWorker otherReplica = otherReplica();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService replicas = Executors.newFixedThreadPool(2);
+        List<Future<?>> runs = new ArrayList<>();
+        for (DgcWorker replica : Arrays.asList(worker, otherReplica)) {
+            runs.add(
+                replicas.submit(() -> {
+                    start.await();
+                    replica.downloadWorker();
+                    return null;
+                })
+            );
+        }
+        start.countDown();
+        for (Future<?> run : runs) {
+            run.get(60, TimeUnit.SECONDS);
+        }
+        replicas.shutdown();
+
+        // One replica ran every phase, so the bundles are published; the
+        // other one skipped the slot, even if its tick came after the run
+        Mockito.verify(restApiClient, Mockito.times(1)).downloadTrustList();
+        Assertions.assertTrue(mongoTemplate.count(new Query(), "bundles") > 0);
+    }
+
+    @Test
+    void testDownloadWorker_leaseHeldUntilNextTick() throws Exception {
+        RestApiResponse<List<TrustListItemDto>> emptyTrustList = DgcWorkerTestHelper.getEmptyTrustListResponse();
+        Mockito
+            .when(restApiClient.downloadTrustList())
+            .thenReturn(emptyTrustList);
+
+        RestApiResponse<String> emptyList = DgcWorkerTestHelper.getEmptyCountryListResponse();
+        Mockito.when(restApiClient.downloadCountryList()).thenReturn(emptyList);
+
+        RestApiResponse<List<String>> emptyValueSets = DgcWorkerTestHelper.getEmptyValueSetsResponse();
+        Mockito.when(restApiClient.getValuesetIds()).thenReturn(emptyValueSets);
+
+        RestApiResponse<List<TrustListItemDto>> emptyUploadCerts = DgcWorkerTestHelper.getEmptyUploadCertsResponse();
+        Mockito
+            .when(
+                restApiClient.downloadTrustListFilteredByType(
+                    CertificateType.UPLOAD
+                )
+            )
+            .thenReturn(emptyUploadCerts);
+        worker.downloadWorker();
+
+        // The completed run keeps its lease until the next tick (29 Feb)
+        WorkerLockEntity lease = mongoTemplate.findById(
+            DgcWorker.DOWNLOAD_LEASE,
+            WorkerLockEntity.class
+        );
+        Assertions.assertNotNull(lease);
+        Assertions.assertTrue(
+            lease.getExpiresAt().getTime() >
+            System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)
+        );
+
+        // A later tick of another replica in the same slot is skipped
+        otherReplica().downloadWorker();
+        Mockito.verify(restApiClient, Mockito.times(1)).downloadTrustList();
+    }
+
+    /**
+     * A second DgcWorker with its own lease owner and run guard, sharing the
+     * mocked gateway client.
+     */
+    private DgcWorker otherReplica() {
+        AutowireCapableBeanFactory beanFactory = applicationContext.getAutowireCapableBeanFactory();
+        DgcWorker replica = beanFactory.createBean(DgcWorker.class);
+        ReflectionTestUtils.setField(
+            replica,
+            "workerLock",
+            beanFactory.createBean(WorkerLock.class)
+        );
+        ReflectionTestUtils.setField(
+            replica,
+            "workerRunGuard",
+            beanFactory.createBean(WorkerRunGuard.class)
+        );
+        ReflectionTestUtils.setField(replica, "client", restApiClient);
+        ReflectionTestUtils.setField(
+            replica,
+            "signatureVerifier",
+            signatureVerifier
+        );
+        ReflectionTestUtils.setField(
+            replica,
+            "signatureService",
+            signatureService
+        );
+        return replica;
+    }
+
     @Test
     void testDownloadWorker_getCountryList() throws Exception {
         RestApiResponse<List<TrustListItemDto>> emptyTrustList = DgcWorkerTestHelper.getEmptyTrustListResponse();
@@ -815,6 +1075,177 @@ class DgcWorkerTest {
         Assertions.assertEquals("200 OK", log.getExecutionReport());
     }
 
+    @Test
+    void testDownloadWorker_getBusinessRules_unchangedSkippedChangedEmptied()
+        throws Exception {
+        RestApiResponse<List<TrustListItemDto>> emptyTrustList = DgcWorkerTestHelper.getEmptyTrustListResponse();
+        Mockito
+            .when(restApiClient.downloadTrustList())
+            .thenReturn(emptyTrustList);
+
+        RestApiResponse<String> countryListResponse = DgcWorkerTestHelper.getCountryListEuIt();
+        Mockito
+            .when(restApiClient.downloadCountryList())
+            .thenReturn(countryListResponse);
+
+        RestApiResponse<List<String>> emptyValueSets = DgcWorkerTestHelper.getEmptyValueSetsResponse();
+        Mockito.when(restApiClient.getValuesetIds()).thenReturn(emptyValueSets);
+
+        RestApiResponse<List<TrustListItemDto>> uploadCerts = DgcWorkerTestHelper.getUploadCertsResponse();
+        Mockito
+            .when(
+                restApiClient.downloadTrustListFilteredByType(
+                    CertificateType.UPLOAD
+                )
+            )
+            .thenReturn(uploadCerts);
+
+        // EU: same rule set as the last sync
+        RestApiResponse<Map<String, List<ValidationRuleDto>>> ruleResp = DgcWorkerTestHelper.getRulesResponse();
+        Mockito
+            .when(restApiClient.downloadValidationRules("EU"))
+            .thenReturn(ruleResp);
+        // IT: all rules withdrawn
+        Mockito
+            .when(restApiClient.downloadValidationRules("IT"))
+            .thenReturn(DgcWorkerTestHelper.getEmptyRulesResponse());
+
+        BusinessRuleEntity euRule = saveActiveRule("EU", "GR-EU-0001");
+        BusinessRuleEntity itRule = saveActiveRule("IT", "GR-IT-0001");
+
+        BusinessRuleFingerprintEntity euFingerprint = new BusinessRuleFingerprintEntity();
+        euFingerprint.setCountry("EU");
+        euFingerprint.setFingerprint(
+            businessRulesUtils.calculateRuleSetFingerprint(
+                ruleResp.getData(),
+                null
+            )
+        );
+        euFingerprint.setRuleCount(1);
+        mongoTemplate.save(euFingerprint);
+
+        worker.downloadWorker();
+
+        // Unchanged country: not verified, rule left active
+        Mockito
+            .verify(signatureVerifier, Mockito.never())
+            .checkRuleUploadCertificate(
+                Mockito.any(),
+                Mockito.any(),
+                Mockito.eq("EU")
+            );
+        Assertions.assertFalse(
+            mongoTemplate
+                .findById(euRule.getId(), BusinessRuleEntity.class)
+                .isRevoked()
+        );
+
+        // Emptied country: stale rule revoked and new fingerprint stored
+        BusinessRuleEntity revokedRule = mongoTemplate.findById(
+            itRule.getId(),
+            BusinessRuleEntity.class
+        );
+        Assertions.assertTrue(revokedRule.isRevoked());
+        Assertions.assertNotNull(revokedRule.getRevokedBatchTag());
+
+        BusinessRuleFingerprintEntity itFingerprint = mongoTemplate.findById(
+            "IT",
+            BusinessRuleFingerprintEntity.class
+        );
+        Assertions.assertNotNull(itFingerprint);
+        Assertions.assertEquals(0, itFingerprint.getRuleCount());
+
+        Query queryLog = new Query();
+        queryLog.addCriteria(
+            Criteria
+                .where("batch_tag")
+                .is(revokedRule.getRevokedBatchTag())
+        );
+        queryLog.addCriteria(
+            Criteria.where("item_type").is(DgcRuleLogEntity.ItemType.RULES)
+        );
+        DgcRuleLogEntity log = mongoTemplate.findOne(
+            queryLog,
+            DgcRuleLogEntity.class
+        );
+        Assertions.assertEquals(1, log.getLogAmount().getNum());
+        Assertions.assertEquals(
+            1,
+            log.getLogAmount().getNumUnchangedCountries()
+        );
+        Assertions.assertEquals(1, log.getLogAmount().getNumRevoked());
+    }
+
+    @Test
+    void testDownloadWorker_getBusinessRules_unchangedNotRewritten()
+        throws Exception {
+        RestApiResponse<List<TrustListItemDto>> emptyTrustList = DgcWorkerTestHelper.getEmptyTrustListResponse();
+        Mockito
+            .when(restApiClient.downloadTrustList())
+            .thenReturn(emptyTrustList);
+
+        RestApiResponse<String> countryListResponse = DgcWorkerTestHelper.getCountryListItOnly();
+        Mockito
+            .when(restApiClient.downloadCountryList())
+            .thenReturn(countryListResponse);
+
+        RestApiResponse<List<String>> emptyValueSets = DgcWorkerTestHelper.getEmptyValueSetsResponse();
+        Mockito.when(restApiClient.getValuesetIds()).thenReturn(emptyValueSets);
+
+        RestApiResponse<List<TrustListItemDto>> uploadCerts = DgcWorkerTestHelper.getUploadCertsResponse();
+        Mockito
+            .when(
+                restApiClient.downloadTrustListFilteredByType(
+                    CertificateType.UPLOAD
+                )
+            )
+            .thenReturn(uploadCerts);
+
+        RestApiResponse<Map<String, List<ValidationRuleDto>>> ruleResp = DgcWorkerTestHelper.getRulesResponse();
+        Mockito
+            .when(restApiClient.downloadValidationRules("EU"))
+            .thenReturn(ruleResp);
+        Mockito
+            .when(
+                signatureVerifier.checkRuleUploadCertificate(
+                    ruleResp.getData().get("GR-EU-0001").get(0),
+                    null,
+                    "EU"
+                )
+            )
+            .thenReturn(true);
+        Mockito
+            .when(
+                signatureVerifier.map(
+                    ruleResp.getData().get("GR-EU-0001").get(0)
+                )
+            )
+            .thenReturn(DgcWorkerTestHelper.getDummyValidationRule());
+
+        // First sync verifies and stores the rule, the second one skips it
+        worker.downloadWorker();
+        worker.downloadWorker();
+
+        Mockito
+            .verify(signatureVerifier, Mockito.times(1))
+            .checkRuleUploadCertificate(
+                Mockito.any(),
+                Mockito.any(),
+                Mockito.eq("EU")
+            );
+        List<BusinessRuleEntity> businessRules = mongoTemplate.findAll(
+            BusinessRuleEntity.class
+        );
+        Assertions.assertEquals(1, businessRules.size());
+        Assertions.assertFalse(businessRules.get(0).isRevoked());
+        Assertions.assertEquals(
+            1,
+            mongoTemplate
+                .findById("EU", BusinessRuleFingerprintEntity.class)
+                .getRuleCount()
+        );
+    }
+
     @Test
     void testUploadWorker_uploadNewBusinessRule() throws Exception {
         String base64RawData = Base64
@@ -945,4 +1376,19 @@ class DgcWorkerTest {
     void testGetOriginCountry() {
         Assertions.assertEquals("IT", worker.getOriginCountry());
     }
+
+    private BusinessRuleEntity saveActiveRule(
+        String country,
+        String identifier
+    ) {
+        BusinessRuleEntity rule = new BusinessRuleEntity();
+        rule.setCountry(country);
+        rule.setIdentifier(identifier);
+        rule.setVersion("1.0.0");
+        rule.setHash(identifier + "-HASH");
+        rule.setRawData("{}");
+        rule.setRevoked(false);
+        rule.setDownloadBatchTag("MANUALLY");
+        return mongoTemplate.save(rule);
+    }
 }
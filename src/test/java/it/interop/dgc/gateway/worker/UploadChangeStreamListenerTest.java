@@ -0,0 +1,188 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.worker;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class UploadChangeStreamListenerTest {
+
+    @Test
+    void testFilter_newDocumentToSend() {
+        Assertions.assertTrue(matches(event("insert", new Document())));
+        Assertions.assertTrue(matches(event("replace", new Document())));
+    }
+
+    @Test
+    void testFilter_newDocumentToRevoke() {
+        Document toRevoke = new Document("batch_tag", "UPLOAD-1")
+            .append("revoked", true);
+
+        Assertions.assertTrue(matches(event("insert", toRevoke)));
+        Assertions.assertTrue(matches(event("replace", toRevoke)));
+    }
+
+    @Test
+    void testFilter_revokedFlagSet() {
+        Document update = new Document("operationType", "update")
+            .append(
+                "updateDescription",
+                new Document(
+                    "updatedFields",
+                    new Document("revoked", true)
+                )
+            );
+
+        Assertions.assertTrue(matches(update));
+    }
+
+    @Test
+    void testFilter_workerWritesIgnored() {
+        // Claims and batch tags written by the worker itself
+        Assertions.assertFalse(
+            matches(updated(new Document("claimed_by", "replica-1")))
+        );
+        Assertions.assertFalse(
+            matches(updated(new Document("batch_tag", "UPLOAD-1")))
+        );
+        Assertions.assertFalse(
+            matches(updated(new Document("batch_tag_revoke", "REVOKE-1")))
+        );
+        // Already uploaded, already revoked
+        Assertions.assertFalse(
+            matches(event("replace", new Document("batch_tag", "UPLOAD-1")))
+        );
+        Assertions.assertFalse(
+            matches(
+                event(
+                    "replace",
+                    new Document("batch_tag", "UPLOAD-1")
+                        .append("revoked", true)
+                        .append("batch_tag_revoke", "REVOKE-1")
+                )
+            )
+        );
+        Assertions.assertFalse(
+            matches(new Document("operationType", "delete"))
+        );
+    }
+
+    @Test
+    void testTrigger_coalescedOnUploadLane() {
+        DgcWorker dgcWorker = Mockito.mock(DgcWorker.class);
+        ThreadPoolTaskScheduler uploadTaskScheduler = Mockito.mock(
+            ThreadPoolTaskScheduler.class
+        );
+        UploadChangeStreamListener listener = new UploadChangeStreamListener();
+        ReflectionTestUtils.setField(listener, "dgcWorker", dgcWorker);
+        ReflectionTestUtils.setField(
+            listener,
+            "uploadTaskScheduler",
+            uploadTaskScheduler
+        );
+
+        listener.trigger();
+        listener.trigger();
+        listener.trigger();
+
+        ArgumentCaptor<Runnable> run = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(uploadTaskScheduler).execute(run.capture());
+        Mockito.verifyNoInteractions(dgcWorker);
+
+        run.getValue().run();
+        Mockito.verify(dgcWorker).uploadWorker();
+
+        // Events after the queued run started queue a new one
+        listener.trigger();
+        Mockito
+            .verify(uploadTaskScheduler, Mockito.times(2))
+            .execute(run.capture());
+    }
+
+    private static Document event(
+        String operationType,
+        Document fullDocument
+    ) {
+        return new Document("operationType", operationType)
+            .append("fullDocument", fullDocument);
+    }
+
+    private static Document updated(Document updatedFields) {
+        return new Document("operationType", "update")
+            .append(
+                "updateDescription",
+                new Document("updatedFields", updatedFields)
+            );
+    }
+
+    private static boolean matches(Document event) {
+        return matches(
+            UploadChangeStreamListener.toUploadFilter().getCriteriaObject(),
+            event
+        );
+    }
+
+    /**
+     * Evaluates the subset of the query language used by the filter:
+     * $or, $in and equality, where null also matches a missing field.
+     */
+    private static boolean matches(Document filter, Document event) {
+        for (Map.Entry<String, Object> condition : filter.entrySet()) {
+            if ("$or".equals(condition.getKey())) {
+                boolean any = false;
+                for (Object clause : (List<?>) condition.getValue()) {
+                    any |= matches((Document) clause, event);
+                }
+                if (!any) {
+                    return false;
+                }
+                continue;
+            }
+            Object value = field(event, condition.getKey());
+            Object expected = condition.getValue();
+            if (expected instanceof Document) {
+                Object in = ((Document) expected).get("$in");
+                Assertions.assertNotNull(in, "Unsupported: " + expected);
+                if (!((Collection<?>) in).contains(value)) {
+                    return false;
+                }
+            } else if (
+                expected == null ? value != null : !expected.equals(value)
+            ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Object field(Document document, String path) {
+        Object value = document;
+        for (String key : path.split("\\.")) {
+            if (!(value instanceof Document)) {
+                return null;
+            }
+            value = ((Document) value).get(key);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,80 @@
+/*-
+ *   Copyright (C) 2021 Ministero della Salute and all other contributors.
+ *   Please refer to the AUTHORS file for more information.
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Affero General Public License as
+ *   published by the Free Software Foundation, either version 3 of the
+ *   License, or (at your option) any later version.
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *   GNU Affero General Public License for more details.
+ *   You should have received a copy of the GNU Affero General Public License
+ *   along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package it.interop.dgc.gateway.worker;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.scheduling.support.SimpleTriggerContext;
+
+class WorkerCronTriggerTest {
+
+    @Test
+    void testNextExecutionTime_countsSkippedTicks() {
+        WorkerRunGuard runGuard = Mockito.mock(WorkerRunGuard.class);
+        WorkerCronTrigger trigger = new WorkerCronTrigger(
+            WorkerSchedulerConfig.DOWNLOAD_LANE,
+            "0 * * ? * *",
+            runGuard
+        );
+
+        // Run scheduled at 10:00 and completed at 10:03:30
+        Date next = trigger.nextExecutionTime(
+            new SimpleTriggerContext(
+                at(10, 0, 0),
+                at(10, 0, 0),
+                at(10, 3, 30)
+            )
+        );
+
+        Assertions.assertEquals(at(10, 4, 0), next);
+        Mockito
+            .verify(runGuard)
+            .skipped(WorkerSchedulerConfig.DOWNLOAD_LANE, 3);
+    }
+
+    @Test
+    void testNextExecutionTime_noSkippedTicks() {
+        WorkerRunGuard runGuard = Mockito.mock(WorkerRunGuard.class);
+        WorkerCronTrigger trigger = new WorkerCronTrigger(
+            WorkerSchedulerConfig.DOWNLOAD_LANE,
+            "0 * * ? * *",
+            runGuard
+        );
+
+        Date next = trigger.nextExecutionTime(
+            new SimpleTriggerContext(
+                at(10, 0, 0),
+                at(10, 0, 0),
+                at(10, 0, 20)
+            )
+        );
+
+        Assertions.assertEquals(at(10, 1, 0), next);
+        Mockito.verifyNoInteractions(runGuard);
+    }
+
+    private static Date at(int hour, int minute, int second) {
+        return Date.from(
+            LocalDateTime
+                .of(2021, 6, 1, hour, minute, second)
+                .atZone(ZoneId.systemDefault())
+                .toInstant()
+        );
+    }
+}
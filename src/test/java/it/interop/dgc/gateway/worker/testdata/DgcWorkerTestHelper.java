@@ -72,6 +72,7 @@ public class DgcWorkerTestHelper {
     public static final String COUNTRY_LIST =
         "[\"DX\",\"DE\",\"ZZ\",\"XX\",\"AT\",\"LU\",\"HR\",\"SE\",\"NL\",\"FR\",\"ES\",\"DK\",\"LT\",\"GR\",\"IT\",\"CZ\",\"YY\",\"IS\",\"BG\",\"MT\",\"BE\",\"RO\",\"LV\",\"CY\",\"EE\",\"PL\",\"PT\",\"WW\",\"SI\",\"IE\",\"SK\",\"YA\",\"YB\",\"LI\",\"CH\",\"FI\",\"NO\",\"HU\",\"VA\",\"SM\",\"TR\",\"MK\",\"UA\"]";
     public static final String COUNTRY_LIST_EU_ONLY = "[\"EU\"]";
+    public static final String COUNTRY_LIST_EU_IT = "[\"EU\",\"IT\"]";
     public static final String COUNTRY_LIST_HASH =
         "54ecef1421fe57f8939400ef77e6c9055810a89ea10200d54461546b0eb2e2da";
 
@@ -171,6 +172,22 @@ public class DgcWorkerTestHelper {
         );
     }
 
+    public static RestApiResponse<String> getCountryListEuIt() {
+        return new RestApiResponse<String>(
+            HttpStatus.OK,
+            null,
+            COUNTRY_LIST_EU_IT
+        );
+    }
+
+    public static RestApiResponse<Map<String, List<ValidationRuleDto>>> getEmptyRulesResponse() {
+        return new RestApiResponse<Map<String, List<ValidationRuleDto>>>(
+            HttpStatus.OK,
+            null,
+            new HashMap<String, List<ValidationRuleDto>>()
+        );
+    }
+
     public static RestApiResponse<List<String>> getValueSetIdsResponse() {
         return new RestApiResponse<List<String>>(
             HttpStatus.OK,